@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.auth.ClientCredential;
+import com.akamai.netstorage.exception.ConnectionException;
+import com.akamai.netstorage.exception.NetStorageException;
+import com.akamai.netstorage.exception.UnspecificNetstorageException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@link Transport} on the JDK {@link HttpClient}, available on Java 11 and later. Requests are signed with the same
+ * {@link NetStorageCMSv35Signer#computeHeaders(ClientCredential)} as on the {@link HttpURLConnection} path, but sent
+ * over HTTP/2 where the endpoint negotiates it, falling back to HTTP/1.1 otherwise. Over HTTP/2 all concurrent
+ * requests to a host share a single connection, so small requests no longer wait for a free connection or behind a
+ * large transfer.
+ * <p>
+ * Uploads are streamed through a {@link HttpRequest.BodyPublisher}, responses through a
+ * {@link HttpResponse.BodySubscriber} as {@link InputStream}. The connect timeout is the one of the client; the read
+ * timeout of the signer limits the wait for the response headers only.
+ */
+public class HttpClientTransport implements Transport {
+
+    private static final int MAX_DRAIN_LENGTH = SignerInputStream.MAX_DRAIN_LENGTH;
+
+    private final HttpClient httpClient;
+
+    public HttpClientTransport() {
+        this(15000);
+    }
+
+    /**
+     * @param connectTimeout connect timeout in milliseconds
+     */
+    public HttpClientTransport(int connectTimeout) {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .build());
+    }
+
+    /**
+     * @param httpClient a configured client, e.g. with an own executor or SSL context. Redirects must not be followed,
+     *                   a stream upload cannot be sent twice.
+     */
+    public HttpClientTransport(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    @Override
+    public InputStream execute(NetStorageCMSv35Signer signer, ClientCredential credential) throws NetStorageException {
+        HttpRequest request = sign(signer, credential);
+        HttpResponse<InputStream> response;
+        try {
+            if (signer.getCancellation() != null) {
+                CompletableFuture<HttpResponse<InputStream>> future = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+                // aborts the exchange where the JDK supports it, e.g. resets the HTTP/2 stream
+                signer.getCancellation().onCancel(() -> future.cancel(true));
+                response = future.get();
+            } else {
+                response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            }
+        } catch (IOException e) {
+            throw new ConnectionException("Communication Error", e);
+        } catch (ExecutionException | CancellationException e) {
+            throw new ConnectionException("Communication Error", e.getCause() != null ? e.getCause() : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnspecificNetstorageException("Waiting for the response was interrupted.", e);
+        }
+        validate(signer, response);
+        return new HttpClientInputStream(response);
+    }
+
+    /**
+     * @return the request with the headers of {@link APIEventBean#getRequestHeaders()} and the signing headers
+     */
+    protected HttpRequest sign(NetStorageCMSv35Signer signer, ClientCredential credential) {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(signer.getUrl().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid url " + signer.getUrl(), e);
+        }
+        if (signer.getReadTimeout() > 0)
+            builder.timeout(Duration.ofMillis(signer.getReadTimeout()));
+
+        if (signer.getParams().getRequestHeaders() != null)
+            for (Map.Entry<String, String> entry : signer.getParams().getRequestHeaders().entrySet())
+                builder.setHeader(entry.getKey(), entry.getValue());
+        for (Map.Entry<String, String> entry : signer.computeHeaders(credential).entrySet())
+            builder.setHeader(entry.getKey(), entry.getValue());
+
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.noBody();
+        if (signer.getUploadStream() != null) {
+            InputStream uploadStream = signer.getUploadStream();
+            body = HttpRequest.BodyPublishers.ofInputStream(() -> uploadStream);
+            // a known size is sent as Content-Length, otherwise chunked
+            if (signer.getUploadSize() > 0)
+                body = HttpRequest.BodyPublishers.fromPublisher(body, signer.getUploadSize());
+        }
+        return builder.method(signer.getMethod(), body).build();
+    }
+
+    /**
+     * Same checks as {@link NetStorageCMSv35Signer#validate(HttpURLConnection)}
+     */
+    private void validate(NetStorageCMSv35Signer signer, HttpResponse<InputStream> response) throws NetStorageException {
+        // the time this request was signed with, before learning from its Date header
+        long currentTime = signer.getCurrentTime();
+        long responseDate = response.headers().firstValue("Date").map(HttpClientTransport::parseDate).orElse(0L);
+        if (responseDate != 0 && signer.getClockSkew() != null)
+            signer.getClockSkew().update(responseDate);
+
+        int responseCode = response.statusCode();
+        if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_PARTIAL)
+            return;
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        // closing an unread body resets the stream (HTTP/2) or closes the connection (HTTP/1.1)
+        try (InputStream inputStream = response.body()) {
+            Utils.readToEnd(inputStream, NetStorageCMSv35Signer.MAX_ERROR_BODY_LENGTH, body);
+        } catch (IOException e) {
+            // the status is known, the body is only informative
+        }
+        String responseBody = body.size() > 0 ? new String(body.toByteArray(), StandardCharsets.UTF_8) : null;
+        // HTTP/2 has no reason phrase
+        throw signer.toException(responseCode, "HTTP " + responseCode, response.headers().map(), responseBody, responseDate, currentTime);
+    }
+
+    private static long parseDate(String value) {
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Response body of a successful request. Like {@link SignerInputStream}, closing it drains a small remainder so an
+     * HTTP/1.1 connection can be reused.
+     */
+    static class HttpClientInputStream extends FilterInputStream implements TransportResponse {
+        private final HttpResponse<InputStream> response;
+        private boolean consumed = false;
+        private boolean closed = false;
+
+        HttpClientInputStream(HttpResponse<InputStream> response) {
+            super(response.body());
+            this.response = response;
+        }
+
+        public HttpResponse<InputStream> getResponse() {
+            return response;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            int result = super.read();
+            if (result == -1)
+                consumed = true;
+            return result;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result == -1)
+                consumed = true;
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+            }
+            try {
+                if (!consumed)
+                    Utils.readToEnd(in, MAX_DRAIN_LENGTH, null);
+            } catch (IOException e) {
+                // closed below anyway
+            } finally {
+                super.close();
+            }
+        }
+
+        @Override
+        public int getResponseCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return response.headers().map();
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        }
+
+        @Override
+        public void abort() {
+            try {
+                super.close();
+            } catch (IOException e) {
+                // ignore, nothing to be read any more
+            }
+        }
+    }
+}
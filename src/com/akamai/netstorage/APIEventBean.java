@@ -28,6 +28,7 @@ public class APIEventBean {
     private int version = APIEventBean.VERSION;
     private String action;
     private Map<String, String> additionalParams;
+    private Map<String, String> requestHeaders;
 
     public APIEventBean(String action) {
         this.action = action;
@@ -50,6 +51,19 @@ public class APIEventBean {
         return this;
     }
 
+    public Map<String, String> getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    /**
+     * @param requestHeaders further HTTP headers of the request, e.g. a Range. They are not part of the action header.
+     * @return this
+     */
+    public APIEventBean withRequestHeaders(Map<String, String> requestHeaders) {
+        this.requestHeaders = requestHeaders;
+        return this;
+    }
+
     public Map<String, String> asQueryParams() {
         Map<String, String> result = Utils.convertObjectAsMap(this);
         if (additionalParams != null && additionalParams.size() > 0)
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.builders.*;
+import com.akamai.netstorage.exception.IllegalArgumentException;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A single bodyless operation of a {@link NetStorage#batch(java.util.Collection, int)}: the target path and the API
+ * action. The HTTP method is derived from the action the same way the corresponding {@link NetStorage} methods do.
+ */
+public class BatchOperation {
+
+    private static final Set<String> GET_ACTIONS = new HashSet<>(Arrays.asList("dir", "download", "du", "list", "stat"));
+    private static final Set<String> POST_ACTIONS = new HashSet<>(Arrays.asList("delete", "rmdir"));
+
+    private final String method;
+    private final String path;
+    private final APIEventBean action;
+
+    public BatchOperation(String path, APIEventBean action) {
+        this(methodOf(action), path, action);
+    }
+
+    public BatchOperation(String method, String path, APIEventBean action) {
+        if (path == null)
+            throw new IllegalArgumentException("path cannot be null");
+        if (action == null)
+            throw new IllegalArgumentException("action cannot be null");
+        if ("upload".equals(action.getAction()))
+            throw new IllegalArgumentException("Uploads need a body and cannot be batched");
+        this.method = method;
+        this.path = path;
+        this.action = action;
+    }
+
+    private static String methodOf(APIEventBean action) {
+        if (action == null)
+            throw new IllegalArgumentException("action cannot be null");
+        if (GET_ACTIONS.contains(action.getAction()))
+            return "GET";
+        if (POST_ACTIONS.contains(action.getAction()))
+            return "POST";
+        return "PUT";
+    }
+
+    public static BatchOperation delete(String path) {
+        return new BatchOperation(path, new APIEventDelete());
+    }
+
+    public static BatchOperation mkdir(String path) {
+        return new BatchOperation(path, new APIEventMkDir());
+    }
+
+    public static BatchOperation mtime(String path, Date mtime) {
+        return new BatchOperation(path, new APIEventMtime().withMtime(mtime));
+    }
+
+    public static BatchOperation rename(String originalPath, String newPath) {
+        return new BatchOperation(originalPath, new APIEventRename().to(newPath));
+    }
+
+    public static BatchOperation rmdir(String path) {
+        return new BatchOperation(path, new APIEventRmdir());
+    }
+
+    public static BatchOperation setmd(String path, Map<String, String> additionalParams) {
+        return new BatchOperation(path, new APIEventSetmd().withAdditionalParams(additionalParams));
+    }
+
+    public static BatchOperation symlink(String path, String target) {
+        return new BatchOperation(path, new APIEventSymlink().to(target));
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public APIEventBean getAction() {
+        return action;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + path + " " + action.getAction();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.NetStorageException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a {@link NetStorage#batch(java.util.Collection, int)}: one {@link Item} per operation in the order of
+ * the operations, failed operations do not abort the batch.
+ */
+public class BatchResult {
+
+    private final List<Item> items;
+
+    BatchResult(List<Item> items) {
+        this.items = Collections.unmodifiableList(items);
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public List<Item> getFailures() {
+        List<Item> failures = new ArrayList<>();
+        for (Item item : items) {
+            if (!item.isSuccessful())
+                failures.add(item);
+        }
+        return failures;
+    }
+
+    public boolean isSuccessful() {
+        for (Item item : items) {
+            if (!item.isSuccessful())
+                return false;
+        }
+        return true;
+    }
+
+    public int getSuccessCount() {
+        return items.size() - getFailures().size();
+    }
+
+    public static class Item {
+        private final BatchOperation operation;
+        private final NetStorageException exception;
+
+        Item(BatchOperation operation, NetStorageException exception) {
+            this.operation = operation;
+            this.exception = exception;
+        }
+
+        public BatchOperation getOperation() {
+            return operation;
+        }
+
+        public boolean isSuccessful() {
+            return exception == null;
+        }
+
+        /**
+         * @return the reason of the failure, null if successful
+         */
+        public NetStorageException getException() {
+            return exception;
+        }
+
+        @Override
+        public String toString() {
+            return operation + (exception == null ? " OK" : " failed: " + exception);
+        }
+    }
+}
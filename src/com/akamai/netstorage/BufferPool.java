@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded lock-free pool of reusable I/O buffers. Draining a response, hashing or copying a stream borrows a buffer
+ * instead of allocating a fresh one per call:
+ * <pre>
+ * byte[] buffer = BufferPool.shared().acquire();
+ * try {
+ *     ...
+ * } finally {
+ *     BufferPool.shared().release(buffer);
+ * }
+ * </pre>
+ * The buffers are heap arrays, as all I/O of this library goes through {@link java.io.InputStream} and
+ * {@link java.io.OutputStream}. With 64 KiB they stay below the G1 humongous object threshold for any region size.
+ * If the pool is exhausted, a new buffer is allocated; surplus buffers released to a full pool are dropped.
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_BUFFERS = 64;
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BUFFERS);
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxBuffers) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("bufferSize must be positive");
+        if (maxBuffers < 0)
+            throw new IllegalArgumentException("maxBuffers must not be negative");
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+    }
+
+    /**
+     * @return the pool used by all I/O paths of this library
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return a buffer of {@link #getBufferSize()} bytes, to be given back with {@link #release(byte[])}
+     */
+    public byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        if (buffer == null)
+            return new byte[bufferSize];
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * @param buffer a buffer obtained by {@link #acquire()}, must not be used afterwards
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != bufferSize)
+            return;
+        if (pooled.incrementAndGet() <= maxBuffers)
+            buffers.offer(buffer);
+        else
+            pooled.decrementAndGet();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getMaxBuffers() {
+        return maxBuffers;
+    }
+
+    /**
+     * @return amount of buffers currently available in the pool
+     */
+    public int getPooledCount() {
+        return pooled.get();
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.StreamClosingException;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of the SHA-256 of local files, so uploading an unchanged file again does not read it twice. A file
+ * is identified by its absolute path, size, modification time and inode; any change of these hashes it again.
+ * <p>
+ * The store is a single file holding an open addressing hash table of fixed size slots, memory mapped and updated in
+ * place, so a lookup touches a single page and the store is never parsed as a whole. The table is rehashed into a new
+ * file of twice the capacity once it is half full. Entries of changed files replace the entry of their path, entries of
+ * deleted files are kept.
+ */
+public class ChecksumStore implements Closeable {
+    private static final Logger log = Logger.getLogger(ChecksumStore.class.getName());
+
+    private static final int MAGIC = 0x4e534353; // NSCS
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    // path hash, size, mtime, inode, sha256
+    private static final int SLOT_SIZE = 64;
+    private static final int INITIAL_CAPACITY = 1024;
+    // keeps the mapping below 2 GiB
+    private static final int MAX_CAPACITY = 1 << 24;
+
+    private final Path file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+
+    /**
+     * @param file the store, created if absent. A file that is not a store is overwritten.
+     */
+    public ChecksumStore(Path file) {
+        this.file = file;
+        try {
+            if (!open())
+                create(file, INITIAL_CAPACITY);
+            if (!open())
+                throw new IOException("Could not initialize " + file);
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not open checksum store " + file, e);
+        }
+    }
+
+    private boolean open() throws IOException {
+        if (!Files.exists(file))
+            return false;
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size >= HEADER_SIZE) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            int capacity = buffer.getInt(8);
+            if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && Integer.bitCount(capacity) == 1
+                    && capacity <= MAX_CAPACITY && size == HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+                this.channel = channel;
+                this.buffer = buffer;
+                this.capacity = capacity;
+                this.count = buffer.getInt(12);
+                return true;
+            }
+        }
+        channel.close();
+        log.warning("Replacing invalid checksum store " + file);
+        Files.delete(file);
+        return false;
+    }
+
+    private static void create(Path file, int capacity) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(capacity).putInt(0).rewind();
+            channel.write(header, 0);
+            // sparse, the slots read as empty
+            channel.write(ByteBuffer.allocate(1), HEADER_SIZE + (long) capacity * SLOT_SIZE - 1);
+        }
+        NetStorage.moveAtomically(temp.toFile(), file.toFile());
+    }
+
+    /**
+     * @param file a local file
+     * @return the identity of the file, to be taken before hashing it
+     */
+    public static Key key(File file) {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long inode;
+            try {
+                inode = ((Number) Files.getAttribute(path, "unix:ino")).longValue();
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                inode = attributes.fileKey() != null ? attributes.fileKey().hashCode() : 0;
+            }
+            byte[] hash = Utils.computeHash(new ByteArrayInputStream(path.toString().getBytes(StandardCharsets.UTF_8)), Utils.HashAlgorithm.MD5);
+            long pathHash = ByteBuffer.wrap(hash).getLong();
+            return new Key(pathHash != 0 ? pathHash : 1, attributes.size(),
+                    attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), inode);
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not read the attributes of " + file, e);
+        }
+    }
+
+    /**
+     * @param key identity of a file
+     * @return the SHA-256 stored for the identity, null if unknown or the file changed since
+     */
+    public synchronized byte[] get(Key key) {
+        int slot = find(key.pathHash);
+        if (slot < 0 || !matches(slot, key))
+            return null;
+        byte[] sha256 = new byte[32];
+        ((ByteBuffer) buffer.duplicate().position(offset(slot) + 32)).get(sha256);
+        return sha256;
+    }
+
+    /**
+     * @param key    identity of the file taken before hashing it
+     * @param sha256 SHA-256 of the file
+     */
+    public synchronized void put(Key key, byte[] sha256) {
+        if (sha256 == null || sha256.length != 32)
+            throw new IllegalArgumentException("sha256 must have 32 bytes");
+        int slot = find(key.pathHash);
+        if (slot < 0) {
+            if (2 * (count + 1) > capacity) {
+                if (!grow())
+                    return;
+                slot = find(key.pathHash);
+            }
+            slot = -slot - 1;
+            buffer.putInt(12, ++count);
+        }
+        write(buffer, offset(slot), key, sha256);
+    }
+
+    /**
+     * @param key identity of a file whose stored SHA-256 must not be used anymore
+     */
+    public synchronized void remove(Key key) {
+        int slot = find(key.pathHash);
+        // the slot stays taken by the path, an invalid size never matches
+        if (slot >= 0)
+            buffer.putLong(offset(slot) + 8, -1);
+    }
+
+    /**
+     * @return amount of stored files
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Writes the changes to the disk
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    // the size is written last and invalidated first, so a torn update never matches
+    private static void write(ByteBuffer buffer, int offset, Key key, byte[] sha256) {
+        buffer.putLong(offset + 8, -1);
+        ((ByteBuffer) buffer.duplicate().position(offset + 32)).put(sha256);
+        buffer.putLong(offset + 16, key.mtime);
+        buffer.putLong(offset + 24, key.inode);
+        buffer.putLong(offset, key.pathHash);
+        buffer.putLong(offset + 8, key.size);
+    }
+
+    private boolean matches(int slot, Key key) {
+        int offset = offset(slot);
+        return buffer.getLong(offset + 8) == key.size && buffer.getLong(offset + 16) == key.mtime
+                && buffer.getLong(offset + 24) == key.inode;
+    }
+
+    /**
+     * @return the slot of the path, or -(free slot + 1) if absent
+     */
+    private int find(long pathHash) {
+        int mask = capacity - 1;
+        for (int slot = (int) (pathHash ^ (pathHash >>> 32)) & mask; ; slot = (slot + 1) & mask) {
+            long stored = buffer.getLong(offset(slot));
+            if (stored == pathHash)
+                return slot;
+            if (stored == 0)
+                return -slot - 1;
+        }
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private boolean grow() {
+        if (capacity >= MAX_CAPACITY) {
+            log.warning("Checksum store " + file + " is full");
+            return false;
+        }
+        try {
+            Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            int grown = capacity * 2;
+            try (FileChannel target = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = target.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) grown * SLOT_SIZE);
+                mapped.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, grown).putInt(12, count);
+                for (int slot = 0; slot < capacity; slot++) {
+                    int offset = offset(slot);
+                    long pathHash = buffer.getLong(offset);
+                    if (pathHash == 0)
+                        continue;
+                    int free = (int) (pathHash ^ (pathHash >>> 32)) & (grown - 1);
+                    while (mapped.getLong(offset(free)) != 0)
+                        free = (free + 1) & (grown - 1);
+                    ByteBuffer source = (ByteBuffer) buffer.duplicate().position(offset).limit(offset + SLOT_SIZE);
+                    ((ByteBuffer) mapped.duplicate().position(offset(free))).put(source);
+                }
+                mapped.force();
+            }
+            channel.close();
+            NetStorage.moveAtomically(temp.toFile(), file.toFile());
+            if (!open())
+                throw new IOException("Could not reopen " + file);
+            return true;
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not grow checksum store " + file, e);
+        }
+    }
+
+    /**
+     * Identity of a local file
+     */
+    public static final class Key {
+        private final long pathHash;
+        private final long size;
+        private final long mtime;
+        private final long inode;
+
+        Key(long pathHash, long size, long mtime, long inode) {
+            this.pathHash = pathHash;
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+        }
+    }
+}
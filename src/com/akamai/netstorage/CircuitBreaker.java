@@ -0,0 +1,257 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.CircuitBreakerOpenException;
+import com.akamai.netstorage.exception.ConnectionException;
+import com.akamai.netstorage.exception.UnspecificNetstorageException;
+
+/**
+ * A count based circuit breaker guarding the communication with a single NetStorage hostname.
+ * <p>
+ * While CLOSED, the outcome of the last {@link Config#getSlidingWindowSize()} calls is recorded. Once at least
+ * {@link Config#getMinimumNumberOfCalls()} calls were recorded and the failure rate reaches
+ * {@link Config#getFailureRateThreshold()} percent, the breaker trips to OPEN and every call fails fast with a
+ * {@link CircuitBreakerOpenException} instead of waiting for the connect and read timeouts. After
+ * {@link Config#getWaitDurationInOpenState()} milliseconds the breaker moves to HALF_OPEN and lets
+ * {@link Config#getPermittedCallsInHalfOpenState()} probe calls through: if all of them succeed the breaker closes
+ * again, a single failure re-opens it.
+ * <p>
+ * Only transport problems ({@link ConnectionException}) and server side errors (5xx) count as failures. A 404 or 403
+ * is a perfectly healthy answer of the server.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Thresholds of a {@link CircuitBreaker}. Plain bean so it can be bound from external configuration.
+     */
+    public static class Config {
+        private int failureRateThreshold = 50;
+        private int slidingWindowSize = 20;
+        private int minimumNumberOfCalls = 10;
+        private long waitDurationInOpenState = 30000;
+        private int permittedCallsInHalfOpenState = 3;
+
+        public int getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        public void setFailureRateThreshold(int failureRateThreshold) {
+            if (failureRateThreshold <= 0 || failureRateThreshold > 100)
+                throw new IllegalArgumentException("failureRateThreshold must be within 1 and 100");
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        public int getSlidingWindowSize() {
+            return slidingWindowSize;
+        }
+
+        public void setSlidingWindowSize(int slidingWindowSize) {
+            if (slidingWindowSize <= 0)
+                throw new IllegalArgumentException("slidingWindowSize must be positive");
+            this.slidingWindowSize = slidingWindowSize;
+        }
+
+        public int getMinimumNumberOfCalls() {
+            return minimumNumberOfCalls;
+        }
+
+        public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+            if (minimumNumberOfCalls <= 0)
+                throw new IllegalArgumentException("minimumNumberOfCalls must be positive");
+            this.minimumNumberOfCalls = minimumNumberOfCalls;
+        }
+
+        public long getWaitDurationInOpenState() {
+            return waitDurationInOpenState;
+        }
+
+        public void setWaitDurationInOpenState(long waitDurationInOpenState) {
+            if (waitDurationInOpenState < 0)
+                throw new IllegalArgumentException("waitDurationInOpenState must not be negative");
+            this.waitDurationInOpenState = waitDurationInOpenState;
+        }
+
+        public int getPermittedCallsInHalfOpenState() {
+            return permittedCallsInHalfOpenState;
+        }
+
+        public void setPermittedCallsInHalfOpenState(int permittedCallsInHalfOpenState) {
+            if (permittedCallsInHalfOpenState <= 0)
+                throw new IllegalArgumentException("permittedCallsInHalfOpenState must be positive");
+            this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+        }
+    }
+
+    private final String hostname;
+    private final int failureRateThreshold;
+    private final int minimumNumberOfCalls;
+    private final long waitDurationInOpenState;
+    private final int permittedCallsInHalfOpenState;
+
+    // ring buffer of the most recent outcomes, true = failure
+    private final boolean[] outcomes;
+    private int position = 0;
+    private int recordedCalls = 0;
+    private int failedCalls = 0;
+
+    private State state = State.CLOSED;
+    private long openedAt = 0;
+    private int halfOpenPermits = 0;
+    private int halfOpenSuccesses = 0;
+
+    public CircuitBreaker(String hostname, Config config) {
+        this.hostname = hostname;
+        this.failureRateThreshold = config.getFailureRateThreshold();
+        this.minimumNumberOfCalls = Math.min(config.getMinimumNumberOfCalls(), config.getSlidingWindowSize());
+        this.waitDurationInOpenState = config.getWaitDurationInOpenState();
+        this.permittedCallsInHalfOpenState = config.getPermittedCallsInHalfOpenState();
+        this.outcomes = new boolean[config.getSlidingWindowSize()];
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && currentTimeMillis() - openedAt >= waitDurationInOpenState)
+            transitionTo(State.HALF_OPEN);
+        return state;
+    }
+
+    /**
+     * @return the failure rate in percent of the currently recorded calls, or -1 if not enough calls were recorded yet
+     */
+    public synchronized float getFailureRate() {
+        if (recordedCalls < minimumNumberOfCalls)
+            return -1;
+        return failedCalls * 100f / recordedCalls;
+    }
+
+    /**
+     * Must be called before each request. Every granted permission has to be followed by either
+     * {@link #onSuccess()}, {@link #onError(Throwable)} or {@link #releasePermission()}, otherwise a half-open probe
+     * stays taken and the breaker never closes again.
+     *
+     * @throws CircuitBreakerOpenException if the breaker is open or all half-open probes are already in flight
+     */
+    public synchronized void acquirePermission() throws CircuitBreakerOpenException {
+        switch (getState()) {
+            case CLOSED:
+                return;
+            case HALF_OPEN:
+                if (halfOpenPermits < permittedCallsInHalfOpenState) {
+                    halfOpenPermits++;
+                    return;
+                }
+                throw new CircuitBreakerOpenException(String.format("Circuit breaker for %s is half open and waiting for probe calls", hostname));
+            default:
+                throw new CircuitBreakerOpenException(String.format("Circuit breaker for %s is open", hostname));
+        }
+    }
+
+    /**
+     * Returns a granted permission without recording an outcome, e.g. if the call was cancelled or failed for a reason
+     * unrelated to the host.
+     */
+    public synchronized void releasePermission() {
+        if (state == State.HALF_OPEN && halfOpenPermits > 0)
+            halfOpenPermits--;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            if (++halfOpenSuccesses >= permittedCallsInHalfOpenState)
+                transitionTo(State.CLOSED);
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Records the outcome of a call that terminated with the given exception. Exceptions which are not considered
+     * a failure (see {@link #isFailure(Throwable)}) are recorded as success.
+     *
+     * @param throwable the exception the call terminated with
+     */
+    public synchronized void onError(Throwable throwable) {
+        if (!isFailure(throwable)) {
+            onSuccess();
+        } else if (state == State.HALF_OPEN) {
+            transitionTo(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recordedCalls >= minimumNumberOfCalls && failedCalls * 100 >= failureRateThreshold * recordedCalls)
+                transitionTo(State.OPEN);
+        }
+    }
+
+    /**
+     * @param throwable exception thrown by a request
+     * @return true if the exception indicates an unhealthy host
+     */
+    public boolean isFailure(Throwable throwable) {
+        if (throwable instanceof ConnectionException)
+            return true;
+        if (throwable instanceof UnspecificNetstorageException) {
+            int responseCode = ((UnspecificNetstorageException) throwable).getResponseCode();
+            return responseCode >= 500;
+        }
+        return false;
+    }
+
+    private void record(boolean failure) {
+        if (recordedCalls == outcomes.length) {
+            if (outcomes[position]) failedCalls--;
+        } else {
+            recordedCalls++;
+        }
+        outcomes[position] = failure;
+        if (failure) failedCalls++;
+        position = (position + 1) % outcomes.length;
+    }
+
+    private void transitionTo(State newState) {
+        state = newState;
+        halfOpenPermits = 0;
+        halfOpenSuccesses = 0;
+        if (newState == State.OPEN) {
+            openedAt = currentTimeMillis();
+        } else if (newState == State.CLOSED) {
+            position = 0;
+            recordedCalls = 0;
+            failedCalls = 0;
+        }
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{" +
+                "hostname='" + hostname + '\'' +
+                ", state=" + state +
+                '}';
+    }
+}
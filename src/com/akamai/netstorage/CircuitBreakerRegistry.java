@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds one {@link CircuitBreaker} per NetStorage hostname. A registry can be shared between several
+ * {@link NetStorage} instances talking to the same hosts so that they trip together.
+ */
+public class CircuitBreakerRegistry {
+
+    private final CircuitBreaker.Config config;
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakerRegistry() {
+        this(new CircuitBreaker.Config());
+    }
+
+    public CircuitBreakerRegistry(CircuitBreaker.Config config) {
+        this.config = config;
+    }
+
+    public CircuitBreaker.Config getConfig() {
+        return config;
+    }
+
+    /**
+     * @param hostname the NetStorage hostname (without port or protocol)
+     * @return the circuit breaker for that hostname, created on first access
+     */
+    public CircuitBreaker forHost(String hostname) {
+        return circuitBreakers.computeIfAbsent(hostname, host -> new CircuitBreaker(host, config));
+    }
+
+    public Collection<CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableCollection(circuitBreakers.values());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+/**
+ * Offset between the local clock and the clock of NetStorage, learned from the Date header of the responses.
+ * <p>
+ * NetStorage rejects requests signed with a time more than 30 seconds off its own clock. Signing with
+ * {@link #currentTimeMillis()} keeps requests valid on hosts with a drifting clock, e.g. containers without time
+ * synchronisation. The offset only changes if it is off by more than {@link #getTolerance()} milliseconds, as the Date
+ * header has a resolution of one second.
+ */
+public class ClockSkew {
+
+    // milliseconds the server clock is ahead of the local clock
+    private volatile long offset = 0;
+    private volatile boolean measured = false;
+    private long tolerance = 2000;
+
+    /**
+     * @param serverTime the time of a response Date header
+     */
+    public void update(long serverTime) {
+        // the Date header is truncated to seconds, on average the server time is half a second later
+        long measuredOffset = serverTime + 500 - localTimeMillis();
+        if (Math.abs(measuredOffset - offset) > tolerance)
+            offset = measuredOffset;
+        measured = true;
+    }
+
+    /**
+     * @return the current time of the server clock as far as known
+     */
+    public long currentTimeMillis() {
+        return localTimeMillis() + offset;
+    }
+
+    protected long localTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return milliseconds the server clock is ahead of the local clock
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return true once a Date header was seen
+     */
+    public boolean isMeasured() {
+        return measured;
+    }
+
+    public long getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @param tolerance milliseconds the offset may be off before it is corrected
+     */
+    public void setTolerance(long tolerance) {
+        if (tolerance < 0)
+            throw new IllegalArgumentException("tolerance must not be negative");
+        this.tolerance = tolerance;
+    }
+}
@@ -0,0 +1,644 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Socket factory for the HTTPS connections of {@link NetStorage} that connects to all addresses of a hostname instead
+ * of the first address only.
+ * <p>
+ * The factory does not replace the JVM lookup: {@link HttpsURLConnection} resolves the hostname with
+ * {@link InetAddress} into the address it connects to before the factory is involved. That lookup is cached by the
+ * JVM ({@code networkaddress.cache.ttl}); a failing lookup is tolerated, as the factory connects by hostname with its
+ * own addresses, but a slow JVM resolver still delays the connect.
+ * <p>
+ * The factory's own lookups are cached for {@link #getDnsTtl()} milliseconds. A connect races the addresses of the hostname
+ * Happy-Eyeballs style (RFC 8305): the addresses are tried in order, alternating between IPv6 and IPv4, and the next
+ * attempt starts after {@link #getAttemptDelay()} milliseconds or as soon as the previous one failed. The first
+ * established connection wins, the others are closed. The winning address is pinned and tried first next time,
+ * addresses that failed are tried last for {@link #getFailureDuration()} milliseconds.
+ * <p>
+ * TLS is layered on top by the wrapped factory, so certificates are still verified against the hostname. The connect
+ * threads are stopped by {@link #close()}.
+ */
+public class ConnectionRacing extends SSLSocketFactory implements AutoCloseable {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final SSLSocketFactory delegate;
+    private final ConcurrentMap<String, Resolved> cache = new ConcurrentHashMap<>();
+    // address -> end of penalty
+    private final ConcurrentMap<InetAddress, Long> failures = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "netstorage-connect-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong races = new AtomicLong();
+
+    // milliseconds
+    private long dnsTtl = 60000;
+    private long attemptDelay = 250;
+    private long failureDuration = 30000;
+
+    public ConnectionRacing() {
+        this(HttpsURLConnection.getDefaultSSLSocketFactory());
+    }
+
+    /**
+     * @param delegate factory layering TLS on top of the raced connections
+     */
+    public ConnectionRacing(SSLSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param hostname hostname to resolve
+     * @return the addresses in connect order, pinned address first and failed addresses last
+     * @throws UnknownHostException if the hostname cannot be resolved
+     */
+    public List<InetAddress> resolve(String hostname) throws UnknownHostException {
+        long now = currentTimeMillis();
+        Resolved resolved = cache.get(hostname);
+        if (resolved == null || resolved.expires <= now) {
+            lookups.incrementAndGet();
+            resolved = new Resolved(interleave(lookup(hostname)), now + dnsTtl, resolved != null ? resolved.pinned : null);
+            cache.put(hostname, resolved);
+        }
+
+        List<InetAddress> ordered = new ArrayList<>(resolved.addresses.size());
+        List<InetAddress> failed = new ArrayList<>();
+        if (resolved.pinned != null && resolved.addresses.contains(resolved.pinned) && !hasFailed(resolved.pinned, now))
+            ordered.add(resolved.pinned);
+        for (InetAddress address : resolved.addresses) {
+            if (address.equals(resolved.pinned) && !ordered.isEmpty())
+                continue;
+            if (hasFailed(address, now))
+                failed.add(address);
+            else
+                ordered.add(address);
+        }
+        ordered.addAll(failed);
+        return ordered;
+    }
+
+    /**
+     * @param hostname hostname to resolve
+     * @return all addresses of the hostname
+     * @throws UnknownHostException if the hostname cannot be resolved
+     */
+    protected List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        return Arrays.asList(InetAddress.getAllByName(hostname));
+    }
+
+    /**
+     * @return the addresses alternating between the address families, starting with the family of the first one
+     */
+    static List<InetAddress> interleave(List<InetAddress> addresses) {
+        if (addresses.isEmpty())
+            return addresses;
+        Deque<InetAddress> first = new ArrayDeque<>();
+        Deque<InetAddress> second = new ArrayDeque<>();
+        Class<?> family = addresses.get(0).getClass();
+        for (InetAddress address : addresses)
+            (address.getClass() == family ? first : second).add(address);
+        List<InetAddress> interleaved = new ArrayList<>(addresses.size());
+        while (!first.isEmpty() || !second.isEmpty()) {
+            if (!first.isEmpty())
+                interleaved.add(first.poll());
+            if (!second.isEmpty())
+                interleaved.add(second.poll());
+        }
+        return interleaved;
+    }
+
+    private boolean hasFailed(InetAddress address, long now) {
+        Long until = failures.get(address);
+        return until != null && until > now;
+    }
+
+    private void onConnected(String hostname, InetAddress address) {
+        failures.remove(address);
+        Resolved resolved = cache.get(hostname);
+        if (resolved != null && !address.equals(resolved.pinned))
+            cache.replace(hostname, resolved, new Resolved(resolved.addresses, resolved.expires, address));
+    }
+
+    private void onFailed(InetAddress address) {
+        failures.put(address, currentTimeMillis() + failureDuration);
+    }
+
+    /**
+     * Connects to the first address of the hostname that answers.
+     *
+     * @param hostname hostname to connect to
+     * @param port     port to connect to
+     * @param timeout  milliseconds until the whole race fails, 0 waits forever
+     * @return the connected socket
+     * @throws IOException if no address could be connected
+     */
+    Socket race(String hostname, int port, int timeout) throws IOException {
+        return race(hostname, port, timeout, Collections.emptyList());
+    }
+
+    /**
+     * @param options applied to the socket of every attempt before it connects, e.g. buffer sizes which determine the
+     *                TCP window scale
+     */
+    private Socket race(String hostname, int port, int timeout, List<SocketOption> options) throws IOException {
+        List<InetAddress> addresses = resolve(hostname);
+        races.incrementAndGet();
+        long deadline = timeout > 0 ? currentTimeMillis() + timeout : Long.MAX_VALUE;
+
+        CompletionService<Socket> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<Socket>, InetAddress> attempts = new HashMap<>();
+        // guarded by itself
+        List<Socket> sockets = new ArrayList<>();
+        AtomicBoolean finished = new AtomicBoolean();
+        Socket winner = null;
+        try {
+            start(completionService, attempts, sockets, finished, options, addresses.get(0), port, deadline);
+            int failed = 0;
+            while (true) {
+                long remaining = deadline - currentTimeMillis();
+                if (remaining <= 0)
+                    throw new SocketTimeoutException("Connect to " + hostname + " timed out");
+                boolean more = attempts.size() < addresses.size();
+                Future<Socket> done = completionService.poll(more ? Math.min(attemptDelay, remaining) : remaining, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    // the running attempts are slow, start the next one in parallel
+                    if (more)
+                        start(completionService, attempts, sockets, finished, options, addresses.get(attempts.size()), port, deadline);
+                    continue;
+                }
+                try {
+                    winner = done.get();
+                    onConnected(hostname, attempts.get(done));
+                    return winner;
+                } catch (ExecutionException e) {
+                    onFailed(attempts.get(done));
+                    if (++failed == addresses.size())
+                        throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                    // no attempt left running, start the next one right away
+                    if (failed == attempts.size())
+                        start(completionService, attempts, sockets, finished, options, addresses.get(attempts.size()), port, deadline);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Connect to " + hostname + " was interrupted");
+        } catch (RejectedExecutionException e) {
+            throw new SocketException("Connection racing is closed");
+        } finally {
+            synchronized (sockets) {
+                finished.set(true);
+                // attempts still connecting are aborted, attempts finishing later close their socket themselves
+                for (Socket socket : sockets) {
+                    if (socket != winner)
+                        closeQuietly(socket);
+                }
+            }
+        }
+    }
+
+    private void start(CompletionService<Socket> completionService, Map<Future<Socket>, InetAddress> attempts,
+                       List<Socket> sockets, AtomicBoolean finished, List<SocketOption> options, InetAddress address,
+                       int port, long deadline) {
+        Future<Socket> attempt = completionService.submit(() -> {
+            Socket socket = newSocket();
+            synchronized (sockets) {
+                if (finished.get())
+                    throw new SocketException("Race is already finished");
+                sockets.add(socket);
+            }
+            long remaining = deadline == Long.MAX_VALUE ? 0 : Math.max(1, deadline - currentTimeMillis());
+            try {
+                for (SocketOption option : options)
+                    option.apply(socket);
+                socket.connect(new InetSocketAddress(address, port), (int) Math.min(remaining, Integer.MAX_VALUE));
+            } catch (IOException e) {
+                closeQuietly(socket);
+                throw e;
+            }
+            synchronized (sockets) {
+                if (finished.get())
+                    closeQuietly(socket);
+            }
+            return socket;
+        });
+        attempts.put(attempt, address);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Stops the connect threads, connects racing at that time are aborted. Sockets connected before stay open.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public Socket createSocket() {
+        return new RacingSocket();
+    }
+
+    @Override
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+        return delegate.createSocket(socket, host, port, autoClose);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return delegate.createSocket(race(host, port, 0), host, port, true);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return delegate.createSocket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return delegate.createSocket(address, port, localAddress, localPort);
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    /**
+     * @return amount of DNS lookups, i.e. cache misses
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * @return amount of raced connects
+     */
+    public long getRaces() {
+        return races.get();
+    }
+
+    public long getDnsTtl() {
+        return dnsTtl;
+    }
+
+    /**
+     * @param dnsTtl milliseconds a lookup is cached
+     */
+    public void setDnsTtl(long dnsTtl) {
+        if (dnsTtl < 0)
+            throw new IllegalArgumentException("dnsTtl must not be negative");
+        this.dnsTtl = dnsTtl;
+    }
+
+    public long getAttemptDelay() {
+        return attemptDelay;
+    }
+
+    /**
+     * @param attemptDelay milliseconds to wait for a connect attempt before starting the next one in parallel
+     */
+    public void setAttemptDelay(long attemptDelay) {
+        if (attemptDelay <= 0)
+            throw new IllegalArgumentException("attemptDelay must be positive");
+        this.attemptDelay = attemptDelay;
+    }
+
+    public long getFailureDuration() {
+        return failureDuration;
+    }
+
+    /**
+     * @param failureDuration milliseconds an address that failed to connect is tried last
+     */
+    public void setFailureDuration(long failureDuration) {
+        if (failureDuration < 0)
+            throw new IllegalArgumentException("failureDuration must not be negative");
+        this.failureDuration = failureDuration;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return an unconnected socket for a connect attempt
+     */
+    protected Socket newSocket() {
+        return new Socket();
+    }
+
+    private static class Resolved {
+        final List<InetAddress> addresses;
+        final long expires;
+        final InetAddress pinned;
+
+        Resolved(List<InetAddress> addresses, long expires, InetAddress pinned) {
+            this.addresses = addresses;
+            this.expires = expires;
+            this.pinned = pinned;
+        }
+    }
+
+    /**
+     * Unconnected socket handed to the HTTPS client. Connecting races the addresses of the hostname, afterwards all
+     * calls go to the winning socket. Options set before connecting are applied to every attempt before it connects.
+     */
+    private class RacingSocket extends Socket {
+        private final List<SocketOption> options = new ArrayList<>();
+        private volatile Socket socket;
+        private volatile boolean closed = false;
+
+        @Override
+        public void connect(SocketAddress endpoint) throws IOException {
+            connect(endpoint, 0);
+        }
+
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            if (closed)
+                throw new SocketException("Socket is closed");
+            if (socket != null)
+                throw new SocketException("already connected");
+            InetSocketAddress address = (InetSocketAddress) endpoint;
+            // by hostname, the address the JVM resolved into the endpoint, if any, is not used
+            Socket connected = race(address.getHostString(), address.getPort(), timeout, new ArrayList<>(options));
+            socket = connected;
+            if (closed)
+                connected.close();
+        }
+
+        private Socket connected() throws SocketException {
+            Socket connected = socket;
+            if (connected == null)
+                throw new SocketException("Socket is not connected");
+            return connected;
+        }
+
+        private void option(SocketOption option) throws SocketException {
+            Socket connected = socket;
+            if (connected != null)
+                option.apply(connected);
+            else
+                options.add(option);
+        }
+
+        @Override
+        public void bind(SocketAddress bindpoint) throws IOException {
+            throw new SocketException("Binding is not supported");
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            Socket connected = socket;
+            return connected != null ? connected.getInetAddress() : null;
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            Socket connected = socket;
+            return connected != null ? connected.getLocalAddress() : super.getLocalAddress();
+        }
+
+        @Override
+        public int getPort() {
+            Socket connected = socket;
+            return connected != null ? connected.getPort() : 0;
+        }
+
+        @Override
+        public int getLocalPort() {
+            Socket connected = socket;
+            return connected != null ? connected.getLocalPort() : -1;
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            Socket connected = socket;
+            return connected != null ? connected.getRemoteSocketAddress() : null;
+        }
+
+        @Override
+        public SocketAddress getLocalSocketAddress() {
+            Socket connected = socket;
+            return connected != null ? connected.getLocalSocketAddress() : null;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connected().getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return connected().getOutputStream();
+        }
+
+        @Override
+        public void setTcpNoDelay(boolean on) throws SocketException {
+            option(socket -> socket.setTcpNoDelay(on));
+        }
+
+        @Override
+        public boolean getTcpNoDelay() throws SocketException {
+            return connected().getTcpNoDelay();
+        }
+
+        @Override
+        public void setSoLinger(boolean on, int linger) throws SocketException {
+            option(socket -> socket.setSoLinger(on, linger));
+        }
+
+        @Override
+        public int getSoLinger() throws SocketException {
+            return connected().getSoLinger();
+        }
+
+        @Override
+        public void sendUrgentData(int data) throws IOException {
+            connected().sendUrgentData(data);
+        }
+
+        @Override
+        public void setOOBInline(boolean on) throws SocketException {
+            option(socket -> socket.setOOBInline(on));
+        }
+
+        @Override
+        public boolean getOOBInline() throws SocketException {
+            return connected().getOOBInline();
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) throws SocketException {
+            option(socket -> socket.setSoTimeout(timeout));
+        }
+
+        @Override
+        public int getSoTimeout() throws SocketException {
+            Socket connected = socket;
+            return connected != null ? connected.getSoTimeout() : 0;
+        }
+
+        @Override
+        public void setSendBufferSize(int size) throws SocketException {
+            option(socket -> socket.setSendBufferSize(size));
+        }
+
+        @Override
+        public int getSendBufferSize() throws SocketException {
+            return connected().getSendBufferSize();
+        }
+
+        @Override
+        public void setReceiveBufferSize(int size) throws SocketException {
+            option(socket -> socket.setReceiveBufferSize(size));
+        }
+
+        @Override
+        public int getReceiveBufferSize() throws SocketException {
+            return connected().getReceiveBufferSize();
+        }
+
+        @Override
+        public void setKeepAlive(boolean on) throws SocketException {
+            option(socket -> socket.setKeepAlive(on));
+        }
+
+        @Override
+        public boolean getKeepAlive() throws SocketException {
+            return connected().getKeepAlive();
+        }
+
+        @Override
+        public void setTrafficClass(int tc) throws SocketException {
+            option(socket -> socket.setTrafficClass(tc));
+        }
+
+        @Override
+        public int getTrafficClass() throws SocketException {
+            return connected().getTrafficClass();
+        }
+
+        @Override
+        public void setReuseAddress(boolean on) throws SocketException {
+            option(socket -> socket.setReuseAddress(on));
+        }
+
+        @Override
+        public boolean getReuseAddress() throws SocketException {
+            return connected().getReuseAddress();
+        }
+
+        @Override
+        public void setPerformancePreferences(int connectionTime, int latency, int bandwidth) {
+            // not applicable to the raced sockets
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            Socket connected = socket;
+            if (connected != null)
+                connected.close();
+        }
+
+        @Override
+        public void shutdownInput() throws IOException {
+            connected().shutdownInput();
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            connected().shutdownOutput();
+        }
+
+        @Override
+        public boolean isConnected() {
+            Socket connected = socket;
+            return connected != null && connected.isConnected();
+        }
+
+        @Override
+        public boolean isBound() {
+            Socket connected = socket;
+            return connected != null && connected.isBound();
+        }
+
+        @Override
+        public boolean isClosed() {
+            Socket connected = socket;
+            return closed || connected != null && connected.isClosed();
+        }
+
+        @Override
+        public boolean isInputShutdown() {
+            Socket connected = socket;
+            return connected != null && connected.isInputShutdown();
+        }
+
+        @Override
+        public boolean isOutputShutdown() {
+            Socket connected = socket;
+            return connected != null && connected.isOutputShutdown();
+        }
+
+        @Override
+        public String toString() {
+            Socket connected = socket;
+            return connected != null ? connected.toString() : "RacingSocket[unconnected]";
+        }
+    }
+
+    private interface SocketOption {
+        void apply(Socket socket) throws SocketException;
+    }
+}
@@ -17,6 +17,10 @@ package com.akamai.netstorage;
 
 import com.akamai.auth.ClientCredential;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Default implementation of the {@link ClientCredential}.
  *
@@ -32,6 +36,11 @@ public class DefaultCredential implements ClientCredential {
      */
     private final String hostname;
 
+    /**
+     * The equivalent hostnames, starting with {@link #hostname}.
+     */
+    private final List<String> hostnames;
+
     /**
      * The client token (username).
      */
@@ -62,9 +71,27 @@ public class DefaultCredential implements ClientCredential {
 
      */
     public DefaultCredential(String hostname, String username, String key) {
-        if (hostname == null || hostname.equals("")) {
+        this(Collections.singletonList(hostname), username, key);
+    }
+
+    /**
+     * Constructor for several equivalent hostnames, e.g. multiple upload domains of the same storage group. Requests
+     * are balanced and failed over between them, see {@link HostSelector}.
+     *
+     * @param hostnames hostnames for the connection, the first one is used where a single hostname is needed
+     * @param username the username
+     * @param key the secret key
+     * @throws IllegalArgumentException if any of the parameters is null or empty.
+     */
+    public DefaultCredential(List<String> hostnames, String username, String key) {
+        if (hostnames == null || hostnames.isEmpty()) {
             throw new IllegalArgumentException("hostname cannot be empty.");
         }
+        for (String hostname : hostnames) {
+            if (hostname == null || hostname.equals("")) {
+                throw new IllegalArgumentException("hostname cannot be empty.");
+            }
+        }
         if (username == null || username.equals("")) {
             throw new IllegalArgumentException("username cannot be empty.");
         }
@@ -72,7 +99,8 @@ public class DefaultCredential implements ClientCredential {
             throw new IllegalArgumentException("key cannot be empty.");
         }
 
-        this.hostname = hostname;
+        this.hostname = hostnames.get(0);
+        this.hostnames = Collections.unmodifiableList(new ArrayList<>(hostnames));
         this.username = username;
         this.key = key;
     }
@@ -85,6 +113,14 @@ public class DefaultCredential implements ClientCredential {
         return hostname;
     }
 
+    /**
+     * Gets all hostnames of the connection.
+     * @return the hostnames, starting with {@link #getHostname()}.
+     */
+    public List<String> getHostnames() {
+        return hostnames;
+    }
+
     /**
      * Gets the username .
      * @return the username for the connection.
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.CircuitBreakerOpenException;
+import com.akamai.netstorage.exception.ConnectionException;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads requests over several equivalent NetStorage hostnames, e.g. multiple upload domains of the same storage
+ * group or hostnames pinned to different edges.
+ * <p>
+ * Each request goes to the healthy host with the fewest outstanding requests, ties are rotated. A request counts as
+ * outstanding until its response headers arrived, so a slow edge automatically receives less traffic. A host that
+ * failed with a {@link ConnectionException} is considered unhealthy for {@link #getUnhealthyDuration()} milliseconds
+ * and only chosen again once no healthy host is left, the next success makes it healthy again.
+ * <p>
+ * {@link NetStorage} retries a request on the next host if it failed before reaching the server, see
+ * {@link #isFailover(Throwable, boolean)}, or if the circuit breaker of the host is open.
+ */
+public class HostSelector {
+
+    private final List<Host> hosts;
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    // milliseconds
+    private long unhealthyDuration = 10000;
+
+    /**
+     * @param hostnames the equivalent hostnames (without port or protocol)
+     */
+    public HostSelector(List<String> hostnames) {
+        if (hostnames == null || hostnames.isEmpty())
+            throw new IllegalArgumentException("hostnames cannot be empty.");
+        List<Host> hosts = new ArrayList<>(hostnames.size());
+        for (String hostname : new LinkedHashSet<>(hostnames))
+            hosts.add(new Host(hostname));
+        this.hosts = Collections.unmodifiableList(hosts);
+    }
+
+    /**
+     * Selects a host and counts a request on it. Every acquired host has to be given back with
+     * {@link #release(String, Throwable)}.
+     *
+     * @param excluded hostnames already tried by this request
+     * @return the selected hostname, null if all hosts are excluded
+     */
+    public String acquire(Collection<String> excluded) {
+        long now = currentTimeMillis();
+        int offset = Math.floorMod(rotation.getAndIncrement(), hosts.size());
+        Host selected = null;
+        for (int i = 0; i < hosts.size(); i++) {
+            Host host = hosts.get((offset + i) % hosts.size());
+            if (excluded.contains(host.hostname))
+                continue;
+            if (selected == null || host.compareTo(selected, now) < 0)
+                selected = host;
+        }
+        if (selected == null)
+            return null;
+        selected.outstanding.incrementAndGet();
+        return selected.hostname;
+    }
+
+    /**
+     * @param hostname a hostname returned by {@link #acquire(Collection)}
+     * @param error    the exception the request failed with, null on success
+     */
+    public void release(String hostname, Throwable error) {
+        Host host = get(hostname);
+        host.outstanding.decrementAndGet();
+        if (error instanceof ConnectionException)
+            host.unhealthyUntil = currentTimeMillis() + unhealthyDuration;
+        else if (!(error instanceof CircuitBreakerOpenException))
+            // any answer of the server proves the host reachable
+            host.unhealthyUntil = 0;
+    }
+
+    /**
+     * @param error      the exception a request failed with
+     * @param repeatable whether the request may be sent again after it possibly reached the server
+     * @return true if the request should be retried on another host
+     */
+    public boolean isFailover(Throwable error, boolean repeatable) {
+        if (!(error instanceof ConnectionException))
+            return false;
+        if (repeatable)
+            return true;
+        // the request never left this client, so even uploads or deletes can safely go elsewhere
+        Throwable cause = error.getCause();
+        return cause instanceof ConnectException || cause instanceof UnknownHostException || cause instanceof NoRouteToHostException;
+    }
+
+    public List<String> getHostnames() {
+        List<String> hostnames = new ArrayList<>(hosts.size());
+        for (Host host : hosts)
+            hostnames.add(host.hostname);
+        return hostnames;
+    }
+
+    /**
+     * @return amount of requests in flight per hostname
+     */
+    public Map<String, Integer> getOutstandingRequests() {
+        Map<String, Integer> outstanding = new LinkedHashMap<>();
+        for (Host host : hosts)
+            outstanding.put(host.hostname, host.outstanding.get());
+        return outstanding;
+    }
+
+    public boolean isHealthy(String hostname) {
+        return get(hostname).isHealthy(currentTimeMillis());
+    }
+
+    public long getUnhealthyDuration() {
+        return unhealthyDuration;
+    }
+
+    /**
+     * @param unhealthyDuration milliseconds a host is avoided after a connection error
+     */
+    public void setUnhealthyDuration(long unhealthyDuration) {
+        if (unhealthyDuration < 0)
+            throw new IllegalArgumentException("unhealthyDuration must not be negative");
+        this.unhealthyDuration = unhealthyDuration;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private Host get(String hostname) {
+        for (Host host : hosts)
+            if (host.hostname.equals(hostname))
+                return host;
+        throw new IllegalArgumentException("Unknown hostname " + hostname);
+    }
+
+    private static class Host {
+        final String hostname;
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile long unhealthyUntil = 0;
+
+        Host(String hostname) {
+            this.hostname = hostname;
+        }
+
+        boolean isHealthy(long now) {
+            return unhealthyUntil <= now;
+        }
+
+        /**
+         * healthy before unhealthy, then fewer outstanding requests, unhealthy hosts by the earliest recovery
+         */
+        int compareTo(Host other, long now) {
+            boolean healthy = isHealthy(now);
+            if (healthy != other.isHealthy(now))
+                return healthy ? -1 : 1;
+            if (!healthy)
+                return Long.compare(unhealthyUntil, other.unhealthyUntil);
+            return Integer.compare(outstanding.get(), other.outstanding.get());
+        }
+    }
+}
@@ -27,9 +27,20 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.akamai.netstorage.Utils.readToEnd;
 
@@ -46,27 +57,61 @@ import static com.akamai.netstorage.Utils.readToEnd;
  */
 public class NetStorage {
 
+    private static final AtomicInteger BATCH_THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService BATCH_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "netstorage-batch-" + BATCH_THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private DefaultCredential credential;
 
     // defaults
     private int connectTimeout = 15000;
     private int readTimeout = 15000;
+    private long uploadPipelineBudget = PipelinedInputStream.DEFAULT_BUDGET;
+    private Executor batchExecutor = BATCH_EXECUTOR;
+
+    // optional, disabled if null
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+    private RequestHedging requestHedging;
+    private RequestCoalescing requestCoalescing;
+    // created for credentials with several hostnames
+    private HostSelector hostSelector;
+    private ConnectionRacing connectionRacing;
+    // null sends with the HttpURLConnection of the signer
+    private Transport transport;
+    private TransferTuner transferTuner;
+    // null hashes every uploaded file
+    private ChecksumStore checksumStore;
+    // learned from the responses, null signs with the local clock
+    private ClockSkew clockSkew = new ClockSkew();
 
     public NetStorage(DefaultCredential credential) {
         this.credential = credential;
+        if (credential.getHostnames().size() > 1)
+            this.hostSelector = new HostSelector(credential.getHostnames());
     }
 
     public NetStorage(DefaultCredential credential, int connectTimeout, int readTimeout) {
-        this.credential = credential;
+        this(credential);
         if (connectTimeout > 0) this.setConnectTimeout(connectTimeout);
         if (readTimeout > 0) this.setReadTimeout(readTimeout);
     }
 
+    public DefaultCredential getCredential() {
+        return credential;
+    }
+
     protected URL getNetstorageUri(String path) {
+        return getNetstorageUri(credential.getHostname(), path);
+    }
+
+    protected URL getNetstorageUri(String hostname, String path) {
         try {
             if (!path.startsWith("/")) path = "/" + path;
             //force TLS connection
-            return new URL("HTTPS", credential.getHostname(), path);
+            return new URL("HTTPS", hostname, path);
         } catch (MalformedURLException e) {
             throw new IllegalArgumentException("This should never Happened! Protocols are locked to HTTPS and HTTP!", e);
         }
@@ -74,19 +119,96 @@ public class NetStorage {
 
     protected InputStream execute(String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) throws NetStorageException {
         try {
-            return new NetStorageCMSv35Signer(
-                    method,
-                    this.getNetstorageUri(path),
-                    acsParams,
-                    uploadStream,
-                    size != null && size > 0 ? size : -1,
-                    this.getConnectTimeout(),
-                    this.getReadTimeout()
-            ).execute(this.credential);
+            return executeCoalesced(method, path, acsParams, uploadStream, size);
+        } catch (LocalDateException e) {
+            // the clock skew was learned from the rejection, an upload stream cannot be sent again though
+            if (clockSkew == null || uploadStream != null)
+                throw e;
+            return executeCoalesced(method, path, acsParams, null, size);
+        }
+    }
+
+    private InputStream executeCoalesced(String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) throws NetStorageException {
+        if (requestCoalescing != null && uploadStream == null && requestCoalescing.isCoalesced(method, acsParams))
+            return requestCoalescing.execute(method, path, acsParams, () -> executeGuarded(method, path, acsParams, null, size));
+        return executeGuarded(method, path, acsParams, uploadStream, size);
+    }
+
+    private InputStream executeGuarded(String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) throws NetStorageException {
+        HostSelector hostSelector = this.hostSelector;
+        if (hostSelector == null)
+            return executeOnHost(credential.getHostname(), method, path, acsParams, uploadStream, size);
+
+        boolean repeatable = uploadStream == null && method.equals("GET");
+        Set<String> tried = new HashSet<>();
+        NetStorageException failure = null;
+        for (String hostname; (hostname = hostSelector.acquire(tried)) != null; ) {
+            tried.add(hostname);
+            try {
+                InputStream result = executeOnHost(hostname, method, path, acsParams, uploadStream, size);
+                hostSelector.release(hostname, null);
+                return result;
+            } catch (NetStorageException e) {
+                hostSelector.release(hostname, e);
+                if (!(e instanceof CircuitBreakerOpenException) && !hostSelector.isFailover(e, repeatable))
+                    throw e;
+                if (failure != null)
+                    e.addSuppressed(failure);
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    private InputStream executeOnHost(String hostname, String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) throws NetStorageException {
+        CircuitBreaker circuitBreaker = circuitBreakerRegistry != null ? circuitBreakerRegistry.forHost(hostname) : null;
+        if (circuitBreaker != null)
+            circuitBreaker.acquirePermission();
+        try {
+            InputStream result;
+            if (requestHedging != null && uploadStream == null && requestHedging.isHedged(method, acsParams))
+                result = requestHedging.execute(cancellation -> executeRequest(hostname, method, path, acsParams, null, size, cancellation));
+            else
+                result = executeRequest(hostname, method, path, acsParams, uploadStream, size);
+
+            if (circuitBreaker != null)
+                circuitBreaker.onSuccess();
+            return result;
+        } catch (NetStorageException e) {
+            if (circuitBreaker != null)
+                circuitBreaker.onError(e);
+            throw e;
+        } catch (RuntimeException | Error e) {
+            // says nothing about the host, but the permission must not leak
+            if (circuitBreaker != null)
+                circuitBreaker.releasePermission();
+            throw e;
+        }
+    }
+
+    protected InputStream executeRequest(String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) throws NetStorageException {
+        return executeRequest(credential.getHostname(), method, path, acsParams, uploadStream, size);
+    }
+
+    protected InputStream executeRequest(String hostname, String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) throws NetStorageException {
+        return executeRequest(hostname, method, path, acsParams, uploadStream, size, null);
+    }
+
+    /**
+     * @param cancellation aborts the request while in flight, null if not cancellable
+     */
+    protected InputStream executeRequest(String hostname, String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size,
+                                         RequestHedging.Cancellation cancellation) throws NetStorageException {
+        try {
+            NetStorageCMSv35Signer signer = createSigner(hostname, method, path, acsParams, uploadStream, size);
+            signer.setCancellation(cancellation);
+            if (transport != null)
+                return transport.execute(signer, this.credential);
+            return signer.execute(this.credential);
         }
         catch (RequestSigningException ex) {
             try {
-                return createRequestSigner(method, path, acsParams, uploadStream, size).execute(this.credential);
+                return createRequestSigner(hostname, method, path, acsParams, uploadStream, size).execute(this.credential);
             } catch (RequestSigningException e) {
                 throw new ConnectionException(e.getMessage(), e);
             }
@@ -95,24 +217,42 @@ public class NetStorage {
 
     protected RequestSigner createRequestSigner(String method, String path, APIEventBean acsParams,
                                                 InputStream uploadStream, Long size) {
-        return new NetStorageCMSv35Signer(
+        return createRequestSigner(credential.getHostname(), method, path, acsParams, uploadStream, size);
+    }
+
+    protected RequestSigner createRequestSigner(String hostname, String method, String path, APIEventBean acsParams,
+                                                InputStream uploadStream, Long size) {
+        return createSigner(hostname, method, path, acsParams, uploadStream, size);
+    }
+
+    private NetStorageCMSv35Signer createSigner(String hostname, String method, String path, APIEventBean acsParams,
+                                                InputStream uploadStream, Long size) {
+        NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer(
                 method,
-                this.getNetstorageUri(path),
+                this.getNetstorageUri(hostname, path),
                 acsParams,
                 uploadStream,
                 size != null && size > 0 ? size : -1,
                 this.getConnectTimeout(),
                 this.getReadTimeout()
         );
+        signer.setSslSocketFactory(connectionRacing);
+        signer.setClockSkew(clockSkew);
+        signer.setUploadPipelineBudget(uploadPipelineBudget);
+        if (transferTuner != null) {
+            signer.setChunkLength(transferTuner.getSettings(hostname).getChunkSize());
+            signer.setSslSocketFactory(transferTuner.getSocketFactory(hostname, connectionRacing));
+            signer.setTransferTuner(transferTuner);
+        }
+        return signer;
     }
 
     public NetStorageType getNetStorageType() throws NetStorageException {
 
         try {
             try (InputStream stream = stat("/")) {
-                if (stream instanceof SignerInputStream) {
-                    HttpURLConnection request = ((SignerInputStream) stream).getHttpRequest();
-                    switch (request.getHeaderField("Server")) {
+                if (stream instanceof TransportResponse) {
+                    switch (String.valueOf(((TransportResponse) stream).getHeaderField("Server"))) {
                         case "AkamaiNetStorage":
                             return NetStorageType.ObjectStore;
                         case "Apache":
@@ -166,6 +306,121 @@ public class NetStorage {
         return execute("GET", path, new APIEventDownload());
     }
 
+    /**
+     * Downloads the content from the given offset on, e.g. to resume an interrupted download. Requested as Range, if
+     * the server answers with the whole content instead, the bytes before the offset are skipped.
+     *
+     * @param path   netstorage path
+     * @param offset first byte to download
+     * @return the content from the offset on
+     */
+    public InputStream download(String path, long offset) throws NetStorageException {
+        if (offset <= 0)
+            return download(path);
+
+        InputStream inputStream = execute("GET", path, new APIEventDownload()
+                .withRequestHeaders(Collections.singletonMap("Range", "bytes=" + offset + "-")));
+        try {
+            if (inputStream instanceof TransportResponse
+                    && ((TransportResponse) inputStream).getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                for (long skipped = 0; skipped < offset; ) {
+                    long length = inputStream.skip(offset - skipped);
+                    if (length <= 0) {
+                        if (inputStream.read() == -1)
+                            throw new EOFException(String.format("%s is shorter than the offset %d", path, offset));
+                        length = 1;
+                    }
+                    skipped += length;
+                }
+            }
+            return inputStream;
+        } catch (IOException e) {
+            try {
+                inputStream.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw new ConnectionException("Skipping to offset " + offset + " failed.", e);
+        }
+    }
+
+    /**
+     * Downloads to a local file and computes the MD5 of the content while writing it, so no second pass over the
+     * file is needed to verify it. A size mismatch is detected as soon as the response header or the received bytes
+     * exceed the expected size, the MD5 once the stream is complete.
+     * <p>
+     * On any failure the written file is deleted. With atomic, the content is written to a temp file in the target
+     * directory, which is renamed to the target only once verified, so the target is either untouched or complete.
+     *
+     * @param path        netstorage path
+     * @param target      local file, replaced if existing
+     * @param md5Checksum expected MD5 as returned by stat or list, null to skip the verification
+     * @param size        expected size in bytes, null to skip the verification
+     * @param atomic      write through a temp file and rename
+     * @return the MD5 of the downloaded content
+     * @throws ChecksumMismatchException if the content does not match the expected size or MD5
+     */
+    public byte[] download(String path, File target, byte[] md5Checksum, Long size, boolean atomic) throws NetStorageException {
+        File destination = null;
+        boolean verified = false;
+        try {
+            if (atomic)
+                destination = File.createTempFile("." + target.getName() + "-", ".part", target.getAbsoluteFile().getParentFile());
+
+            MessageDigest digest = MessageDigest.getInstance(Utils.HashAlgorithm.MD5.getAlgorithm());
+            try (InputStream inputStream = download(path)) {
+                if (size != null && inputStream instanceof TransportResponse) {
+                    long contentLength = ((TransportResponse) inputStream).getContentLength();
+                    if (contentLength >= 0 && contentLength != size)
+                        throw new ChecksumMismatchException(String.format("Size of %s is %d, expected %d", path, contentLength, size));
+                }
+
+                // the target is only touched (and deleted on failure) once the response is there
+                if (destination == null)
+                    destination = target;
+                long received = 0;
+                byte[] buffer = BufferPool.shared().acquire();
+                try (OutputStream outputStream = new FileOutputStream(destination)) {
+                    for (int length; (length = inputStream.read(buffer)) != -1; ) {
+                        received += length;
+                        if (size != null && received > size)
+                            throw new ChecksumMismatchException(String.format("Size of %s exceeds the expected %d bytes", path, size));
+                        digest.update(buffer, 0, length);
+                        outputStream.write(buffer, 0, length);
+                    }
+                } finally {
+                    BufferPool.shared().release(buffer);
+                }
+                if (size != null && received != size)
+                    throw new ChecksumMismatchException(String.format("Size of %s is %d, expected %d", path, received, size));
+            }
+
+            byte[] checksum = digest.digest();
+            if (md5Checksum != null && !MessageDigest.isEqual(md5Checksum, checksum))
+                throw new ChecksumMismatchException(String.format("MD5 of %s is %s, expected %s", path, Utils.encodeHex(checksum), Utils.encodeHex(md5Checksum)));
+
+            if (atomic)
+                moveAtomically(destination, target);
+            verified = true;
+            return checksum;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("This should never happen! We are using an enum!", e);
+        } catch (IOException e) {
+            throw new StreamClosingException(String.format("Download of %s to %s failed.", path, target), e);
+        } finally {
+            if (!verified && destination != null && destination.exists() && !destination.delete())
+                destination.deleteOnExit();
+        }
+    }
+
+    static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     public InputStream du(String path) throws NetStorageException {
         return du(path, "xml");
     }
@@ -302,22 +557,47 @@ public class NetStorage {
             throw new LocalFileNotFoundException(String.format("Src file is not accessible %s", srcFile.toString()));
 
         Date mTime = new Date(srcFile.lastModified());
-        byte[] checksum;
-        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(srcFile))) {
-            checksum = Utils.computeHash(inputStream, Utils.HashAlgorithm.SHA256);
-
-            try (InputStream uploadInputStream = new BufferedInputStream(new FileInputStream(srcFile))) {
-                long size = srcFile.length();
-                return this.upload(path, uploadInputStream, additionalParams, mTime, size, null, null, checksum, indexZip);
+        ChecksumStore.Key key = checksumStore != null ? ChecksumStore.key(srcFile) : null;
+        byte[] checksum = key != null ? checksumStore.get(key) : null;
+        if (checksum == null) {
+            try (InputStream inputStream = new BufferedInputStream(new FileInputStream(srcFile))) {
+                checksum = Utils.computeHash(inputStream, Utils.HashAlgorithm.SHA256);
             } catch (FileNotFoundException e) {
-                throw new LocalFileNotFoundException("Source file not found.", e);
+                throw new LocalFileNotFoundException("Source file not found while caculating checksum.", e);
             } catch (IOException e) {
-                throw new StreamClosingException("Could not auto-close file upload input stream.", e);
+                throw new StreamClosingException("Could not auto-close file upload input stream for calculation of checksum.", e);
             }
+        }
+
+        boolean uploaded;
+        try {
+            try {
+                uploaded = upload(path, srcFile, additionalParams, mTime, checksum, indexZip);
+            } catch (LocalDateException e) {
+                // unlike a stream, the file can be uploaded again, now signed with the learned clock skew
+                if (clockSkew == null)
+                    throw e;
+                uploaded = upload(path, srcFile, additionalParams, mTime, checksum, indexZip);
+            }
+        } catch (NetStorageException e) {
+            // e.g. changed within the resolution of the mtime, hashed again on the next upload
+            if (key != null)
+                checksumStore.remove(key);
+            throw e;
+        }
+        if (key != null)
+            checksumStore.put(key, checksum);
+        return uploaded;
+    }
+
+    private boolean upload(String path, File srcFile, Map<String, String> additionalParams, Date mTime, byte[] checksum, boolean indexZip) throws NetStorageException {
+        try (InputStream uploadInputStream = new BufferedInputStream(new FileInputStream(srcFile))) {
+            long size = srcFile.length();
+            return this.upload(path, uploadInputStream, additionalParams, mTime, size, null, null, checksum, indexZip);
         } catch (FileNotFoundException e) {
-            throw new LocalFileNotFoundException("Source file not found while caculating checksum.", e);
+            throw new LocalFileNotFoundException("Source file not found.", e);
         } catch (IOException e) {
-            throw new StreamClosingException("Could not auto-close file upload input stream for calculation of checksum.", e);
+            throw new StreamClosingException("Could not auto-close file upload input stream.", e);
         }
     }
 
@@ -332,6 +612,87 @@ public class NetStorage {
         return true;
     }
 
+    /**
+     * Executes many bodyless operations (e.g. mtime, setmd, symlink, rename, mkdir) with bounded parallelism. Every
+     * response is read to the end, so its connection returns to the keep-alive cache of the JVM and is reused by the
+     * following operations. Keep parallelism at or below http.maxConnections (default 5) for that.
+     * <p>
+     * Failures are collected per operation, the batch always runs to the end. The operations are shared between the
+     * calling thread and up to parallelism - 1 workers on the {@link #getBatchExecutor()}.
+     *
+     * @param operations  the operations to execute
+     * @param parallelism maximum amount of concurrent requests, the calling thread being one of them
+     * @return the outcome per operation, in the order of the operations
+     */
+    public BatchResult batch(Collection<BatchOperation> operations, int parallelism) throws NetStorageException {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be positive");
+
+        List<BatchOperation> operationList = new ArrayList<>(operations);
+        BatchResult.Item[] items = new BatchResult.Item[operationList.size()];
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Runnable worker = () -> {
+            for (int index; !cancelled.get() && (index = next.getAndIncrement()) < operationList.size(); )
+                items[index] = executeBatchOperation(operationList.get(index));
+        };
+
+        List<FutureTask<Void>> workers = new ArrayList<>();
+        try {
+            for (int i = 1; i < Math.min(parallelism, operationList.size()); i++) {
+                FutureTask<Void> task = new FutureTask<>(worker, null);
+                batchExecutor.execute(task);
+                workers.add(task);
+            }
+        } catch (RejectedExecutionException e) {
+            // a saturated executor, the calling thread and the workers started so far share the operations
+        }
+        worker.run();
+        try {
+            for (FutureTask<Void> task : workers)
+                task.get();
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            for (FutureTask<Void> task : workers)
+                task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new UnspecificNetstorageException("Batch was interrupted.", e);
+        } catch (ExecutionException e) {
+            // only errors, the operations catch any exception
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new UnspecificNetstorageException("Batch failed.", e.getCause());
+        }
+        return new BatchResult(Arrays.asList(items));
+    }
+
+    private BatchResult.Item executeBatchOperation(BatchOperation operation) {
+        try (InputStream inputStream = execute(operation.getMethod(), operation.getPath(), operation.getAction())) {
+            readToEnd(inputStream);
+            return new BatchResult.Item(operation, null);
+        } catch (NetStorageException e) {
+            return new BatchResult.Item(operation, e);
+        } catch (IOException e) {
+            return new BatchResult.Item(operation, new StreamClosingException("Response could not be auto closed or read to end.", e));
+        } catch (RuntimeException e) {
+            return new BatchResult.Item(operation, new UnspecificNetstorageException("Batch operation " + operation + " failed.", e));
+        }
+    }
+
+    /**
+     * @param batchExecutor executor the workers of {@link #batch(Collection, int)} run on, by default a shared pool of
+     *                      daemon threads
+     */
+    public void setBatchExecutor(Executor batchExecutor) {
+        if (batchExecutor == null)
+            throw new IllegalArgumentException("batchExecutor cannot be null.");
+        this.batchExecutor = batchExecutor;
+    }
+
+    public Executor getBatchExecutor() {
+        return batchExecutor;
+    }
+
     public void setConnectTimeout(int connectTimeout) {
         this.connectTimeout = connectTimeout;
     }
@@ -348,4 +709,148 @@ public class NetStorage {
         return readTimeout;
     }
 
+    /**
+     * Enables fail-fast behaviour while a NetStorage host is unhealthy. Once the breaker of a hostname is open,
+     * requests throw a {@link CircuitBreakerOpenException} immediately instead of waiting for the timeouts.
+     *
+     * @param circuitBreakerRegistry the registry holding the breakers per hostname, null disables circuit breaking
+     */
+    public void setCircuitBreakerRegistry(CircuitBreakerRegistry circuitBreakerRegistry) {
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+    }
+
+    public CircuitBreakerRegistry getCircuitBreakerRegistry() {
+        return circuitBreakerRegistry;
+    }
+
+    /**
+     * Enables hedging of idempotent reads (stat, dir and download by default): a read that has not returned within
+     * the configured latency percentile is sent a second time and the first response wins.
+     *
+     * @param requestHedging the hedging configuration, null disables hedging
+     */
+    public void setRequestHedging(RequestHedging requestHedging) {
+        this.requestHedging = requestHedging;
+    }
+
+    public RequestHedging getRequestHedging() {
+        return requestHedging;
+    }
+
+    /**
+     * Enables single-flight deduplication of identical concurrent reads (stat, dir, list and du by default): while
+     * such a request is in flight, further identical requests wait for and share its response.
+     *
+     * @param requestCoalescing the coalescing configuration, null disables coalescing
+     */
+    public void setRequestCoalescing(RequestCoalescing requestCoalescing) {
+        this.requestCoalescing = requestCoalescing;
+    }
+
+    public RequestCoalescing getRequestCoalescing() {
+        return requestCoalescing;
+    }
+
+    /**
+     * Balances requests over several equivalent hostnames and fails over on connection errors. Set automatically for
+     * credentials with several hostnames, a selector can be shared between several instances.
+     *
+     * @param hostSelector the hostnames to use, null sends all requests to the hostname of the credential
+     */
+    public void setHostSelector(HostSelector hostSelector) {
+        this.hostSelector = hostSelector;
+    }
+
+    public HostSelector getHostSelector() {
+        return hostSelector;
+    }
+
+    /**
+     * Enables Happy-Eyeballs connects over all addresses of a hostname, so a slow or broken address in the DNS
+     * rotation no longer stalls the connect. The JVM still resolves the hostname first, see {@link ConnectionRacing}.
+     * A factory can be shared between several instances, which then also share their keep-alive connections.
+     *
+     * @param connectionRacing the resolver and socket factory, null leaves resolving and connecting to the JDK
+     */
+    public void setConnectionRacing(ConnectionRacing connectionRacing) {
+        this.connectionRacing = connectionRacing;
+    }
+
+    public ConnectionRacing getConnectionRacing() {
+        return connectionRacing;
+    }
+
+    /**
+     * Sends the signed requests with another HTTP client, e.g. {@code HttpClientTransport} on Java 11 and later to
+     * multiplex them over HTTP/2. {@link #setConnectionRacing(ConnectionRacing)} only applies without a transport.
+     *
+     * @param transport the transport, null sends with {@link HttpURLConnection}
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Measures round trip time and throughput per host and tunes chunk size and socket buffers of the following
+     * transfers to them, see {@link TransferTuner}. Applies to the {@link HttpURLConnection} transport only.
+     *
+     * @param transferTuner the tuner, may be shared between several instances, null uses fixed defaults
+     */
+    public void setTransferTuner(TransferTuner transferTuner) {
+        this.transferTuner = transferTuner;
+    }
+
+    public TransferTuner getTransferTuner() {
+        return transferTuner;
+    }
+
+    /**
+     * Uploads of a {@link File} look up its SHA-256 in the store instead of reading the file twice, and record it
+     * after a successful upload, see {@link ChecksumStore}.
+     *
+     * @param checksumStore the store, may be shared between several instances, null hashes every file
+     */
+    public void setChecksumStore(ChecksumStore checksumStore) {
+        this.checksumStore = checksumStore;
+    }
+
+    public ChecksumStore getChecksumStore() {
+        return checksumStore;
+    }
+
+    /**
+     * Uploads of streams without a known size read the stream ahead on another thread, so a slow producer and the
+     * network overlap, see {@link PipelinedInputStream}.
+     *
+     * @param uploadPipelineBudget bytes read ahead at most, 0 reads and sends alternately on the calling thread
+     */
+    public void setUploadPipelineBudget(long uploadPipelineBudget) {
+        if (uploadPipelineBudget < 0)
+            throw new IllegalArgumentException("uploadPipelineBudget must not be negative");
+        this.uploadPipelineBudget = uploadPipelineBudget;
+    }
+
+    public long getUploadPipelineBudget() {
+        return uploadPipelineBudget;
+    }
+
+    /**
+     * Requests are signed with the local clock corrected by the offset to the NetStorage clock, learned from the Date
+     * headers of the responses. A request rejected for clock skew is retried once, except uploads of a stream. Enabled
+     * by default, a clock skew can be shared between several instances.
+     *
+     * @param clockSkew the offset to the NetStorage clock, null signs with the local clock and never retries
+     */
+    public void setClockSkew(ClockSkew clockSkew) {
+        this.clockSkew = clockSkew;
+    }
+
+    public ClockSkew getClockSkew() {
+        return clockSkew;
+    }
+
 }
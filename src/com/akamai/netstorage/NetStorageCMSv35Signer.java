@@ -23,15 +23,18 @@ import com.akamai.netstorage.exception.ConnectionException;
 import com.akamai.netstorage.exception.LocalDateException;
 import com.akamai.netstorage.exception.NetStorageException;
 
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -41,10 +44,7 @@ import java.util.Random;
  * calling libraries. The intended calling library is the NetStorage class, but this layer can be called directly and is
  * offered as a convenience interface for enhanced implementations.
  *
- * TODO: support rebinding on IO communication errors (eg: connection reset)
  * TODO: support async IO
- * TODO: support multiplexing of uploads
- * TODO: optimize and adapt throughput based on connection latency
  * TODO: support HTTP trailers for late SHA256 validation
  *
  * @author colinb@akamai.com (Colin Bendell)
@@ -59,9 +59,26 @@ public class NetStorageCMSv35Signer implements RequestSigner {
     private static final String AUTH_DATA_HEADER = "X-Akamai-ACS-Auth-Data";
     private static final String AUTH_SIGN_HEADER = "X-Akamai-ACS-Auth-Sign";
 
+    // default chunk size of uploads without known size
+    private static final int CHUNK_LENGTH = 1024 * 1024;
+
+    // larger error bodies are not drained, their connection is discarded instead
+    static final int MAX_ERROR_BODY_LENGTH = 16 * 1024;
+
     // defaults
     private int connectTimeout = 10000;
     private int readTimeout = 10000;
+    private int chunkLength = CHUNK_LENGTH;
+    private long uploadPipelineBudget = PipelinedInputStream.DEFAULT_BUDGET;
+
+    // optional, JDK default if null
+    private SSLSocketFactory sslSocketFactory;
+    // optional, local clock if null
+    private ClockSkew clockSkew;
+    // optional, no measurements if null
+    private TransferTuner transferTuner;
+    // optional, not cancellable if null
+    private RequestHedging.Cancellation cancellation;
 
 	/**
 	 * There are multiple types of Net Storage. The following types are
@@ -210,6 +227,74 @@ public class NetStorageCMSv35Signer implements RequestSigner {
         return readTimeout;
     }
 
+    /**
+     * @param sslSocketFactory factory for HTTPS connections, e.g. a {@link ConnectionRacing}, null uses the JDK default
+     */
+    public void setSslSocketFactory(SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    public SSLSocketFactory getSslSocketFactory() {
+        return sslSocketFactory;
+    }
+
+    /**
+     * @param clockSkew the offset to the server clock to sign with and to update from responses, null signs with the
+     *                  local clock
+     */
+    public void setClockSkew(ClockSkew clockSkew) {
+        this.clockSkew = clockSkew;
+    }
+
+    public ClockSkew getClockSkew() {
+        return clockSkew;
+    }
+
+    /**
+     * @param chunkLength chunk size in bytes of uploads without known size
+     */
+    public void setChunkLength(int chunkLength) {
+        this.chunkLength = chunkLength;
+    }
+
+    public int getChunkLength() {
+        return chunkLength;
+    }
+
+    /**
+     * @param uploadPipelineBudget bytes buffered ahead when uploading a stream of unknown size, see
+     *                             {@link PipelinedInputStream}, 0 reads and sends alternately on the calling thread
+     */
+    public void setUploadPipelineBudget(long uploadPipelineBudget) {
+        this.uploadPipelineBudget = uploadPipelineBudget;
+    }
+
+    public long getUploadPipelineBudget() {
+        return uploadPipelineBudget;
+    }
+
+    /**
+     * @param transferTuner receives the latency and throughput measured by this request, null measures nothing
+     */
+    public void setTransferTuner(TransferTuner transferTuner) {
+        this.transferTuner = transferTuner;
+    }
+
+    public TransferTuner getTransferTuner() {
+        return transferTuner;
+    }
+
+    /**
+     * @param cancellation disconnects the request once cancelled, e.g. as the losing request of {@link RequestHedging}
+     */
+    public void setCancellation(RequestHedging.Cancellation cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    public RequestHedging.Cancellation getCancellation() {
+        return cancellation;
+    }
+
     /**
      * Computes the value for the the X-Akamai-ACS-Action: header. This is a url query-string encoded separated
      * list of parameters in the form of name=value&amp;name2=value2. For extensibility purposes, we use generic method
@@ -229,17 +314,24 @@ public class NetStorageCMSv35Signer implements RequestSigner {
      * @return the data field in a comma separated list
      */
     protected String getAuthDataHeaderValue(ClientCredential credential) {
-        Date currentTime = new Date();
+        long currentTime = getCurrentTime();
         int rand = new Random().nextInt(Integer.MAX_VALUE);
 
         return String.format(
                 "%d, 0.0.0.0, 0.0.0.0, %d, %d, %s",
                 this.getSignVersion().getValue(),
-                currentTime.getTime() / 1000,
+                currentTime / 1000,
                 rand,
                 credential.getUsername());
     }
 
+    /**
+     * @return the local time, corrected by the {@link ClockSkew} if set
+     */
+    protected long getCurrentTime() {
+        return this.getClockSkew() != null ? this.getClockSkew().currentTimeMillis() : System.currentTimeMillis();
+    }
+
     /**
      * Computes the X-Akamai-ACS-Auth-Sign header for a given Action and Data header values. This results in a base64
      * encoded representation of the hash as required by the spec. The api server will compute this same hash to validate
@@ -287,28 +379,79 @@ public class NetStorageCMSv35Signer implements RequestSigner {
      * TODO: catch rate limitting errors. Should delay and retry.
      *
      * @param connection an open url connection
-     * @return true if 200 OK response, false otherwise.
+     * @return true if 200 OK or 206 Partial Content response, false otherwise.
      * @throws NetStorageException wrapped exception if it is a recoverable exception
      */
     public boolean validate(HttpURLConnection connection) throws NetStorageException {
         try {
-            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK)
-                return true;
+            int responseCode = connection.getResponseCode();
 
-            // Validate Server-Time drift
-            Date currentDate = new Date();
+            // the time this request was signed with, before learning from its Date header
+            long currentTime = getCurrentTime();
             long responseDate = connection.getHeaderFieldDate("Date", 0);
-            if ((responseDate != 0 && currentDate.getTime() - responseDate > 30 * 1000)
-                || (responseDate != 0 && (currentDate.getTime() - responseDate) * -1 > 30 * 1000))
-                throw new LocalDateException("Local server Date is more than 30s out of sync with Remote server");
+            if (responseDate != 0 && this.getClockSkew() != null)
+                this.getClockSkew().update(responseDate);
 
-            // generic response
-            throw NetStorageException.from(connection.getResponseCode(), connection.getResponseMessage(), connection.getHeaderFields());
+            // 206 answers a Range request
+            if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_PARTIAL)
+                return true;
+
+            String responseBody = drainErrorBody(connection);
+            throw toException(responseCode, connection.getResponseMessage(), connection.getHeaderFields(), responseBody, responseDate, currentTime);
         } catch (IOException e) {
             throw new ConnectionException("An error occurred connecting to the server.", e);
         }
     }
 
+    /**
+     * Transport independent part of {@link #validate(HttpURLConnection)} for an unsuccessful response.
+     *
+     * @param responseCode    HTTP status
+     * @param responseMessage HTTP reason phrase, used as exception message
+     * @param headerFields    response headers
+     * @param responseBody    the (possibly truncated) body, null if there was none
+     * @param responseDate    the Date header in milliseconds, 0 if absent
+     * @param currentTime     the time this request was signed with
+     * @return the exception to throw
+     */
+    protected NetStorageException toException(int responseCode, String responseMessage, Map<String, List<String>> headerFields,
+                                              String responseBody, long responseDate, long currentTime) {
+        // Validate Server-Time drift
+        if (responseDate != 0 && Math.abs(currentTime - responseDate) > 30 * 1000)
+            return new LocalDateException("Local server Date is more than 30s out of sync with Remote server");
+
+        // generic response
+        return NetStorageException.from(responseCode, responseMessage, headerFields, responseBody);
+    }
+
+    /**
+     * Reads a small error body to the end, so the connection goes back to the keep-alive cache. The connection of a
+     * larger body is disconnected instead, as reading it would cost more than a new handshake.
+     *
+     * @param connection a connection with a non 200 response
+     * @return the body read, null if there was none
+     */
+    private static String drainErrorBody(HttpURLConnection connection) throws IOException {
+        InputStream stream;
+        try {
+            stream = connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream();
+        } catch (IOException e) {
+            connection.disconnect();
+            return null;
+        }
+        if (stream == null)
+            return null;
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream inputStream = stream) {
+            if (!Utils.readToEnd(inputStream, MAX_ERROR_BODY_LENGTH, body))
+                connection.disconnect();
+        } catch (IOException e) {
+            connection.disconnect();
+        }
+        return body.size() > 0 ? new String(body.toByteArray(), StandardCharsets.UTF_8) : null;
+    }
+
     /**
      * @param request    the request to sign.
      * @param credential the credential used in the signing.
@@ -321,7 +464,13 @@ public class NetStorageCMSv35Signer implements RequestSigner {
                 request = (HttpURLConnection) this.getUrl().openConnection();
             }
 
+            if (this.getSslSocketFactory() != null && request instanceof HttpsURLConnection)
+                ((HttpsURLConnection) request).setSSLSocketFactory(this.getSslSocketFactory());
+
             request.setRequestMethod(this.getMethod());
+            if (this.getParams().getRequestHeaders() != null)
+                for (Map.Entry<String, String> entry : this.getParams().getRequestHeaders().entrySet())
+                    request.setRequestProperty(entry.getKey(), entry.getValue());
             for (Map.Entry<String, String> entry : this.computeHeaders(credential).entrySet())
                 request.setRequestProperty(entry.getKey(), entry.getValue());
 
@@ -344,29 +493,47 @@ public class NetStorageCMSv35Signer implements RequestSigner {
             request = sign(request, credential);
             request.setConnectTimeout(this.getConnectTimeout());
             request.setReadTimeout(this.getReadTimeout());
+            if (this.getCancellation() != null) {
+                // closes the socket, a blocked connect or read fails right away
+                this.getCancellation().onCancel(request::disconnect);
+                if (this.getCancellation().isCancelled())
+                    throw new ConnectionException("The request was cancelled.");
+            }
 
+            long start = System.nanoTime();
+            long uploaded = 0;
             if (this.getMethod().equals("PUT") || this.getMethod().equals("POST")) {
                 request.setDoOutput(true);
                 if (this.getUploadStream() == null) {
                     request.setFixedLengthStreamingMode(0);
                     request.connect();
                 } else {
-                    byte[] buffer = new byte[1024 * 1024];
-
                     if (this.getUploadSize() > 0)
                         request.setFixedLengthStreamingMode(this.getUploadSize());
                     else
-                        request.setChunkedStreamingMode(buffer.length);
+                        request.setChunkedStreamingMode(this.getChunkLength());
 
+                    // connected before the upload stream is touched, so a request failing to connect leaves it
+                    // unread and open for another host, see HostSelector#isFailover
                     request.connect();
-
-                    try (BufferedInputStream input = new BufferedInputStream(this.getUploadStream())) {
+                    // the handshake is not part of the throughput
+                    start = System.nanoTime();
+
+                    // producers of unknown length are often slow, e.g. encoders, so they are read ahead on another
+                    // thread while the previous chunks are sent
+                    byte[] buffer = BufferPool.shared().acquire();
+                    try (InputStream input = this.getUploadSize() <= 0 && this.getUploadPipelineBudget() > 0
+                            ? new PipelinedInputStream(this.getUploadStream(), this.getUploadPipelineBudget())
+                            : new BufferedInputStream(this.getUploadStream())) {
                         try (OutputStream output = request.getOutputStream()) {
                             for (int length; (length = input.read(buffer)) > 0; ) {
                                 output.write(buffer, 0, length);
+                                uploaded += length;
                             }
                             output.flush();
                         }
+                    } finally {
+                        BufferPool.shared().release(buffer);
                     }
                 }
             } else {
@@ -375,19 +542,24 @@ public class NetStorageCMSv35Signer implements RequestSigner {
 
             validate(request);
 
-            return new SignerInputStream(request.getInputStream(), request);
+            if (this.getTransferTuner() != null) {
+                // until the response, as the last written bytes may still be in flight
+                if (uploaded > 0)
+                    this.getTransferTuner().recordThroughput(this.getUrl().getHost(), uploaded, System.nanoTime() - start);
+                else
+                    this.getTransferTuner().recordLatency(this.getUrl().getHost(), System.nanoTime() - start);
+            }
+            return new SignerInputStream(request.getInputStream(), request, this.getTransferTuner());
 
         }
-        catch (NetStorageException | IOException e) {
-            if (request != null) {
-                try (InputStream is = request.getInputStream()) {}
-                catch (IOException ioException) {}
-                try (InputStream is = request.getErrorStream()) {}
-                catch (IOException ioException) {}
-            }
-            if (e instanceof NetStorageException) {
-                throw (NetStorageException)e;
-            }
+        catch (NetStorageException e) {
+            // validate already drained or discarded the response
+            throw e;
+        }
+        catch (IOException e) {
+            // the state of the connection is unknown, it must not be reused
+            if (request != null)
+                request.disconnect();
             throw new ConnectionException("Communication Error", e);
         }
     }
@@ -397,16 +569,103 @@ public class NetStorageCMSv35Signer implements RequestSigner {
     }
 }
 
-class SignerInputStream extends BufferedInputStream
+/**
+ * Response body of a successful request. Closing it returns the connection to the keep-alive cache if the body was
+ * consumed, or a small remainder could be drained, otherwise the connection is disconnected.
+ */
+class SignerInputStream extends BufferedInputStream implements TransportResponse
 {
+    // remainders up to this size are drained on close
+    static final int MAX_DRAIN_LENGTH = 64 * 1024;
+
     HttpURLConnection request;
+    private boolean consumed = false;
+    private boolean closed = false;
+
+    // throughput measurement of the download, if a tuner is set
+    private final TransferTuner transferTuner;
+    private final long start = System.nanoTime();
+    private long received = 0;
+
     public SignerInputStream(InputStream stream, HttpURLConnection request) {
+        this(stream, request, null);
+    }
+
+    public SignerInputStream(InputStream stream, HttpURLConnection request, TransferTuner transferTuner) {
         super(stream);
         this.request = request;
+        this.transferTuner = transferTuner;
     }
 
     public HttpURLConnection getHttpRequest() {
         return request;
     }
 
+    @Override
+    public int getResponseCode() throws IOException {
+        return request.getResponseCode();
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        return request.getHeaderField(name);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return request.getHeaderFields();
+    }
+
+    @Override
+    public long getContentLength() {
+        return request.getContentLengthLong();
+    }
+
+    @Override
+    public void abort() {
+        request.disconnect();
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        int result = super.read();
+        if (result == -1)
+            consumed();
+        else
+            received++;
+        return result;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        int result = super.read(b, off, len);
+        if (result == -1)
+            consumed();
+        else
+            received += result;
+        return result;
+    }
+
+    private void consumed() {
+        if (!consumed && transferTuner != null)
+            transferTuner.recordThroughput(request.getURL().getHost(), received, System.nanoTime() - start);
+        consumed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        try {
+            if (!consumed && !Utils.readToEnd(this, MAX_DRAIN_LENGTH, null))
+                request.disconnect();
+        } catch (IOException e) {
+            request.disconnect();
+        } finally {
+            super.close();
+        }
+    }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decouples a producer stream from its consumer, e.g. an encoder or tar process piped into an upload, so reading the
+ * next bytes and sending the previous ones overlap instead of alternating on one thread.
+ * <p>
+ * A reader thread fills buffers of the {@link BufferPool} and queues them, the consumer drains the queue. Full buffers
+ * are handed over, partially filled ones as soon as the consumer is waiting, so a slow producer adds no latency and a
+ * fast one is sent in large writes. At most budget bytes of buffers are queued, beyond that the reader blocks until the
+ * consumer caught up. A failure of the producer is thrown to the consumer once it has read everything before it.
+ * <p>
+ * Not thread safe on the consumer side, like any {@link InputStream}.
+ */
+public class PipelinedInputStream extends InputStream {
+
+    public static final long DEFAULT_BUDGET = 4 * 1024 * 1024;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "netstorage-upload-reader-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Chunk END = new Chunk(null, 0);
+
+    private final InputStream source;
+    private final BufferPool bufferPool;
+    private final BlockingQueue<Chunk> queue;
+    private final Future<?> reader;
+    private volatile IOException failure;
+    private volatile boolean closed = false;
+
+    // consumer side
+    private Chunk current;
+    private int position;
+    private boolean finished = false;
+
+    public PipelinedInputStream(InputStream source) {
+        this(source, DEFAULT_BUDGET);
+    }
+
+    public PipelinedInputStream(InputStream source, long budget) {
+        this(source, budget, BufferPool.shared());
+    }
+
+    /**
+     * @param source     the producer, read on a separate thread from now on and closed with this stream
+     * @param budget     bytes of buffers queued at most, at least two buffers
+     * @param bufferPool pool the buffers are taken from and given back to
+     */
+    public PipelinedInputStream(InputStream source, long budget, BufferPool bufferPool) {
+        this.source = source;
+        this.bufferPool = bufferPool;
+        this.queue = new ArrayBlockingQueue<>((int) Math.max(2, Math.min(Integer.MAX_VALUE, budget / bufferPool.getBufferSize())));
+        this.reader = EXECUTOR.submit(this::fill);
+    }
+
+    private void fill() {
+        byte[] buffer = null;
+        int length = 0;
+        try {
+            while (!closed) {
+                if (buffer == null) {
+                    buffer = bufferPool.acquire();
+                    length = 0;
+                }
+                int read = source.read(buffer, length, buffer.length - length);
+                if (read == -1)
+                    break;
+                length += read;
+                if (length == buffer.length || queue.isEmpty()) {
+                    queue.put(new Chunk(buffer, length));
+                    buffer = null;
+                }
+            }
+            if (buffer != null && length > 0) {
+                queue.put(new Chunk(buffer, length));
+                buffer = null;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new IOException("Reading the upload failed.", e);
+        } catch (InterruptedException e) {
+            // closed by the consumer
+            return;
+        } finally {
+            if (buffer != null)
+                bufferPool.release(buffer);
+        }
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        }
+    }
+
+    private Chunk current() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (current == null && !finished) {
+            Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Waiting for the upload was interrupted.");
+            }
+            if (chunk == END) {
+                finished = true;
+            } else {
+                current = chunk;
+                position = 0;
+            }
+        }
+        if (current == null && failure != null)
+            throw failure;
+        return current;
+    }
+
+    private void advance(int length) {
+        position += length;
+        if (position == current.length) {
+            bufferPool.release(current.buffer);
+            current = null;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        Chunk chunk = current();
+        if (chunk == null)
+            return -1;
+        int result = chunk.buffer[position] & 0xff;
+        advance(1);
+        return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        Chunk chunk = current();
+        if (chunk == null)
+            return -1;
+        int length = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk.buffer, position, b, off, length);
+        advance(length);
+        return length;
+    }
+
+    /**
+     * @return the bytes readable without blocking from the current buffer
+     */
+    @Override
+    public int available() {
+        return current != null ? current.length - position : 0;
+    }
+
+    /**
+     * Stops the reader thread and closes the producer.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        reader.cancel(true);
+        try {
+            source.close();
+        } finally {
+            if (current != null)
+                bufferPool.release(current.buffer);
+            current = null;
+            for (Chunk chunk; (chunk = queue.poll()) != null; )
+                if (chunk != END)
+                    bufferPool.release(chunk.buffer);
+        }
+    }
+
+    /**
+     * @return bytes currently queued by the reader
+     */
+    public long getQueuedBytes() {
+        long queued = 0;
+        for (Chunk chunk : queue)
+            queued += chunk.length;
+        return queued;
+    }
+
+    private static class Chunk {
+        final byte[] buffer;
+        final int length;
+
+        Chunk(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.ConnectionException;
+import com.akamai.netstorage.exception.NetStorageException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight deduplication of idempotent read requests: concurrent requests with the same method, path and
+ * action parameters share one HTTP call. The response body is read once along with status and headers, every caller
+ * gets its own stream over the buffered bytes that still answers them, e.g. the Server header of a stat for
+ * {@link NetStorage#getNetStorageType()}.
+ * <p>
+ * Only use this for idempotent actions with small responses, by default stat and dir. Actions like list or du can be
+ * added with {@link #setCoalescedActions(Set)}, their whole response is buffered in memory then.
+ */
+public class RequestCoalescing {
+
+    private Set<String> coalescedActions = new HashSet<>(Arrays.asList("stat", "dir"));
+
+    private final SingleFlight<String, Response> singleFlight = new SingleFlight<>();
+    private final AtomicLong coalescedRequests = new AtomicLong();
+
+    public Set<String> getCoalescedActions() {
+        return coalescedActions;
+    }
+
+    public void setCoalescedActions(Set<String> coalescedActions) {
+        this.coalescedActions = coalescedActions;
+    }
+
+    /**
+     * @param method HTTP method of the request
+     * @param action the API action
+     * @return true if the request is eligible for coalescing
+     */
+    public boolean isCoalesced(String method, APIEventBean action) {
+        // e.g. ranges of the same file must not share a response
+        return "GET".equals(method) && action != null && action.getRequestHeaders() == null && coalescedActions.contains(action.getAction());
+    }
+
+    /**
+     * Executes the request unless an identical one is in flight already, in which case its response is shared.
+     *
+     * @param request the request to execute, invoked by the first of the concurrent callers only
+     * @return a stream over the response body
+     * @throws NetStorageException the exception of the shared request
+     */
+    public InputStream execute(String method, String path, APIEventBean action, Callable<InputStream> request) throws NetStorageException {
+        String key = method + " " + path + "?" + Utils.convertMapAsQueryParams(action.asQueryParams());
+        boolean[] executed = new boolean[1];
+        Response response = singleFlight.execute(key, () -> {
+            executed[0] = true;
+            try (InputStream inputStream = request.call()) {
+                return new Response(readAll(inputStream), inputStream);
+            } catch (IOException e) {
+                throw new ConnectionException("Communication Error", e);
+            }
+        });
+        if (!executed[0])
+            coalescedRequests.incrementAndGet();
+        return response.headers != null ? new CoalescedResponse(response) : new ByteArrayInputStream(response.body);
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = BufferPool.shared().acquire();
+        try {
+            for (int length; (length = inputStream.read(buffer)) != -1; )
+                outputStream.write(buffer, 0, length);
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * @return amount of requests answered by a concurrent identical request instead of an own HTTP call
+     */
+    public long getCoalescedRequests() {
+        return coalescedRequests.get();
+    }
+
+    /**
+     * Response shared between the coalesced callers, status and headers are only known from a
+     * {@link TransportResponse}
+     */
+    private static final class Response {
+        final byte[] body;
+        final int responseCode;
+        final Map<String, List<String>> headers;
+
+        Response(byte[] body, InputStream source) throws IOException {
+            this.body = body;
+            if (source instanceof TransportResponse) {
+                TransportResponse response = (TransportResponse) source;
+                Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (Map.Entry<String, List<String>> entry : response.getHeaderFields().entrySet())
+                    // HttpURLConnection lists the status line without a name
+                    if (entry.getKey() != null)
+                        headers.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+                this.responseCode = response.getResponseCode();
+                this.headers = Collections.unmodifiableMap(headers);
+            } else {
+                this.responseCode = -1;
+                this.headers = null;
+            }
+        }
+    }
+
+    /**
+     * A caller's stream over a shared response
+     */
+    private static class CoalescedResponse extends ByteArrayInputStream implements TransportResponse {
+        private final Response response;
+
+        CoalescedResponse(Response response) {
+            super(response.body);
+            this.response = response;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return response.responseCode;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            List<String> values = response.headers.get(name);
+            return values != null && !values.isEmpty() ? values.get(0) : null;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return response.headers;
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.body.length;
+        }
+
+        @Override
+        public void abort() {
+            // nothing to close, the body is buffered
+        }
+    }
+}
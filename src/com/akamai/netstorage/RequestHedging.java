@@ -0,0 +1,326 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.ConnectionException;
+import com.akamai.netstorage.exception.NetStorageException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hedging of idempotent read requests to cut tail latency. A request is sent once; if it has not returned after the
+ * configured percentile of the recently observed latencies, a duplicate request is sent. The first successful
+ * response wins, the other request is cancelled through its {@link Cancellation}: a request still waiting for its
+ * response is disconnected right away instead of occupying a connection until the slow response arrives. A response
+ * arriving anyway is closed and disconnected so that it is not returned to the keep-alive cache half read.
+ * <p>
+ * Only the time until the response headers are available is hedged, the body of a losing download is never
+ * transferred. No hedging takes place until {@link #getMinimumSamples()} latencies were recorded.
+ * <p>
+ * Only use this for idempotent actions, by default stat, dir and download.
+ */
+public class RequestHedging {
+
+    private int percentile = 95;
+    private long minimumDelay = 10;
+    private int sampleSize = 200;
+    private int minimumSamples = 20;
+    private Set<String> hedgedActions = new HashSet<>(Arrays.asList("stat", "dir", "download"));
+    private ExecutorService executor;
+
+    private final LatencyTracker latencyTracker = new LatencyTracker();
+
+    public int getPercentile() {
+        return percentile;
+    }
+
+    public void setPercentile(int percentile) {
+        if (percentile <= 0 || percentile >= 100)
+            throw new IllegalArgumentException("percentile must be within 1 and 99");
+        this.percentile = percentile;
+    }
+
+    public long getMinimumDelay() {
+        return minimumDelay;
+    }
+
+    /**
+     * @param minimumDelay lower bound in milliseconds for the delay before a hedge request is sent
+     */
+    public void setMinimumDelay(long minimumDelay) {
+        this.minimumDelay = minimumDelay;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @param sampleSize the amount of recent latencies the percentile is calculated from
+     */
+    public void setSampleSize(int sampleSize) {
+        if (sampleSize <= 0)
+            throw new IllegalArgumentException("sampleSize must be positive");
+        this.sampleSize = sampleSize;
+    }
+
+    public int getMinimumSamples() {
+        return minimumSamples;
+    }
+
+    public void setMinimumSamples(int minimumSamples) {
+        this.minimumSamples = minimumSamples;
+    }
+
+    public Set<String> getHedgedActions() {
+        return hedgedActions;
+    }
+
+    public void setHedgedActions(Set<String> hedgedActions) {
+        this.hedgedActions = hedgedActions;
+    }
+
+    /**
+     * @param executor the executor running the requests; by default a cached pool of daemon threads is used
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "netstorage-hedging-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * @param method HTTP method of the request
+     * @param action the API action
+     * @return true if the request is eligible for hedging
+     */
+    public boolean isHedged(String method, APIEventBean action) {
+        return "GET".equals(method) && action != null && hedgedActions.contains(action.getAction());
+    }
+
+    /**
+     * @return the current hedge delay in milliseconds or -1 if not enough latencies were recorded yet
+     */
+    public long getHedgeDelay() {
+        long latency = latencyTracker.percentile(percentile, minimumSamples);
+        return latency < 0 ? -1 : Math.max(minimumDelay, latency);
+    }
+
+    /**
+     * Executes the request, hedging it once if it is slower than the current hedge delay.
+     *
+     * @param request the request to execute; invoked once or twice, possibly concurrently
+     * @return the response of the first successful request
+     * @throws NetStorageException the exception of the request(s) if no request succeeded
+     */
+    public InputStream execute(Callable<InputStream> request) throws NetStorageException {
+        return execute(cancellation -> request.call());
+    }
+
+    /**
+     * Executes the request, hedging it once if it is slower than the current hedge delay. The losing request is
+     * cancelled once the other one succeeded.
+     *
+     * @param request the request to execute; invoked once or twice, possibly concurrently
+     * @return the response of the first successful request
+     * @throws NetStorageException the exception of the request(s) if no request succeeded
+     */
+    public InputStream execute(Request request) throws NetStorageException {
+        long delay = getHedgeDelay();
+        if (delay < 0)
+            return timed(request, new Cancellation());
+
+        CompletableFuture<InputStream> winner = new CompletableFuture<>();
+        List<Cancellation> attempts = new CopyOnWriteArrayList<>();
+        // launched requests which have not failed yet
+        AtomicInteger running = new AtomicInteger(1);
+        submit(request, winner, attempts, running);
+        try {
+            try {
+                return winner.get(delay, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // counted before it is launched, so a failure of the first request in between waits for the hedge;
+                // once the first request failed alone, its failure is final
+                for (int count = running.get(); count > 0; count = running.get()) {
+                    if (running.compareAndSet(count, count + 1)) {
+                        submit(request, winner, attempts, running);
+                        break;
+                    }
+                }
+                return winner.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // a response arriving later is discarded by the request itself
+            winner.cancel(false);
+            attempts.forEach(Cancellation::cancel);
+            throw new ConnectionException("Interrupted while waiting for the response.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NetStorageException)
+                throw (NetStorageException) e.getCause();
+            throw new ConnectionException("Communication Error", e.getCause());
+        }
+    }
+
+    private void submit(Request request, CompletableFuture<InputStream> winner, List<Cancellation> attempts,
+                        AtomicInteger running) {
+        Cancellation cancellation = new Cancellation();
+        attempts.add(cancellation);
+        // the other request may have won while this one was launched
+        if (winner.isDone())
+            cancellation.cancel();
+        getExecutor().execute(() -> {
+            try {
+                InputStream response = timed(request, cancellation);
+                if (winner.complete(response)) {
+                    for (Cancellation attempt : attempts)
+                        if (attempt != cancellation)
+                            attempt.cancel();
+                } else {
+                    discard(response);
+                }
+            } catch (Throwable e) {
+                // only report a failure once every launched request has failed
+                if (running.decrementAndGet() == 0)
+                    winner.completeExceptionally(e);
+            }
+        });
+    }
+
+    private InputStream timed(Request request, Cancellation cancellation) throws NetStorageException {
+        long start = System.nanoTime();
+        InputStream response;
+        try {
+            response = request.execute(cancellation);
+        } catch (NetStorageException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ConnectionException("Communication Error", e);
+        }
+        latencyTracker.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), sampleSize);
+        return response;
+    }
+
+    /**
+     * Closes the response of a losing request and disconnects it, since its body was not consumed.
+     *
+     * @param response the response to discard
+     */
+    static void discard(InputStream response) {
+        if (response == null) return;
+        if (response instanceof TransportResponse)
+            ((TransportResponse) response).abort();
+        try {
+            response.close();
+        } catch (IOException e) {
+            // ignore, the connection was disconnected anyway
+        }
+    }
+
+    /**
+     * A request which can be cancelled while it is in flight.
+     */
+    public interface Request {
+
+        /**
+         * @param cancellation cancelled once the request lost; the request should register how it is aborted
+         * @return the response
+         * @throws Exception if the request failed
+         */
+        InputStream execute(Cancellation cancellation) throws Exception;
+    }
+
+    /**
+     * Cancellation of a single request of a hedged pair, triggered once the other request won.
+     */
+    public static class Cancellation {
+        private Runnable abort;
+        private boolean cancelled = false;
+
+        /**
+         * @param abort aborts the request, e.g. disconnects its connection. Runs on the thread of the winning request,
+         *              or right away if the request was already cancelled.
+         */
+        public void onCancel(Runnable abort) {
+            synchronized (this) {
+                if (!cancelled) {
+                    this.abort = abort;
+                    return;
+                }
+            }
+            abort.run();
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        void cancel() {
+            Runnable abort;
+            synchronized (this) {
+                if (cancelled)
+                    return;
+                cancelled = true;
+                abort = this.abort;
+            }
+            if (abort != null)
+                abort.run();
+        }
+    }
+
+    /**
+     * Ring buffer of the most recent request latencies.
+     */
+    static class LatencyTracker {
+        private long[] samples = new long[0];
+        private int position = 0;
+        private int count = 0;
+
+        synchronized void record(long latency, int sampleSize) {
+            if (samples.length != sampleSize) {
+                samples = new long[sampleSize];
+                position = 0;
+                count = 0;
+            }
+            samples[position] = latency;
+            position = (position + 1) % samples.length;
+            if (count < samples.length) count++;
+        }
+
+        synchronized long percentile(int percentile, int minimumSamples) {
+            if (count == 0 || count < minimumSamples)
+                return -1;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+            return sorted[Math.max(0, Math.min(index, count - 1))];
+        }
+    }
+}
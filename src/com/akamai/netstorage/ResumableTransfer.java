@@ -0,0 +1,530 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.*;
+
+import java.io.*;
+import java.lang.IllegalArgumentException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Transfers of large files that survive failures, driven by a small journal per transfer in the journal directory.
+ * <p>
+ * A download is written to {@code <target>.part}. Every {@link #getCheckpointInterval()} bytes the part file is synced
+ * and the offset recorded in the journal. After a failure the download resumes from the last checkpoint with a
+ * {@code Range} request, within the same call for up to {@link #getMaxAttempts()} attempts without progress, or in a
+ * later call, e.g. after a restart. Only the verified file is renamed to the target.
+ * <p>
+ * NetStorage cannot append to or concatenate objects, so a resumable upload is split into segment objects below
+ * {@code <path>.segments/}, each uploaded and verified on its own, {@link #getParallelism()} at a time. Finished
+ * segments are recorded in the journal and skipped when resuming. A manifest listing size, md5, segments and the root
+ * of the md5 {@link TreeHash} over the segments is uploaded to {@code <path>.manifest} last, so a segmented file is
+ * complete once its manifest exists.
+ * {@link #downloadSegmented(String, File)} reassembles it.
+ */
+public class ResumableTransfer {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    private final NetStorage netStorage;
+    private final Path journalDirectory;
+
+    private long checkpointInterval = 8L * 1024 * 1024;
+    private int maxAttempts = 5;
+    // milliseconds
+    private long retryDelay = 1000;
+    // 0 follows the transfer tuner
+    private int parallelism = 0;
+
+    /**
+     * @param netStorage       the client to transfer with
+     * @param journalDirectory directory of the journals, created if absent
+     */
+    public ResumableTransfer(NetStorage netStorage, Path journalDirectory) {
+        this.netStorage = netStorage;
+        this.journalDirectory = journalDirectory;
+        try {
+            Files.createDirectories(journalDirectory);
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not create journal directory " + journalDirectory, e);
+        }
+    }
+
+    /**
+     * @param path        netstorage path of a file
+     * @param target      local file, replaced once the download is complete and verified
+     * @param size        size of the file, e.g. from a stat
+     * @param md5Checksum expected md5 of the file, null skips the verification
+     * @return the md5 of the downloaded file
+     */
+    public byte[] download(String path, File target, long size, byte[] md5Checksum) throws NetStorageException {
+        List<Part> parts = new ArrayList<>();
+        parts.add(new Part(path, 0, size));
+        return download(parts, target, md5Checksum);
+    }
+
+    /**
+     * Uploads a file as segments and manifest, see {@link ResumableTransfer}.
+     *
+     * @param source      local file
+     * @param path        netstorage path of the manifest without the .manifest suffix
+     * @param segmentSize size of the segments in bytes
+     * @return the md5 of the uploaded file
+     */
+    public byte[] uploadSegmented(File source, String path, long segmentSize) throws NetStorageException {
+        if (!source.exists())
+            throw new LocalFileNotFoundException(String.format("Src file is not accessible %s", source));
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("segmentSize must be positive");
+
+        long size = source.length();
+        long segments = Math.max(1, (size + segmentSize - 1) / segmentSize);
+        Path journal = journal("upload", source.getAbsolutePath() + "\n" + path);
+        String fingerprint = size + " " + source.lastModified() + " " + segmentSize + " " + path;
+        Properties state = loadJournal(journal, fingerprint);
+        Date mtime = new Date(source.lastModified());
+
+        List<Long> pending = new ArrayList<>();
+        List<byte[]> uploaded = new ArrayList<>();
+        for (long i = 0; i < segments; i++) {
+            String md5 = state.getProperty("segment." + i + ".md5");
+            if (md5 == null)
+                pending.add(i);
+            uploaded.add(md5 != null ? Utils.decodeHex(md5) : null);
+        }
+
+        // the segment md5s are the leaves of the tree hash, the md5 of the file is computed in the same read
+        TreeHash treeHash = TreeHash.compute(source.toPath(), Utils.HashAlgorithm.MD5, segmentSize, uploaded, Utils.HashAlgorithm.MD5);
+        List<byte[]> leaves = treeHash.getLeaves();
+        byte[] md5 = treeHash.getFileHash(Utils.HashAlgorithm.MD5);
+
+        int parallelism = Math.min(getParallelism(), pending.size());
+        if (parallelism <= 1) {
+            for (long i : pending)
+                uploadSegment(source, path, i, segmentSize, leaves.get((int) i), mtime, journal, state);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (long i : pending)
+                    futures.add(executor.submit(() -> uploadSegment(source, path, i, segmentSize, leaves.get((int) i), mtime, journal, state)));
+                for (Future<?> future : futures)
+                    await(future);
+            } finally {
+                // the remaining segments are uploaded when resuming
+                executor.shutdownNow();
+            }
+        }
+
+        Properties manifest = new Properties();
+        manifest.setProperty("size", Long.toString(size));
+        manifest.setProperty("segmentSize", Long.toString(segmentSize));
+        manifest.setProperty("segments", Long.toString(segments));
+        manifest.setProperty("md5", Utils.encodeHex(md5));
+        manifest.setProperty("treeMd5", Utils.encodeHex(treeHash.getRoot()));
+        for (long i = 0; i < segments; i++)
+            manifest.setProperty("segment." + i + ".md5", Utils.encodeHex(leaves.get((int) i)));
+        byte[] content = toBytes(manifest);
+        netStorage.upload(getManifestPath(path), new ByteArrayInputStream(content), mtime, (long) content.length,
+                Utils.computeHash(new ByteArrayInputStream(content), Utils.HashAlgorithm.MD5), null, null, false);
+
+        deleteJournal(journal);
+        return md5;
+    }
+
+    private void uploadSegment(File source, String path, long segment, long segmentSize, byte[] md5, Date mtime, Path journal, Properties state) {
+        long start = segment * segmentSize;
+        long length = Math.min(segmentSize, source.length() - start);
+        for (int attempt = 1; ; attempt++) {
+            try (InputStream inputStream = openSegment(source, start, length)) {
+                netStorage.upload(getSegmentPath(path, segment), inputStream, mtime, length, md5, null, null, false);
+                break;
+            } catch (NetStorageException e) {
+                if (!isRetriable(e) || attempt >= maxAttempts)
+                    throw e;
+                pause();
+            } catch (IOException e) {
+                throw new StreamClosingException("Could not read segment " + segment + " of " + source, e);
+            }
+        }
+        synchronized (state) {
+            state.setProperty("segment." + segment + ".md5", Utils.encodeHex(md5));
+            saveJournal(journal, state);
+        }
+    }
+
+    private static void await(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnspecificNetstorageException("Waiting for the segment uploads was interrupted.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new UnspecificNetstorageException("Segment upload failed.", cause);
+        }
+    }
+
+    public byte[] uploadSegmented(File source, String path) throws NetStorageException {
+        return uploadSegmented(source, path, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Downloads a file uploaded by {@link #uploadSegmented(File, String, long)}, resumable like
+     * {@link #download(String, File, long, byte[])}.
+     *
+     * @param path   netstorage path of the manifest without the .manifest suffix
+     * @param target local file, replaced once the download is complete and verified
+     * @return the md5 of the downloaded file
+     */
+    public byte[] downloadSegmented(String path, File target) throws NetStorageException {
+        Properties manifest = new Properties();
+        try (InputStream inputStream = netStorage.download(getManifestPath(path))) {
+            manifest.load(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not read manifest of " + path, e);
+        }
+
+        long size = Long.parseLong(manifest.getProperty("size"));
+        long segmentSize = Long.parseLong(manifest.getProperty("segmentSize"));
+        long segments = Long.parseLong(manifest.getProperty("segments"));
+        List<Part> parts = new ArrayList<>();
+        for (long i = 0; i < segments; i++)
+            parts.add(new Part(getSegmentPath(path, i), i * segmentSize, Math.min(segmentSize, size - i * segmentSize)));
+        return download(parts, target, Utils.decodeHex(manifest.getProperty("md5")));
+    }
+
+    private byte[] download(List<Part> parts, File target, byte[] md5Checksum) {
+        Part last = parts.get(parts.size() - 1);
+        long size = last.start + last.size;
+        Path journal = journal("download", target.getAbsolutePath());
+        StringBuilder fingerprint = new StringBuilder().append(md5Checksum != null ? Utils.encodeHex(md5Checksum) : "-");
+        for (Part part : parts)
+            fingerprint.append(' ').append(part.path).append(' ').append(part.size);
+        Properties state = loadJournal(journal, fingerprint.toString());
+
+        File partFile = new File(target.getPath() + ".part");
+        try (RandomAccessFile output = new RandomAccessFile(partFile, "rw")) {
+            long offset = Math.min(Long.parseLong(state.getProperty("offset", "0")), output.length());
+            // anything after the last checkpoint may be incomplete
+            output.setLength(offset);
+            output.seek(offset);
+
+            int attempts = 0;
+            byte[] buffer = BufferPool.shared().acquire();
+            try {
+                while (offset < size) {
+                    long failedAt = offset;
+                    try {
+                        offset = transfer(parts, offset, output, buffer, journal, state);
+                    } catch (NetStorageException e) {
+                        offset = checkpoint(output, journal, state);
+                        // only attempts without any progress count
+                        if (offset > failedAt)
+                            attempts = 0;
+                        if (!isRetriable(e) || ++attempts >= maxAttempts)
+                            throw e;
+                        pause();
+                    }
+                }
+            } finally {
+                BufferPool.shared().release(buffer);
+            }
+            checkpoint(output, journal, state);
+        } catch (IOException e) {
+            throw new StreamClosingException(String.format("Could not write %s", partFile), e);
+        }
+
+        byte[] md5;
+        try (InputStream inputStream = new FileInputStream(partFile)) {
+            md5 = Utils.computeHash(inputStream, Utils.HashAlgorithm.MD5);
+        } catch (IOException e) {
+            throw new StreamClosingException(String.format("Could not read %s", partFile), e);
+        }
+        if (md5Checksum != null && !Arrays.equals(md5Checksum, md5)) {
+            partFile.delete();
+            deleteJournal(journal);
+            throw new ChecksumMismatchException(String.format("MD5 of %s is %s instead of %s", target, Utils.encodeHex(md5), Utils.encodeHex(md5Checksum)));
+        }
+        try {
+            NetStorage.moveAtomically(partFile, target);
+        } catch (IOException e) {
+            throw new StreamClosingException(String.format("Could not move %s to %s", partFile, target), e);
+        }
+        deleteJournal(journal);
+        return md5;
+    }
+
+    /**
+     * Downloads from the offset on until the end of the part containing it
+     *
+     * @return the offset after the part
+     */
+    private long transfer(List<Part> parts, long offset, RandomAccessFile output, byte[] buffer, Path journal, Properties state) throws IOException {
+        Part part = parts.get(0);
+        for (Part candidate : parts)
+            if (candidate.start <= offset)
+                part = candidate;
+        long end = part.start + part.size;
+        long checkpoint = offset;
+
+        try (InputStream inputStream = netStorage.download(part.path, offset - part.start)) {
+            while (offset < end) {
+                int length;
+                try {
+                    length = inputStream.read(buffer, 0, (int) Math.min(buffer.length, end - offset));
+                } catch (IOException e) {
+                    throw new ConnectionException(String.format("Download of %s was interrupted at %d", part.path, offset - part.start), e);
+                }
+                if (length == -1)
+                    throw new ConnectionException(String.format("Download of %s ended early at %d", part.path, offset - part.start));
+                output.write(buffer, 0, length);
+                offset += length;
+                if (offset - checkpoint >= checkpointInterval) {
+                    checkpoint(output, journal, state);
+                    checkpoint = offset;
+                }
+            }
+        }
+        return offset;
+    }
+
+    private long checkpoint(RandomAccessFile output, Path journal, Properties state) throws IOException {
+        output.getFD().sync();
+        long offset = output.getFilePointer();
+        state.setProperty("offset", Long.toString(offset));
+        saveJournal(journal, state);
+        return offset;
+    }
+
+    private boolean isRetriable(NetStorageException e) {
+        if (e instanceof ConnectionException)
+            return true;
+        return e instanceof UnspecificNetstorageException && ((UnspecificNetstorageException) e).getResponseCode() >= 500;
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(retryDelay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnspecificNetstorageException("Waiting for the next attempt was interrupted.", e);
+        }
+    }
+
+    private static InputStream openSegment(File source, long start, long length) throws IOException {
+        FileInputStream inputStream = new FileInputStream(source);
+        try {
+            inputStream.getChannel().position(start);
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+        return new BufferedInputStream(new BoundedInputStream(inputStream, length));
+    }
+
+    static String getSegmentPath(String path, long segment) {
+        return String.format("%s.segments/%08d", path, segment);
+    }
+
+    static String getManifestPath(String path) {
+        return path + ".manifest";
+    }
+
+    private Path journal(String type, String key) {
+        byte[] hash = Utils.computeHash(new ByteArrayInputStream(key.getBytes(StandardCharsets.UTF_8)), Utils.HashAlgorithm.MD5);
+        return journalDirectory.resolve(Utils.encodeHex(hash) + "." + type);
+    }
+
+    private static Properties loadJournal(Path journal, String fingerprint) {
+        Properties state = new Properties();
+        if (Files.exists(journal)) {
+            try (Reader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+                state.load(reader);
+            } catch (IOException e) {
+                throw new StreamClosingException("Could not read journal " + journal, e);
+            }
+        }
+        // a journal of another version of the file is worthless
+        if (!fingerprint.equals(state.getProperty("fingerprint"))) {
+            state.clear();
+            state.setProperty("fingerprint", fingerprint);
+        }
+        return state;
+    }
+
+    private static void saveJournal(Path journal, Properties state) {
+        try {
+            Path temp = journal.resolveSibling(journal.getFileName() + ".tmp");
+            Files.write(temp, toBytes(state));
+            NetStorage.moveAtomically(temp.toFile(), journal.toFile());
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not write journal " + journal, e);
+        }
+    }
+
+    private static void deleteJournal(Path journal) {
+        try {
+            Files.deleteIfExists(journal);
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not delete journal " + journal, e);
+        }
+    }
+
+    private static byte[] toBytes(Properties properties) {
+        try {
+            StringWriter writer = new StringWriter();
+            properties.store(writer, null);
+            return writer.toString().getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("This should never happen! We are writing to a String!", e);
+        }
+    }
+
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * @param checkpointInterval bytes between two checkpoints of a download, each costs an fsync
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        if (checkpointInterval <= 0)
+            throw new IllegalArgumentException("checkpointInterval must be positive");
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts attempts of a download without progress or of a segment upload before giving up
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0)
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * @param retryDelay milliseconds to wait before the next attempt
+     */
+    public void setRetryDelay(long retryDelay) {
+        if (retryDelay < 0)
+            throw new IllegalArgumentException("retryDelay must not be negative");
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * @return the parallelism of segmented uploads: set explicitly, recommended by the {@link TransferTuner} of the
+     * client or 1
+     */
+    public int getParallelism() {
+        if (parallelism > 0)
+            return parallelism;
+        TransferTuner transferTuner = netStorage.getTransferTuner();
+        return transferTuner != null ? transferTuner.getSettings(netStorage.getCredential().getHostname()).getParallelism() : 1;
+    }
+
+    /**
+     * @param parallelism segments uploaded concurrently, 0 (default) follows the {@link TransferTuner} of the client
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 0)
+            throw new IllegalArgumentException("parallelism must not be negative");
+        this.parallelism = parallelism;
+    }
+
+    private static class Part {
+        final String path;
+        final long start;
+        final long size;
+
+        Part(String path, long start, long size) {
+            this.path = path;
+            this.start = start;
+            this.size = size;
+        }
+    }
+
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int result = super.read();
+            if (result != -1)
+                remaining--;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int result = super.read(b, off, (int) Math.min(len, remaining));
+            if (result != -1)
+                remaining -= result;
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tunes the transfers to a host from its measured round trip time and throughput, so transfers over links with a large
+ * bandwidth-delay product (BDP) are no longer limited by default socket buffers.
+ * <p>
+ * The round trip time is estimated from the time to the response headers of requests without body. Like the TCP
+ * SRTT it is smoothed, but follows decreases immediately, as slow samples mostly include a handshake or server time.
+ * The throughput is smoothed over uploads and downloads of at least {@link #MIN_SAMPLE_SIZE} bytes. From the BDP
+ * follow, rounded up to powers of two:
+ * <ul>
+ * <li>socket send and receive buffers of twice the BDP, within 64 KiB and {@link #getMaxBufferSize()}</li>
+ * <li>the chunk size of uploads of unknown size, the BDP within 64 KiB and 8 MiB</li>
+ * <li>the parallelism of segmented transfers: enough connections to keep twice the BDP in flight with buffers of
+ * {@link #getMaxBufferSize()}, up to {@link #getMaxParallelism()}</li>
+ * </ul>
+ * The measured throughput is bounded by the buffers in use, so the buffers double from transfer to transfer until the
+ * link instead of the buffer is the limit. Unmeasured hosts get the {@link #DEFAULT_SETTINGS}. With a state file, the
+ * measurements survive restarts.
+ */
+public class TransferTuner {
+    private static final Logger log = Logger.getLogger(TransferTuner.class.getName());
+
+    // smaller transfers are dominated by slow start and the round trip
+    public static final long MIN_SAMPLE_SIZE = 1024 * 1024;
+    static final int MIN_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+    // 1 MiB chunks, socket buffers of the OS, no parallelism
+    public static final Settings DEFAULT_SETTINGS = new Settings(1024 * 1024, 0, 1);
+
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TunedSocketFactory> socketFactories = new ConcurrentHashMap<>();
+    private final Path stateFile;
+
+    private int maxBufferSize = 8 * 1024 * 1024;
+    private int maxParallelism = 8;
+
+    public TransferTuner() {
+        this(null);
+    }
+
+    /**
+     * @param stateFile properties file the measurements are loaded from and saved to, null keeps them in memory only
+     */
+    public TransferTuner(Path stateFile) {
+        this.stateFile = stateFile;
+        if (stateFile != null && Files.exists(stateFile))
+            load();
+    }
+
+    /**
+     * @param hostname the host
+     * @return the settings for the next transfer to the host
+     */
+    public Settings getSettings(String hostname) {
+        Host host = hosts.get(hostname);
+        return host != null ? host.settings : DEFAULT_SETTINGS;
+    }
+
+    /**
+     * @param hostname the host
+     * @param nanos    time from sending a request without body to its response headers
+     */
+    public void recordLatency(String hostname, long nanos) {
+        if (nanos <= 0) return;
+        Host host = host(hostname);
+        synchronized (host) {
+            // like the TCP SRTT with a gain of 1/8, but decreases are taken immediately
+            host.roundTripTime = host.roundTripTime == 0 || nanos < host.roundTripTime
+                    ? nanos : host.roundTripTime + (nanos - host.roundTripTime) / 8;
+        }
+        update(host);
+    }
+
+    /**
+     * @param hostname the host
+     * @param bytes    bytes transferred, smaller samples than {@link #MIN_SAMPLE_SIZE} are ignored
+     * @param nanos    time the transfer took
+     */
+    public void recordThroughput(String hostname, long bytes, long nanos) {
+        if (bytes < MIN_SAMPLE_SIZE || nanos <= 0) return;
+        double bytesPerSecond = bytes * 1e9 / nanos;
+        Host host = host(hostname);
+        synchronized (host) {
+            host.throughput = host.throughput == 0 ? bytesPerSecond : host.throughput + (bytesPerSecond - host.throughput) / 4;
+        }
+        update(host);
+    }
+
+    /**
+     * @return the smoothed round trip time in nanoseconds, 0 if not measured yet
+     */
+    public long getRoundTripTime(String hostname) {
+        Host host = hosts.get(hostname);
+        return host != null ? host.roundTripTime : 0;
+    }
+
+    /**
+     * @return the smoothed throughput in bytes per second, 0 if not measured yet
+     */
+    public double getThroughput(String hostname) {
+        Host host = hosts.get(hostname);
+        return host != null ? host.throughput : 0;
+    }
+
+    /**
+     * @param hostname the host
+     * @param delegate factory the sockets are created with, null for the default of {@link HttpsURLConnection}
+     * @return a factory applying the socket buffer sizes of the host. The same instance is returned for the same host
+     * and delegate, so keep-alive connections are still reused.
+     */
+    SSLSocketFactory getSocketFactory(String hostname, SSLSocketFactory delegate) {
+        SSLSocketFactory target = delegate != null ? delegate : HttpsURLConnection.getDefaultSSLSocketFactory();
+        return socketFactories.compute(hostname, (key, existing) ->
+                existing != null && existing.delegate == target ? existing : new TunedSocketFactory(key, target));
+    }
+
+    private Host host(String hostname) {
+        return hosts.computeIfAbsent(hostname, key -> new Host());
+    }
+
+    private void update(Host host) {
+        Settings settings;
+        synchronized (host) {
+            settings = compute(host.roundTripTime, host.throughput);
+            if (settings.equals(host.settings))
+                return;
+            host.settings = settings;
+        }
+        // only changed settings are worth a write
+        save();
+    }
+
+    Settings compute(long roundTripTime, double throughput) {
+        if (roundTripTime == 0 || throughput == 0)
+            return DEFAULT_SETTINGS;
+        long bdp = Math.max(1, (long) (throughput * roundTripTime / 1e9));
+        int bufferSize = (int) Math.max(MIN_BUFFER_SIZE, Math.min(maxBufferSize, powerOfTwo(2 * bdp)));
+        int chunkSize = (int) Math.max(MIN_BUFFER_SIZE, Math.min(MAX_CHUNK_SIZE, powerOfTwo(bdp)));
+        int parallelism = (int) Math.max(1, Math.min(maxParallelism, (2 * bdp + maxBufferSize - 1) / maxBufferSize));
+        return new Settings(chunkSize, bufferSize, parallelism);
+    }
+
+    // smallest power of two >= value
+    private static long powerOfTwo(long value) {
+        return value <= 1 ? 1 : Long.highestOneBit(value - 1) << 1;
+    }
+
+    private void load() {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Could not read transfer state " + stateFile, e);
+            return;
+        }
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.endsWith(".rtt"))
+                continue;
+            String hostname = name.substring(0, name.length() - ".rtt".length());
+            try {
+                Host host = host(hostname);
+                host.roundTripTime = Long.parseLong(properties.getProperty(name));
+                host.throughput = Double.parseDouble(properties.getProperty(hostname + ".throughput", "0"));
+                host.settings = compute(host.roundTripTime, host.throughput);
+            } catch (NumberFormatException e) {
+                hosts.remove(hostname);
+            }
+        }
+    }
+
+    private synchronized void save() {
+        if (stateFile == null)
+            return;
+        Properties properties = new Properties();
+        for (Map.Entry<String, Host> entry : hosts.entrySet()) {
+            synchronized (entry.getValue()) {
+                properties.setProperty(entry.getKey() + ".rtt", Long.toString(entry.getValue().roundTripTime));
+                properties.setProperty(entry.getKey() + ".throughput", Double.toString(entry.getValue().throughput));
+            }
+        }
+        try {
+            StringWriter writer = new StringWriter();
+            properties.store(writer, null);
+            Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            Files.write(temp, writer.toString().getBytes(StandardCharsets.UTF_8));
+            NetStorage.moveAtomically(temp.toFile(), stateFile.toFile());
+        } catch (IOException e) {
+            // tuning is best effort, the next change tries again
+            log.log(Level.WARNING, "Could not write transfer state " + stateFile, e);
+        }
+    }
+
+    public Path getStateFile() {
+        return stateFile;
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * @param maxBufferSize upper limit of the socket buffers in bytes. The OS may cap them further, e.g. Linux at
+     *                      net.core.rmem_max and wmem_max.
+     */
+    public void setMaxBufferSize(int maxBufferSize) {
+        if (maxBufferSize < MIN_BUFFER_SIZE)
+            throw new IllegalArgumentException("maxBufferSize must be at least " + MIN_BUFFER_SIZE);
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    public void setMaxParallelism(int maxParallelism) {
+        if (maxParallelism <= 0)
+            throw new IllegalArgumentException("maxParallelism must be positive");
+        this.maxParallelism = maxParallelism;
+    }
+
+    /**
+     * Transfer settings for a host
+     */
+    public static class Settings {
+        private final int chunkSize;
+        private final int bufferSize;
+        private final int parallelism;
+
+        Settings(int chunkSize, int bufferSize, int parallelism) {
+            this.chunkSize = chunkSize;
+            this.bufferSize = bufferSize;
+            this.parallelism = parallelism;
+        }
+
+        /**
+         * @return chunk size of uploads of unknown size in bytes
+         */
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        /**
+         * @return socket send and receive buffer size in bytes, 0 for the default of the OS
+         */
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        /**
+         * @return connections a segmented transfer should use
+         */
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Settings)) return false;
+            Settings settings = (Settings) o;
+            return chunkSize == settings.chunkSize && bufferSize == settings.bufferSize && parallelism == settings.parallelism;
+        }
+
+        @Override
+        public int hashCode() {
+            return (chunkSize * 31 + bufferSize) * 31 + parallelism;
+        }
+
+        @Override
+        public String toString() {
+            return "Settings{chunkSize=" + chunkSize + ", bufferSize=" + bufferSize + ", parallelism=" + parallelism + '}';
+        }
+    }
+
+    private static class Host {
+        // guarded by this
+        long roundTripTime;
+        double throughput;
+        volatile Settings settings = DEFAULT_SETTINGS;
+    }
+
+    /**
+     * Applies the buffer sizes of its host to the sockets before they connect, so the TCP window scale is negotiated for
+     * them. Sockets connected by the delegate itself get them right after the connect.
+     */
+    private class TunedSocketFactory extends SSLSocketFactory {
+        private final String hostname;
+        private final SSLSocketFactory delegate;
+
+        TunedSocketFactory(String hostname, SSLSocketFactory delegate) {
+            this.hostname = hostname;
+            this.delegate = delegate;
+        }
+
+        private <T extends Socket> T tune(T socket) throws SocketException {
+            int bufferSize = getSettings(hostname).getBufferSize();
+            if (bufferSize > 0) {
+                socket.setSendBufferSize(bufferSize);
+                socket.setReceiveBufferSize(bufferSize);
+            }
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return tune(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return delegate.createSocket(tune(socket), host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return tune(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return tune(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return tune(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return tune(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.auth.ClientCredential;
+import com.akamai.netstorage.exception.NetStorageException;
+
+import java.io.InputStream;
+
+/**
+ * Sends a signed request to NetStorage. Without a transport set, {@link NetStorage} sends its requests with the
+ * {@link java.net.HttpURLConnection} of the {@link NetStorageCMSv35Signer}, one request per connection at a time.
+ * <p>
+ * On Java 11 and later, {@code HttpClientTransport} sends them with the JDK HttpClient instead, multiplexed over
+ * HTTP/2 where the endpoint supports it.
+ */
+public interface Transport {
+
+    /**
+     * @param signer     method, url, parameters and upload of the request, signs it with {@link NetStorageCMSv35Signer#computeHeaders(ClientCredential)}
+     * @param credential user credentials
+     * @return the body of a successful response, best a {@link TransportResponse}
+     * @throws NetStorageException the response was not successful or the communication failed
+     */
+    InputStream execute(NetStorageCMSv35Signer signer, ClientCredential credential) throws NetStorageException;
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Body of a successful response that still knows its status and headers, so callers can e.g. tell a 206 Partial
+ * Content from a full response regardless of the {@link Transport} it was received with.
+ */
+interface TransportResponse {
+
+    int getResponseCode() throws IOException;
+
+    /**
+     * @param name case insensitive header name
+     * @return the first value of the header, null if absent
+     */
+    String getHeaderField(String name);
+
+    /**
+     * @return all headers by name, the values in the order received
+     */
+    Map<String, List<String>> getHeaderFields();
+
+    /**
+     * @return the Content-Length, -1 if unknown
+     */
+    long getContentLength();
+
+    /**
+     * Closes the connection (or stream) of the response instead of returning it for reuse, e.g. for a response that
+     * will not be consumed.
+     */
+    void abort();
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.StreamClosingException;
+import com.akamai.netstorage.exception.UnspecificNetstorageException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hash tree of a local file, computed on all cores: the file is split into leaves of a fixed size which are hashed
+ * concurrently with positional reads, then pairs of hashes are hashed level by level up to the root. An odd hash at
+ * the end of a level is carried up unchanged, so the root of a file of a single leaf is its plain hash.
+ * <p>
+ * Unlike a plain hash, which is inherently sequential, this scales with cores and disks, e.g. for manifests of very
+ * large files. The leaves double as checksums of the corresponding ranges, e.g. segments of a
+ * {@link ResumableTransfer}.
+ * <p>
+ * If plain hashes of the whole file are needed as well, e.g. the md5 of a manifest,
+ * {@link #compute(Path, Utils.HashAlgorithm, long, List, Executor, Utils.HashAlgorithm...)} reads the file once,
+ * sequentially, and hands the chunks of each leaf on to the executor.
+ * <p>
+ * Unless an executor is given, the leaves are hashed on a pool of daemon threads, one per core, of the TreeHash only,
+ * so long hashes of large files neither wait for nor block other users of the common pool.
+ */
+public class TreeHash {
+
+    public static final long DEFAULT_LEAF_SIZE = 64L * 1024 * 1024;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        Thread thread = new Thread(runnable, "netstorage-treehash-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Utils.HashAlgorithm hashAlgorithm;
+    private final long leafSize;
+    private final List<byte[]> leaves;
+    private final byte[] root;
+    private final Map<Utils.HashAlgorithm, byte[]> fileHashes;
+
+    private TreeHash(Utils.HashAlgorithm hashAlgorithm, long leafSize, List<byte[]> leaves, Map<Utils.HashAlgorithm, byte[]> fileHashes) {
+        this.hashAlgorithm = hashAlgorithm;
+        this.leafSize = leafSize;
+        this.leaves = Collections.unmodifiableList(leaves);
+        this.root = computeRoot(hashAlgorithm, leaves);
+        this.fileHashes = Collections.unmodifiableMap(fileHashes);
+    }
+
+    public static TreeHash compute(Path file, Utils.HashAlgorithm hashAlgorithm) {
+        return compute(file, hashAlgorithm, DEFAULT_LEAF_SIZE, EXECUTOR);
+    }
+
+    /**
+     * @param file          local file
+     * @param hashAlgorithm algorithm of leaves and inner nodes
+     * @param leafSize      bytes per leaf, the last leaf may be shorter
+     * @param executor      executor the leaves are hashed on
+     * @return the tree hash of the file
+     */
+    public static TreeHash compute(Path file, Utils.HashAlgorithm hashAlgorithm, long leafSize, Executor executor) {
+        if (leafSize <= 0)
+            throw new IllegalArgumentException("leafSize must be positive");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long count = Math.max(1, (size + leafSize - 1) / leafSize);
+            List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+            for (long i = 0; i < count; i++) {
+                long start = i * leafSize;
+                long length = Math.min(leafSize, size - start);
+                futures.add(CompletableFuture.supplyAsync(() -> hashRange(channel, start, length, hashAlgorithm), executor));
+            }
+
+            List<byte[]> leaves = new ArrayList<>(futures.size());
+            for (CompletableFuture<byte[]> future : futures)
+                leaves.add(future.join());
+            return new TreeHash(hashAlgorithm, leafSize, leaves, Collections.emptyMap());
+        } catch (IOException e) {
+            throw new StreamClosingException("Computing tree hash of " + file + " failed.", e);
+        } catch (CompletionException e) {
+            throw failure(file, e);
+        }
+    }
+
+    public static TreeHash compute(Path file, Utils.HashAlgorithm hashAlgorithm, long leafSize, List<byte[]> knownLeaves,
+                                   Utils.HashAlgorithm... fileHashAlgorithms) {
+        return compute(file, hashAlgorithm, leafSize, knownLeaves, EXECUTOR, fileHashAlgorithms);
+    }
+
+    /**
+     * Computes the tree hash along with plain hashes of the whole file in a single sequential read. The hashes of the
+     * whole file are updated on the calling thread, the chunks of each leaf are hashed on the executor meanwhile, up to
+     * {@link BufferPool#getMaxBuffers()} chunks at a time.
+     *
+     * @param file               local file
+     * @param hashAlgorithm      algorithm of leaves and inner nodes
+     * @param leafSize           bytes per leaf, the last leaf may be shorter
+     * @param knownLeaves        hashes of leaves already known in file order, e.g. from a journal, null or missing
+     *                           for the leaves to hash
+     * @param executor           executor the leaves are hashed on
+     * @param fileHashAlgorithms algorithms of the hashes of the whole file, see {@link #getFileHash(Utils.HashAlgorithm)}
+     * @return the tree hash of the file
+     */
+    public static TreeHash compute(Path file, Utils.HashAlgorithm hashAlgorithm, long leafSize, List<byte[]> knownLeaves,
+                                   Executor executor, Utils.HashAlgorithm... fileHashAlgorithms) {
+        if (leafSize <= 0)
+            throw new IllegalArgumentException("leafSize must be positive");
+
+        BufferPool bufferPool = BufferPool.shared();
+        Semaphore chunks = new Semaphore(bufferPool.getMaxBuffers());
+        MessageDigest[] fileDigests = Utils.createDigests(fileHashAlgorithms);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long count = Math.max(1, (size + leafSize - 1) / leafSize);
+            List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                byte[] known = i < knownLeaves.size() ? knownLeaves.get(i) : null;
+                // the chunks of a leaf are chained, those of different leaves run concurrently
+                CompletableFuture<MessageDigest> leaf = CompletableFuture.completedFuture(known == null ? Utils.createDigest(hashAlgorithm) : null);
+                for (long position = i * leafSize, end = Math.min(size, position + leafSize); position < end; ) {
+                    chunks.acquire();
+                    byte[] buffer = bufferPool.acquire();
+                    int read;
+                    try {
+                        read = channel.read(ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position)), position);
+                        if (read == -1)
+                            throw new IOException("File was truncated while hashing");
+                    } catch (IOException e) {
+                        bufferPool.release(buffer);
+                        chunks.release();
+                        throw e;
+                    }
+                    for (MessageDigest digest : fileDigests)
+                        digest.update(buffer, 0, read);
+                    position += read;
+
+                    if (known != null) {
+                        bufferPool.release(buffer);
+                        chunks.release();
+                        continue;
+                    }
+                    int length = read;
+                    leaf = leaf.thenApplyAsync(digest -> {
+                        digest.update(buffer, 0, length);
+                        return digest;
+                    }, executor).whenComplete((digest, e) -> {
+                        bufferPool.release(buffer);
+                        chunks.release();
+                    });
+                }
+                futures.add(known != null ? CompletableFuture.completedFuture(known) : leaf.thenApply(MessageDigest::digest));
+            }
+
+            List<byte[]> leaves = new ArrayList<>(futures.size());
+            for (CompletableFuture<byte[]> future : futures)
+                leaves.add(future.join());
+            return new TreeHash(hashAlgorithm, leafSize, leaves, Utils.digest(fileHashAlgorithms, fileDigests));
+        } catch (IOException e) {
+            throw new StreamClosingException("Computing tree hash of " + file + " failed.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnspecificNetstorageException("Computing tree hash of " + file + " was interrupted.", e);
+        } catch (CompletionException e) {
+            throw failure(file, e);
+        }
+    }
+
+    private static RuntimeException failure(Path file, CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof UncheckedIOException)
+            return new StreamClosingException("Computing tree hash of " + file + " failed.", cause.getCause());
+        if (cause instanceof RuntimeException)
+            return (RuntimeException) cause;
+        return new UnspecificNetstorageException("Computing tree hash of " + file + " failed.", cause);
+    }
+
+    // FileChannel positional reads are safe to run concurrently
+    private static byte[] hashRange(FileChannel channel, long start, long length, Utils.HashAlgorithm hashAlgorithm) {
+        MessageDigest digest = Utils.createDigest(hashAlgorithm);
+        byte[] buffer = BufferPool.shared().acquire();
+        try {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            for (long position = start, end = start + length; position < end; ) {
+                byteBuffer.clear().limit((int) Math.min(buffer.length, end - position));
+                int read = channel.read(byteBuffer, position);
+                if (read == -1)
+                    throw new IOException("File was truncated while hashing");
+                digest.update(buffer, 0, read);
+                position += read;
+            }
+            return digest.digest();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+    }
+
+    private static byte[] computeRoot(Utils.HashAlgorithm hashAlgorithm, List<byte[]> leaves) {
+        List<byte[]> level = leaves;
+        while (level.size() > 1) {
+            List<byte[]> next = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                if (i + 1 == level.size()) {
+                    next.add(level.get(i));
+                } else {
+                    MessageDigest digest = Utils.createDigest(hashAlgorithm);
+                    digest.update(level.get(i));
+                    digest.update(level.get(i + 1));
+                    next.add(digest.digest());
+                }
+            }
+            level = next;
+        }
+        return level.get(0);
+    }
+
+    public Utils.HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public long getLeafSize() {
+        return leafSize;
+    }
+
+    /**
+     * @return the hashes of the leaves in file order
+     */
+    public List<byte[]> getLeaves() {
+        return leaves;
+    }
+
+    public byte[] getRoot() {
+        return root;
+    }
+
+    /**
+     * @param hashAlgorithm algorithm of a plain hash of the whole file
+     * @return the hash if it was computed along with the tree, null otherwise
+     */
+    public byte[] getFileHash(Utils.HashAlgorithm hashAlgorithm) {
+        return fileHashes.get(hashAlgorithm);
+    }
+}
@@ -103,8 +103,7 @@ public class Utils {
     /**
      * Computes the hash of a given InputStream. This is a wrapper over the MessageDigest crypto functions.
      *
-     * @param srcStream     a source stream. This will be wrapped in a {@link java.io.BufferedInputStream}
-     *                      in case the source stream is not buffered
+     * @param srcStream     a source stream, read to the end in pooled buffers and closed
      * @param hashAlgorithm the Algorithm to use to compute the hash
      * @return a byte[] representation of the hash. If the InputStream is a null object
      * then null will be returned. If the InputStream is empty an empty byte[] {} will be returned.
@@ -112,19 +111,57 @@ public class Utils {
      */
     public static byte[] computeHash(InputStream srcStream, HashAlgorithm hashAlgorithm) {
         if (srcStream == null) return null;
+        return computeHashes(srcStream, hashAlgorithm).get(hashAlgorithm);
+    }
 
-        try {
-            MessageDigest digest = MessageDigest.getInstance(hashAlgorithm.getAlgorithm());
-            try (InputStream inputStream = new BufferedInputStream(srcStream)) {
-                byte[] buff = new byte[1024 * 1024];
+    /**
+     * Computes several hashes of a given InputStream in a single pass, e.g. MD5, SHA1 and SHA256 for an upload, instead
+     * of reading the stream once per hash.
+     *
+     * @param srcStream      a source stream, read to the end and closed
+     * @param hashAlgorithms the algorithms to use
+     * @return the hash per algorithm, null if the InputStream is a null object
+     */
+    public static Map<HashAlgorithm, byte[]> computeHashes(InputStream srcStream, HashAlgorithm... hashAlgorithms) {
+        if (srcStream == null) return null;
 
-                int size;
-                while ((size = inputStream.read(buff)) != -1)
+        MessageDigest[] digests = createDigests(hashAlgorithms);
+        byte[] buff = BufferPool.shared().acquire();
+        try (InputStream inputStream = srcStream) {
+            int size;
+            while ((size = inputStream.read(buff)) != -1)
+                for (MessageDigest digest : digests)
                     digest.update(buff, 0, size);
-            } catch (IOException e) {
-                throw new StreamClosingException("Computeing hash failed.", e);
-            }
-            return digest.digest();
+        } catch (IOException e) {
+            throw new StreamClosingException("Computeing hash failed.", e);
+        } finally {
+            BufferPool.shared().release(buff);
+        }
+
+        return digest(hashAlgorithms, digests);
+    }
+
+    static MessageDigest[] createDigests(HashAlgorithm... hashAlgorithms) {
+        MessageDigest[] digests = new MessageDigest[hashAlgorithms.length];
+        for (int i = 0; i < hashAlgorithms.length; i++)
+            digests[i] = createDigest(hashAlgorithms[i]);
+        return digests;
+    }
+
+    static Map<HashAlgorithm, byte[]> digest(HashAlgorithm[] hashAlgorithms, MessageDigest[] digests) {
+        Map<HashAlgorithm, byte[]> hashes = new EnumMap<>(HashAlgorithm.class);
+        for (int i = 0; i < hashAlgorithms.length; i++)
+            hashes.put(hashAlgorithms[i], digests[i].digest());
+        return hashes;
+    }
+
+    /**
+     * @param hashAlgorithm the Algorithm to use to compute the hash
+     * @return a new digest of the algorithm
+     */
+    public static MessageDigest createDigest(HashAlgorithm hashAlgorithm) {
+        try {
+            return MessageDigest.getInstance(hashAlgorithm.getAlgorithm());
         } catch (NoSuchAlgorithmException e) {
             //no-op. This will never happen since we are using an enum to limit the hash algorithms
             throw new IllegalArgumentException("This should never happen! We are using an enum!", e);
@@ -167,6 +204,28 @@ public class Utils {
         return str.toString();
     }
 
+    /**
+     * Hex decoding of strings produced by {@link #encodeHex(byte[])}, e.g. the md5 attribute of stat and list responses.
+     *
+     * @param value an even length hex string, upper or lower case
+     * @return the decoded byte array
+     */
+    public static byte[] decodeHex(String value) {
+        if (value == null) return null;
+        if (value.length() % 2 != 0)
+            throw new IllegalArgumentException("Hex string must have an even length: " + value);
+
+        byte[] result = new byte[value.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            int high = Character.digit(value.charAt(2 * i), 16);
+            int low = Character.digit(value.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0)
+                throw new IllegalArgumentException("Invalid hex string: " + value);
+            result[i] = (byte) ((high << 4) | low);
+        }
+        return result;
+    }
+
     /**
      * Lookup table for base64 encoding.
      */
@@ -219,7 +278,7 @@ public class Utils {
             for (PropertyDescriptor property : properties) {
                 String name = property.getName();
 
-                if (name.equals("class") || name.equals("additionalParams")) continue;
+                if (name.equals("class") || name.equals("additionalParams") || name.equals("requestHeaders")) continue;
 
                 ParameterValueFormatter formatter = null;
                 boolean includeNull = false;
@@ -299,8 +358,42 @@ public class Utils {
     public static void readToEnd(InputStream stream) throws IOException {
         if (stream == null) return;
 
-        byte[] buffer = new byte[1024 * 1024];
-        while (stream.read(buffer) > 0) {
+        byte[] buffer = BufferPool.shared().acquire();
+        try {
+            while (stream.read(buffer) > 0) {
+            }
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+    }
+
+    /**
+     * Reads at most limit bytes of a stream, e.g. to decide whether a response body is small enough to be drained so
+     * its connection can be reused, or discarded.
+     *
+     * @param stream the open InputStream
+     * @param limit  maximum amount of bytes to read
+     * @param copy   receives the bytes read, may be null
+     * @return true if the end of the stream was reached within the limit
+     * @throws IOException input stream read exception
+     */
+    public static boolean readToEnd(InputStream stream, long limit, OutputStream copy) throws IOException {
+        if (stream == null) return true;
+
+        byte[] buffer = BufferPool.shared().acquire();
+        try {
+            long remaining = limit;
+            // one byte beyond the limit tells whether the stream ends within it
+            for (int length; (length = stream.read(buffer, 0, remaining < buffer.length ? (int) remaining + 1 : buffer.length)) != -1; ) {
+                if (length > remaining)
+                    return false;
+                if (copy != null)
+                    copy.write(buffer, 0, length);
+                remaining -= length;
+            }
+            return true;
+        } finally {
+            BufferPool.shared().release(buffer);
         }
     }
 
@@ -0,0 +1,242 @@
+package com.akamai.netstorage.autoconfigure;
+
+import com.akamai.netstorage.ChecksumStore;
+import com.akamai.netstorage.CircuitBreakerRegistry;
+import com.akamai.netstorage.ConnectionRacing;
+import com.akamai.netstorage.HostSelector;
+import com.akamai.netstorage.NetStorage;
+import com.akamai.netstorage.RequestCoalescing;
+import com.akamai.netstorage.RequestHedging;
+import com.akamai.netstorage.TransferTuner;
+import com.akamai.netstorage.service.ConcurrencyLimitedExecutor;
+import com.akamai.netstorage.service.NetstorageService;
+import com.akamai.netstorage.service.ReactiveNetstorageService;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * {@link EnableAutoConfiguration Auto-configuration} of the {@link NetstorageService} including its executors,
+ * connection settings, circuit breaking, hedging and coalescing. Active as soon as {@code netstorage.host} is set.
+ * <p>
+ * With {@code netstorage.virtual-threads=true} (JDK 21+) listing, crawling and deletion run on virtual threads and
+ * the max pool sizes are applied as concurrency limits instead.
+ * <p>
+ * If Spring Boot Actuator is present, the executors and circuit breakers are registered as metrics and a
+ * {@link NetstorageHealthIndicator} is added. If Spring WebFlux is present, a {@link ReactiveNetstorageService} is
+ * added on top of the {@link NetstorageService}.
+ */
+@Configuration
+@ConditionalOnClass({NetstorageService.class, ThreadPoolTaskExecutor.class, XmlMapper.class})
+@ConditionalOnProperty(prefix = "netstorage", name = "host")
+@EnableConfigurationProperties(NetstorageProperties.class)
+public class NetstorageAutoConfiguration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetstorageAutoConfiguration.class);
+
+    static final String LISTING_EXECUTOR = "netstorageListingExecutor";
+    static final String DELETION_EXECUTOR = "netstorageDeletionExecutor";
+
+    @Configuration
+    @ConditionalOnProperty(prefix = "netstorage", name = "virtual-threads", havingValue = "false", matchIfMissing = true)
+    static class PlatformThreadsConfiguration {
+
+        @Bean(name = LISTING_EXECUTOR)
+        @ConditionalOnMissingBean(name = LISTING_EXECUTOR)
+        public ThreadPoolTaskExecutor netstorageListingExecutor(NetstorageProperties properties) {
+            return createExecutor(properties.getListing());
+        }
+
+        @Bean(name = DELETION_EXECUTOR)
+        @ConditionalOnMissingBean(name = DELETION_EXECUTOR)
+        public ThreadPoolTaskExecutor netstorageDeletionExecutor(NetstorageProperties properties) {
+            return createExecutor(properties.getDeletion());
+        }
+    }
+
+    @Configuration
+    @ConditionalOnProperty(prefix = "netstorage", name = "virtual-threads", havingValue = "true")
+    static class VirtualThreadsConfiguration {
+
+        @Bean(name = LISTING_EXECUTOR, destroyMethod = "close")
+        @ConditionalOnMissingBean(name = LISTING_EXECUTOR)
+        public ConcurrencyLimitedExecutor netstorageVirtualListingExecutor(NetstorageProperties properties) {
+            return ConcurrencyLimitedExecutor.virtualThreads(properties.getListing().getThreadNamePrefix(), properties.getListing().getMaxPoolSize());
+        }
+
+        @Bean(name = DELETION_EXECUTOR, destroyMethod = "close")
+        @ConditionalOnMissingBean(name = DELETION_EXECUTOR)
+        public ConcurrencyLimitedExecutor netstorageVirtualDeletionExecutor(NetstorageProperties properties) {
+            return ConcurrencyLimitedExecutor.virtualThreads(properties.getDeletion().getThreadNamePrefix(), properties.getDeletion().getMaxPoolSize());
+        }
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public MappingJackson2XmlHttpMessageConverter netstorageXmlConverter() {
+        return new MappingJackson2XmlHttpMessageConverter();
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "netstorage.circuit-breaker", name = "enabled", matchIfMissing = true)
+    @ConditionalOnMissingBean
+    public CircuitBreakerRegistry netstorageCircuitBreakerRegistry(NetstorageProperties properties) {
+        return new CircuitBreakerRegistry(properties.getCircuitBreaker());
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "netstorage.connection", name = "racing", havingValue = "true")
+    @ConditionalOnMissingBean
+    public ConnectionRacing netstorageConnectionRacing(NetstorageProperties properties) {
+        ConnectionRacing connectionRacing = new ConnectionRacing();
+        connectionRacing.setDnsTtl(properties.getConnection().getDnsTtl());
+        connectionRacing.setAttemptDelay(properties.getConnection().getAttemptDelay());
+        return connectionRacing;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public NetstorageService netstorageService(NetstorageProperties properties,
+                                               @Qualifier(LISTING_EXECUTOR) Executor listingExecutor,
+                                               @Qualifier(DELETION_EXECUTOR) Executor deletionExecutor,
+                                               MappingJackson2XmlHttpMessageConverter xmlConverter,
+                                               Optional<CircuitBreakerRegistry> circuitBreakerRegistry,
+                                               Optional<ConnectionRacing> connectionRacing) {
+        applyMaxIdleConnections(properties);
+
+        NetstorageService netstorageService = new NetstorageService(
+                properties.getHost(),
+                properties.getUser(),
+                properties.getKey(),
+                properties.getFolder(),
+                listingExecutor,
+                deletionExecutor,
+                xmlConverter);
+
+        NetStorage netStorage = netstorageService.getNetStorage();
+        netStorage.setConnectTimeout(properties.getConnection().getConnectTimeout());
+        netStorage.setReadTimeout(properties.getConnection().getReadTimeout());
+        circuitBreakerRegistry.ifPresent(netStorage::setCircuitBreakerRegistry);
+        connectionRacing.ifPresent(netStorage::setConnectionRacing);
+
+        if (properties.getConnection().isTuning()) {
+            String stateFile = properties.getConnection().getTuningStateFile();
+            netStorage.setTransferTuner(new TransferTuner(stateFile != null ? Paths.get(stateFile) : null));
+        }
+
+        if (properties.getChecksumStoreFile() != null)
+            netStorage.setChecksumStore(new ChecksumStore(Paths.get(properties.getChecksumStoreFile())));
+
+        if (!properties.getAdditionalHosts().isEmpty()) {
+            List<String> hosts = new ArrayList<>();
+            hosts.add(properties.getHost());
+            hosts.addAll(properties.getAdditionalHosts());
+            netStorage.setHostSelector(new HostSelector(hosts));
+        }
+
+        NetstorageProperties.Hedging hedging = properties.getHedging();
+        if (hedging.isEnabled()) {
+            RequestHedging requestHedging = new RequestHedging();
+            requestHedging.setPercentile(hedging.getPercentile());
+            requestHedging.setMinimumDelay(hedging.getMinimumDelay());
+            requestHedging.setSampleSize(hedging.getSampleSize());
+            requestHedging.setMinimumSamples(hedging.getMinimumSamples());
+            requestHedging.setHedgedActions(hedging.getActions());
+            netStorage.setRequestHedging(requestHedging);
+        }
+
+        NetstorageProperties.Coalescing coalescing = properties.getCoalescing();
+        if (coalescing.isEnabled()) {
+            RequestCoalescing requestCoalescing = new RequestCoalescing();
+            requestCoalescing.setCoalescedActions(coalescing.getActions());
+            netStorage.setRequestCoalescing(requestCoalescing);
+        }
+        return netstorageService;
+    }
+
+    static ThreadPoolTaskExecutor createExecutor(NetstorageProperties.Pool pool) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(pool.getThreadNamePrefix());
+        executor.setCorePoolSize(pool.getCorePoolSize());
+        executor.setMaxPoolSize(Math.max(pool.getCorePoolSize(), pool.getMaxPoolSize()));
+        executor.setQueueCapacity(pool.getQueueCapacity());
+        executor.setKeepAliveSeconds(pool.getKeepAliveSeconds());
+        // crawling submits tasks from within tasks, rejecting them would fail the whole crawl
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    /**
+     * The JDK only keeps http.maxConnections (default 5) idle connections per host. Any thread beyond that opens a
+     * new TLS connection per request. Opt-in only: the system property sizes the keep-alive cache of every
+     * {@link java.net.HttpURLConnection} of the JVM, not only of NetStorage.
+     */
+    static void applyMaxIdleConnections(NetstorageProperties properties) {
+        Integer maxConnections = properties.getConnection().getMaxIdleConnectionsPerHost();
+        if (maxConnections == null)
+            return;
+
+        if (System.getProperty("http.maxConnections") == null) {
+            LOGGER.info("Setting the JVM wide http.maxConnections to {}", maxConnections);
+            System.setProperty("http.maxConnections", String.valueOf(maxConnections));
+        } else {
+            LOGGER.info("http.maxConnections is already set to {}, not applying {}", System.getProperty("http.maxConnections"), maxConnections);
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.web.reactive.function.client.WebClient")
+    static class ReactiveNetstorageConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ReactiveNetstorageService reactiveNetstorageService(NetstorageService netstorageService,
+                                                                   ObjectProvider<WebClient.Builder> webClientBuilder) {
+            return new ReactiveNetstorageService(netstorageService, webClientBuilder.getIfAvailable(WebClient::builder).build());
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(MeterBinder.class)
+    static class NetstorageMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public NetstorageMetrics netstorageMetrics(@Qualifier(LISTING_EXECUTOR) Executor listingExecutor,
+                                                   @Qualifier(DELETION_EXECUTOR) Executor deletionExecutor,
+                                                   Optional<CircuitBreakerRegistry> circuitBreakerRegistry) {
+            return new NetstorageMetrics(listingExecutor, deletionExecutor, circuitBreakerRegistry.orElse(null));
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.health.HealthIndicator")
+    @ConditionalOnProperty(prefix = "management.health.netstorage", name = "enabled", matchIfMissing = true)
+    static class NetstorageHealthConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(name = "netstorageHealthIndicator")
+        public NetstorageHealthIndicator netstorageHealthIndicator(NetstorageService netstorageService, NetstorageProperties properties) {
+            return new NetstorageHealthIndicator(netstorageService, properties.getHealth().isProbe());
+        }
+    }
+}
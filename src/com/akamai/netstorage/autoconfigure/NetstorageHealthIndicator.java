@@ -0,0 +1,43 @@
+package com.akamai.netstorage.autoconfigure;
+
+import com.akamai.netstorage.CircuitBreaker;
+import com.akamai.netstorage.CircuitBreakerRegistry;
+import com.akamai.netstorage.service.NetstorageService;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+
+/**
+ * Reports DOWN while the circuit breaker of any NetStorage host is open. If probing is enabled, the CP code root is
+ * additionally stat'ed on every health check.
+ */
+public class NetstorageHealthIndicator extends AbstractHealthIndicator {
+
+    private final NetstorageService netstorageService;
+    private final boolean probe;
+
+    public NetstorageHealthIndicator(NetstorageService netstorageService, boolean probe) {
+        super("NetStorage health check failed");
+        this.netstorageService = netstorageService;
+        this.probe = probe;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        builder.up();
+
+        CircuitBreakerRegistry circuitBreakerRegistry = netstorageService.getNetStorage().getCircuitBreakerRegistry();
+        if (circuitBreakerRegistry != null) {
+            for (CircuitBreaker circuitBreaker : circuitBreakerRegistry.getCircuitBreakers()) {
+                CircuitBreaker.State state = circuitBreaker.getState();
+                builder.withDetail(circuitBreaker.getHostname(), state);
+                if (state == CircuitBreaker.State.OPEN)
+                    builder.down();
+            }
+        }
+
+        if (probe) {
+            // throws on failure, which AbstractHealthIndicator reports as DOWN
+            netstorageService.stat("");
+        }
+    }
+}
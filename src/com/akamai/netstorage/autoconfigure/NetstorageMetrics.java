@@ -0,0 +1,63 @@
+package com.akamai.netstorage.autoconfigure;
+
+import com.akamai.netstorage.CircuitBreaker;
+import com.akamai.netstorage.CircuitBreakerRegistry;
+import com.akamai.netstorage.service.ConcurrencyLimitedExecutor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Registers the NetStorage executors and the circuit breaker states with Micrometer.
+ */
+public class NetstorageMetrics implements MeterBinder {
+
+    private final Executor listingExecutor;
+    private final Executor deletionExecutor;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+
+    public NetstorageMetrics(Executor listingExecutor,
+                             Executor deletionExecutor,
+                             CircuitBreakerRegistry circuitBreakerRegistry) {
+        this.listingExecutor = listingExecutor;
+        this.deletionExecutor = deletionExecutor;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindExecutor(registry, listingExecutor, NetstorageAutoConfiguration.LISTING_EXECUTOR);
+        bindExecutor(registry, deletionExecutor, NetstorageAutoConfiguration.DELETION_EXECUTOR);
+
+        if (circuitBreakerRegistry == null)
+            return;
+        for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            Gauge.builder("netstorage.circuitbreaker.hosts", circuitBreakerRegistry,
+                    breakers -> breakers.getCircuitBreakers().stream().filter(cb -> cb.getState() == state).count())
+                    .description("Amount of NetStorage hosts per circuit breaker state")
+                    .tag("state", state.name().toLowerCase())
+                    .register(registry);
+        }
+    }
+
+    private static void bindExecutor(MeterRegistry registry, Executor executor, String name) {
+        if (executor instanceof ThreadPoolTaskExecutor) {
+            new ExecutorServiceMetrics(((ThreadPoolTaskExecutor) executor).getThreadPoolExecutor(), name, Tags.empty()).bindTo(registry);
+        } else if (executor instanceof ConcurrencyLimitedExecutor) {
+            ConcurrencyLimitedExecutor limitedExecutor = (ConcurrencyLimitedExecutor) executor;
+            Gauge.builder("netstorage.executor.active", limitedExecutor, ConcurrencyLimitedExecutor::getActiveCount)
+                    .description("Amount of tasks currently running")
+                    .tag("name", name)
+                    .register(registry);
+            Gauge.builder("netstorage.executor.waiting", limitedExecutor, ConcurrencyLimitedExecutor::getWaitingCount)
+                    .description("Amount of tasks waiting for a concurrency permit")
+                    .tag("name", name)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.akamai.netstorage.autoconfigure;
+
+import com.akamai.netstorage.CircuitBreaker;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Configuration of the auto-configured {@link com.akamai.netstorage.service.NetstorageService}.
+ * The defaults are sized so that every executor thread can keep its own keep-alive connection.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "netstorage")
+public class NetstorageProperties {
+
+    private String host;
+    /**
+     * Further hostnames of the same storage group, e.g. other upload domains. Requests are balanced over these and
+     * {@link #host} by outstanding requests and fail over on connection errors.
+     */
+    private List<String> additionalHosts = new ArrayList<>();
+    private String user;
+    private String key;
+    /**
+     * aka CP-Code, example: "/12345"
+     */
+    private String folder;
+
+    /**
+     * Run listing, crawling and deletion on virtual threads (requires JDK 21+). The max pool sizes of listing and
+     * deletion are then used as concurrency limits, queue settings do not apply.
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * File the SHA-256 of uploaded local files is kept in, so unchanged files are not hashed again, see
+     * {@link com.akamai.netstorage.ChecksumStore}. Every file is hashed if not set.
+     */
+    private String checksumStoreFile;
+
+    private final Pool listing = new Pool("netstorage-listing-", 16, 16, 10000);
+    private final Pool deletion = new Pool("netstorage-deletion-", 32, 32, 10000);
+    private final Connection connection = new Connection();
+    private final CircuitBreakerProperties circuitBreaker = new CircuitBreakerProperties();
+    private final Hedging hedging = new Hedging();
+    private final Coalescing coalescing = new Coalescing();
+    private final Health health = new Health();
+
+    @Getter
+    @Setter
+    public static class Pool {
+        private String threadNamePrefix;
+        private int corePoolSize;
+        private int maxPoolSize;
+        /**
+         * Once the queue is full, the submitting thread runs the task itself instead of rejecting it.
+         */
+        private int queueCapacity;
+        private int keepAliveSeconds = 60;
+
+        Pool(String threadNamePrefix, int corePoolSize, int maxPoolSize, int queueCapacity) {
+            this.threadNamePrefix = threadNamePrefix;
+            this.corePoolSize = corePoolSize;
+            this.maxPoolSize = maxPoolSize;
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class Connection {
+        /**
+         * milliseconds
+         */
+        private int connectTimeout = 15000;
+        /**
+         * milliseconds
+         */
+        private int readTimeout = 15000;
+        /**
+         * Idle keep-alive connections kept per host, e.g. the sum of the listing and deletion pool sizes. Sets the JDK
+         * system property http.maxConnections, a global side effect on every HttpURLConnection of the application, so
+         * nothing is set unless configured. Only applied if the system property is not set already and before the
+         * first HTTP connection of the JVM.
+         */
+        private Integer maxIdleConnectionsPerHost;
+        /**
+         * Race connects over all addresses of the host, see
+         * {@link com.akamai.netstorage.ConnectionRacing}.
+         */
+        private boolean racing = false;
+        /**
+         * milliseconds the addresses raced are cached
+         */
+        private long dnsTtl = 60000;
+        /**
+         * milliseconds before the next address is raced
+         */
+        private long attemptDelay = 250;
+        /**
+         * Tune chunk size and socket buffers per host to the measured round trip time and throughput, see
+         * {@link com.akamai.netstorage.TransferTuner}.
+         */
+        private boolean tuning = false;
+        /**
+         * File the tuning measurements are kept in across restarts, in memory only if not set
+         */
+        private String tuningStateFile;
+    }
+
+    @Getter
+    @Setter
+    public static class CircuitBreakerProperties extends CircuitBreaker.Config {
+        private boolean enabled = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Hedging {
+        private boolean enabled = false;
+        private int percentile = 95;
+        /**
+         * milliseconds
+         */
+        private long minimumDelay = 10;
+        private int sampleSize = 200;
+        private int minimumSamples = 20;
+        private Set<String> actions = new HashSet<>(Arrays.asList("stat", "dir", "download"));
+    }
+
+    @Getter
+    @Setter
+    public static class Coalescing {
+        /**
+         * Identical concurrent reads share one request, see {@link com.akamai.netstorage.RequestCoalescing}.
+         */
+        private boolean enabled = false;
+        /**
+         * list and du may be added, their responses are then buffered in memory
+         */
+        private Set<String> actions = new HashSet<>(Arrays.asList("stat", "dir"));
+    }
+
+    @Getter
+    @Setter
+    public static class Health {
+        /**
+         * If enabled, the health check stats the CP code root in addition to evaluating the circuit breakers.
+         */
+        private boolean probe = false;
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.akamai.netstorage.cli;
 
+import com.akamai.netstorage.BufferPool;
 import com.akamai.netstorage.DefaultCredential;
 import com.akamai.netstorage.NetStorage;
 import com.akamai.netstorage.Utils;
@@ -196,13 +197,14 @@ public class CMS {
 				usingStdOut = true;
 			}
 
+            byte[] buffer = BufferPool.shared().acquire();
             try {
-                byte[] buffer = new byte[1024 * 1024];
                 for (int length; (length = result.read(buffer)) > 0; ) {
                     output.write(buffer, 0, length);
                 }
                 output.flush();
             } finally {
+                BufferPool.shared().release(buffer);
             	if (!usingStdOut){
             		output.close();
             	}
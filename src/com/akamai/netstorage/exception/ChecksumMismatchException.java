@@ -0,0 +1,11 @@
+package com.akamai.netstorage.exception;
+
+public class ChecksumMismatchException extends NetStorageException {
+    public ChecksumMismatchException(String message) {
+        super(message);
+    }
+
+    public ChecksumMismatchException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
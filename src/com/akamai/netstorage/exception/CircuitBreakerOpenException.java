@@ -0,0 +1,11 @@
+package com.akamai.netstorage.exception;
+
+public class CircuitBreakerOpenException extends NetStorageException {
+    public CircuitBreakerOpenException(String message) {
+        super(message);
+    }
+
+    public CircuitBreakerOpenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
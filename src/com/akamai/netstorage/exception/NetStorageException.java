@@ -28,6 +28,8 @@ public abstract class NetStorageException extends RuntimeException {
 
 	private static final long serialVersionUID = 5716437270940718895L;
 
+    private String responseBody;
+
     public NetStorageException(String message) {
         super(message);
     }
@@ -44,4 +46,21 @@ public abstract class NetStorageException extends RuntimeException {
         }
         return new UnspecificNetstorageException(responseCode, responseMessage);
     }
+
+    public static NetStorageException from(int responseCode, String responseMessage, Map<String, List<String>> headerFields, String responseBody) {
+        NetStorageException exception = from(responseCode, responseMessage, headerFields);
+        exception.setResponseBody(responseBody);
+        return exception;
+    }
+
+    /**
+     * @return the (possibly truncated) body of the error response, null if there was none
+     */
+    public String getResponseBody() {
+        return responseBody;
+    }
+
+    public void setResponseBody(String responseBody) {
+        this.responseBody = responseBody;
+    }
 }
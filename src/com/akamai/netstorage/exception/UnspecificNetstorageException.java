@@ -16,4 +16,8 @@ public class UnspecificNetstorageException extends NetStorageException {
         super(message, cause);
         this.responseCode = -1;
     }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
 }
\ No newline at end of file
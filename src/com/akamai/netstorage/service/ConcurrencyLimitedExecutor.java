@@ -0,0 +1,121 @@
+package com.akamai.netstorage.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+
+/**
+ * Executor limiting the amount of concurrently running tasks with a {@link Semaphore} instead of a pool size.
+ * Meant to be used on top of virtual threads (JDK 21+): every task gets its own cheap thread which blocks on the
+ * semaphore until a permit is available, so blocking {@link java.net.HttpURLConnection} I/O does not tie up
+ * platform threads.
+ * <p>
+ * The library is compiled for Java 8, hence virtual threads are looked up reflectively,
+ * see {@link #isVirtualThreadsSupported()}. The virtual thread executor is owned and shut down by {@link #close()},
+ * a delegate passed to the constructor is left to its owner.
+ */
+public class ConcurrencyLimitedExecutor implements Executor, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimitedExecutor.class);
+
+    private final Executor delegate;
+    private final Semaphore semaphore;
+    private final int maxConcurrency;
+    // shut down on close if created here
+    private final boolean ownsDelegate;
+
+    public ConcurrencyLimitedExecutor(Executor delegate, int maxConcurrency) {
+        this(delegate, maxConcurrency, false);
+    }
+
+    private ConcurrencyLimitedExecutor(Executor delegate, int maxConcurrency, boolean ownsDelegate) {
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        this.delegate = delegate;
+        this.maxConcurrency = maxConcurrency;
+        this.semaphore = new Semaphore(maxConcurrency, true);
+        this.ownsDelegate = ownsDelegate;
+    }
+
+    /**
+     * @param threadNamePrefix prefix of the virtual thread names, a counter is appended
+     * @param maxConcurrency   maximum amount of tasks running at the same time
+     * @return an executor starting a new virtual thread per task
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+     */
+    public static ConcurrencyLimitedExecutor virtualThreads(String threadNamePrefix, int maxConcurrency) {
+        return new ConcurrencyLimitedExecutor(newVirtualThreadPerTaskExecutor(threadNamePrefix), maxConcurrency, true);
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    static ExecutorService newVirtualThreadPerTaskExecutor(String threadNamePrefix) {
+        if (!isVirtualThreadsSupported())
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer, running on " + System.getProperty("java.version"));
+        try {
+            // Thread.ofVirtual().name(prefix, 0).factory()
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.error("Could not create virtual thread executor", e);
+            throw new UnsupportedOperationException("Could not create virtual thread executor", e);
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        delegate.execute(() -> {
+            // the task must run eventually, otherwise futures depending on it would never complete
+            semaphore.acquireUninterruptibly();
+            try {
+                command.run();
+            } finally {
+                semaphore.release();
+            }
+        });
+    }
+
+    /**
+     * Shuts down the virtual thread executor created by {@link #virtualThreads(String, int)}: no new tasks are
+     * accepted, submitted tasks still run. A delegate passed to the constructor is not shut down.
+     */
+    @Override
+    public void close() {
+        if (ownsDelegate && delegate instanceof ExecutorService)
+            ((ExecutorService) delegate).shutdown();
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return amount of tasks currently running
+     */
+    public int getActiveCount() {
+        return maxConcurrency - semaphore.availablePermits();
+    }
+
+    /**
+     * @return amount of tasks waiting for a permit
+     */
+    public int getWaitingCount() {
+        return semaphore.getQueueLength();
+    }
+
+    public Executor getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,213 @@
+package com.akamai.netstorage.service;
+
+import com.akamai.netstorage.exception.NetStorageException;
+import com.akamai.netstorage.exception.UnspecificNetstorageException;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Bytes and files of every directory below a directory, aggregated from listings instead of a du request per
+ * directory.
+ * <p>
+ * The top level is read with a single {@link NetstorageService#dir(String)}. The subtrees of the top level directories
+ * are split into shards of consecutive key ranges, listed in parallel with
+ * {@link NetstorageService#listRange(String, String, boolean)} on the listing executor. Each shard sums up its listing
+ * in a single streaming pass: as the listing is ordered by path, the directories from the root to the current file
+ * are kept on a stack and a directory is complete as soon as the listing leaves it.
+ */
+public class DiskUsage {
+
+    public static final int DEFAULT_SHARDS = 16;
+
+    private final String root;
+    // paths without trailing slash, ordered like the listing
+    private final SortedMap<String, Usage> directories;
+
+    DiskUsage(String root, SortedMap<String, Usage> directories) {
+        this.root = root;
+        this.directories = Collections.unmodifiableSortedMap(directories);
+    }
+
+    static DiskUsage compute(NetstorageService netstorageService, String directoryName, int shards, Executor executor) {
+        if (shards <= 0)
+            throw new IllegalArgumentException("shards must be positive");
+        String root = directoryName.endsWith("/") ? directoryName.substring(0, directoryName.length() - 1) : directoryName;
+        String prefix = root + "/";
+
+        long rootBytes = 0;
+        long rootFiles = 0;
+        List<String> topLevel = new ArrayList<>();
+        Iterator<Node> nodes = netstorageService.dir(prefix);
+        while (nodes.hasNext()) {
+            Node node = nodes.next();
+            if (node instanceof NetstorageService.ListingDirectory) {
+                topLevel.add(node.getFile());
+            } else if (node instanceof NetstorageService.File) {
+                rootBytes += ((NetstorageService.File) node).getSize();
+                rootFiles++;
+            }
+        }
+        // ordered like their subtrees in the listing, e.g. b-c/ before b/
+        topLevel.sort((a, b) -> ListingDiff.PATH_ORDER.compare(a + "/", b + "/"));
+
+        List<CompletableFuture<Map<String, Usage>>> futures = new ArrayList<>();
+        int count = Math.min(shards, topLevel.size());
+        for (int i = 0; i < count; i++) {
+            List<String> shard = topLevel.subList(i * topLevel.size() / count, (i + 1) * topLevel.size() / count);
+            futures.add(CompletableFuture.supplyAsync(() -> aggregate(netstorageService, prefix, shard), executor));
+        }
+
+        SortedMap<String, Usage> directories = new TreeMap<>(ListingDiff.PATH_ORDER);
+        try {
+            for (CompletableFuture<Map<String, Usage>> future : futures)
+                directories.putAll(future.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof NetStorageException)
+                throw (NetStorageException) e.getCause();
+            throw new UnspecificNetstorageException("Computing the disk usage of " + directoryName + " failed.", e.getCause());
+        }
+        for (String name : topLevel) {
+            Usage usage = directories.computeIfAbsent(prefix + name, path -> new Usage(0, 0));
+            rootBytes += usage.bytes;
+            rootFiles += usage.files;
+        }
+        directories.put(root, new Usage(rootBytes, rootFiles));
+        return new DiskUsage(root, directories);
+    }
+
+    /**
+     * Sums up the subtrees of consecutive top level directories from one listing
+     */
+    private static Map<String, Usage> aggregate(NetstorageService netstorageService, String prefix, List<String> shard) {
+        Set<String> names = new HashSet<>(shard);
+        Map<String, Usage> directories = new HashMap<>();
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(prefix));
+
+        Iterator<Node> nodes = netstorageService.listRange(prefix + shard.get(0), prefix + shard.get(shard.size() - 1) + "0", false);
+        while (nodes.hasNext()) {
+            Node node = nodes.next();
+            // the range may include top level files and neighbouring directories
+            int slash = node.path.indexOf('/', prefix.length());
+            if (!node.path.startsWith(prefix) || !names.contains(node.path.substring(prefix.length(), slash < 0 ? node.path.length() : slash)))
+                continue;
+
+            boolean directory = node instanceof NetstorageService.ListingDirectory;
+            String parent = node.getDirectory();
+            while (!parent.startsWith(stack.peek().path))
+                close(stack, directories);
+            for (int start = stack.peek().path.length(), end; start < parent.length(); start = end + 1) {
+                end = parent.indexOf('/', start);
+                stack.push(new Frame(parent.substring(0, end + 1)));
+            }
+
+            if (directory) {
+                stack.push(new Frame(node.path + "/"));
+            } else if (node instanceof NetstorageService.File) {
+                stack.peek().bytes += ((NetstorageService.File) node).getSize();
+                stack.peek().files++;
+            }
+        }
+        while (stack.size() > 1)
+            close(stack, directories);
+        return directories;
+    }
+
+    private static void close(Deque<Frame> stack, Map<String, Usage> directories) {
+        Frame frame = stack.pop();
+        stack.peek().bytes += frame.bytes;
+        stack.peek().files += frame.files;
+        // a directory is left and entered again if a sibling like b.txt sorts between b and b/c
+        directories.merge(frame.path.substring(0, frame.path.length() - 1), new Usage(frame.bytes, frame.files), Usage::add);
+    }
+
+    /**
+     * @param directory path of a directory without trailing slash, e.g. {@code /a/b}
+     * @return the usage of the directory including all subdirectories, null if the directory was not found
+     */
+    public Usage get(String directory) {
+        return directories.get(directory.endsWith("/") ? directory.substring(0, directory.length() - 1) : directory);
+    }
+
+    /**
+     * @return the usage of the directory the summary was computed for
+     */
+    public Usage getTotal() {
+        return directories.get(root);
+    }
+
+    /**
+     * @return the usage per directory path, ordered like a listing
+     */
+    public SortedMap<String, Usage> getDirectories() {
+        return directories;
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    @Override
+    public String toString() {
+        return "DiskUsage{root='" + root + "', directories=" + directories.size() + ", total=" + getTotal() + '}';
+    }
+
+    private static class Frame {
+        // with trailing slash
+        final String path;
+        long bytes;
+        long files;
+
+        Frame(String path) {
+            this.path = path;
+        }
+    }
+
+    @Getter
+    public static class Usage {
+        final long bytes;
+        final long files;
+
+        Usage(long bytes, long files) {
+            this.bytes = bytes;
+            this.files = files;
+        }
+
+        Usage add(Usage other) {
+            return new Usage(bytes + other.bytes, files + other.files);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Usage)) return false;
+            Usage usage = (Usage) o;
+            return bytes == usage.bytes && files == usage.files;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(bytes) * 31 + Long.hashCode(files);
+        }
+
+        @Override
+        public String toString() {
+            return "Usage{bytes=" + bytes + ", files=" + files + '}';
+        }
+    }
+}
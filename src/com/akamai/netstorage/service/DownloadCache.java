@@ -0,0 +1,325 @@
+package com.akamai.netstorage.service;
+
+import com.akamai.netstorage.SingleFlight;
+import com.akamai.netstorage.Utils;
+import com.akamai.netstorage.exception.StreamClosingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed on-disk cache for downloads of a {@link NetstorageService}.
+ * <p>
+ * Every access stats the path (unless it was validated within {@link #setRevalidateAfter(long)}) and serves the
+ * cached content if md5, mtime and size still match. Contents are stored once per md5 below
+ * {@code <directory>/objects}, so equal files under different paths share a single copy, and are evicted least
+ * recently used beyond the size limit. Concurrent misses for the same path trigger a single download.
+ * <p>
+ * The objects found in the directory are reused after a restart, looked up by the md5 of the stat.
+ */
+public class DownloadCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DownloadCache.class);
+
+    private final NetstorageService netstorageService;
+    private final Path objectDirectory;
+    private final Path tempDirectory;
+    private final long maxSize;
+
+    // path -> validated content, guarded by this
+    private final Map<String, Entry> index = new HashMap<>();
+    // md5 -> size in access order, guarded by this
+    private final LinkedHashMap<String, Long> objects = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    private final SingleFlight<String, Entry> downloads = new SingleFlight<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // milliseconds
+    private long revalidateAfter = 0;
+
+    /**
+     * @param netstorageService service to stat and download with
+     * @param directory         cache directory, created if absent
+     * @param maxSize           maximum size of the cached contents in bytes
+     */
+    public DownloadCache(NetstorageService netstorageService, Path directory, long maxSize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize must be positive");
+        this.netstorageService = netstorageService;
+        this.objectDirectory = directory.resolve("objects");
+        this.tempDirectory = directory.resolve("tmp");
+        this.maxSize = maxSize;
+        try {
+            Files.createDirectories(objectDirectory);
+            Files.createDirectories(tempDirectory);
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not create cache directory " + directory, e);
+        }
+        loadObjects();
+    }
+
+    private void loadObjects() {
+        try (Stream<Path> files = Files.list(objectDirectory)) {
+            files.sorted(Comparator.comparingLong(DownloadCache::lastModified))
+                    .forEach(file -> {
+                        long fileSize = file.toFile().length();
+                        objects.put(file.getFileName().toString(), fileSize);
+                        size += fileSize;
+                    });
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not read cache directory " + objectDirectory, e);
+        }
+        LOGGER.info("Loaded {} cached objects with {} bytes from {}", objects.size(), size, objectDirectory);
+        evict(null);
+    }
+
+    private static long lastModified(Path file) {
+        return file.toFile().lastModified();
+    }
+
+    /**
+     * @param path netstorage path of a file
+     * @return the local cached copy, must not be modified. It may be evicted by later calls.
+     */
+    public Path get(String path) {
+        return objectDirectory.resolve(resolve(path).md5);
+    }
+
+    /**
+     * @param path netstorage path of a file, smaller than 2 GiB
+     * @return the content mapped read only
+     */
+    public MappedByteBuffer map(String path) {
+        Path file = get(path);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after closing the channel
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not map cached file " + file, e);
+        }
+    }
+
+    /**
+     * Drop-in replacement of {@link NetstorageService#download(String)} reading from the mapped cached copy
+     */
+    public InputStream download(String path) {
+        return new ByteBufferInputStream(map(path));
+    }
+
+    private Entry resolve(String path) {
+        Entry entry = getIndexed(path);
+        if (entry != null && System.currentTimeMillis() - entry.validated < revalidateAfter && touch(entry)) {
+            hits.incrementAndGet();
+            return entry;
+        }
+
+        Node node = netstorageService.stat(path);
+        if (!(node instanceof NetstorageService.File)) {
+            throw new IllegalArgumentException(path + " is not a file: " + node);
+        }
+        NetstorageService.File file = (NetstorageService.File) node;
+        String md5 = file.getMd5() == null || file.getMd5().isEmpty() ? null : file.getMd5().toLowerCase();
+
+        Entry cached = lookup(path, file, md5, entry);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        return downloads.execute(path, () -> {
+            // a concurrent caller may have finished the download in the meantime
+            Entry loaded = lookup(path, file, md5, getIndexed(path));
+            if (loaded != null) {
+                hits.incrementAndGet();
+                return loaded;
+            }
+            misses.incrementAndGet();
+            return load(path, file);
+        });
+    }
+
+    /**
+     * @return the entry if the cached content matches the stat
+     */
+    private synchronized Entry lookup(String path, NetstorageService.File file, String md5, Entry entry) {
+        long now = System.currentTimeMillis();
+        if (entry != null && entry.mtime == file.getMtime() && entry.size == file.getSize()
+                && (md5 == null || md5.equals(entry.md5)) && objects.containsKey(entry.md5)) {
+            Entry validated = new Entry(entry.md5, entry.mtime, entry.size, now);
+            index.put(path, validated);
+            objects.get(entry.md5);
+            return validated;
+        }
+        // content addressed, the same content may be cached for another path or before a restart
+        if (md5 != null && objects.get(md5) != null) {
+            Entry validated = new Entry(md5, file.getMtime(), file.getSize(), now);
+            index.put(path, validated);
+            return validated;
+        }
+        return null;
+    }
+
+    private Entry load(String path, NetstorageService.File file) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(tempDirectory, "download-", ".part");
+            byte[] md5Checksum = file.getMd5() == null || file.getMd5().isEmpty() ? null : Utils.decodeHex(file.getMd5());
+            String md5 = Utils.encodeHex(netstorageService.getNetStorage().download(
+                    netstorageService.netstorageFolder + file.getPath(), temp.toFile(), md5Checksum, file.getSize(), false));
+            Path target = objectDirectory.resolve(md5);
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            LOGGER.debug("Cached {} as {}", path, md5);
+            return add(path, new Entry(md5, file.getMtime(), file.getSize(), System.currentTimeMillis()));
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not cache " + path, e);
+        } finally {
+            if (temp != null)
+                temp.toFile().delete();
+        }
+    }
+
+    private synchronized Entry add(String path, Entry entry) {
+        Long previous = objects.put(entry.md5, entry.size);
+        if (previous != null)
+            size -= previous;
+        size += entry.size;
+        index.put(path, entry);
+        evict(entry.md5);
+        return entry;
+    }
+
+    private synchronized void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = objects.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep))
+                continue;
+            try {
+                Files.deleteIfExists(objectDirectory.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                // e.g. still mapped on windows, it is retried on the next eviction
+                LOGGER.warn("Could not evict {}", eldest.getKey(), e);
+                continue;
+            }
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+        index.values().removeIf(entry -> !objects.containsKey(entry.md5));
+    }
+
+    private synchronized Entry getIndexed(String path) {
+        return index.get(path);
+    }
+
+    private synchronized boolean touch(Entry entry) {
+        return objects.get(entry.md5) != null;
+    }
+
+    /**
+     * Removes all cached contents
+     */
+    public synchronized void clear() {
+        for (String md5 : objects.keySet()) {
+            try {
+                Files.deleteIfExists(objectDirectory.resolve(md5));
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete {}", md5, e);
+            }
+        }
+        objects.clear();
+        index.clear();
+        size = 0;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRevalidateAfter() {
+        return revalidateAfter;
+    }
+
+    /**
+     * @param revalidateAfter milliseconds a validated path is served without a new stat, 0 (default) stats on every access
+     */
+    public void setRevalidateAfter(long revalidateAfter) {
+        if (revalidateAfter < 0)
+            throw new IllegalArgumentException("revalidateAfter must not be negative");
+        this.revalidateAfter = revalidateAfter;
+    }
+
+    private static class Entry {
+        final String md5;
+        final long mtime;
+        final long size;
+        final long validated;
+
+        Entry(String md5, long mtime, long size, long validated) {
+            this.md5 = md5;
+            this.mtime = mtime;
+            this.size = size;
+            this.validated = validated;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int length = Math.min(len, buffer.remaining());
+            buffer.get(b, off, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long n) {
+            int length = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.akamai.netstorage.service;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the paths known to exist, e.g. from a {@link NetstorageService#listRaw(String, boolean)} scan, so
+ * {@link NetstorageService#uploadIfAbsent(String, java.io.InputStream, ExistenceIndex)} only needs a stat for paths
+ * the filter may contain. A path the filter does not contain was neither listed nor added since; a contained path may
+ * be a false positive and is confirmed with a stat.
+ * <p>
+ * The filter takes about 10 bits per path at a false positive rate of 1 %. It is thread safe and only grows: paths
+ * deleted after the scan stay contained, paths uploaded by others after the scan are unknown.
+ */
+public class ExistenceIndex {
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * @param expectedPaths     paths the filter is sized for, more degrade the false positive rate
+     * @param falsePositiveRate rate of absent paths reported as contained at the expected amount of paths
+     */
+    public ExistenceIndex(long expectedPaths, double falsePositiveRate) {
+        if (expectedPaths <= 0)
+            throw new IllegalArgumentException("expectedPaths must be positive");
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+        long optimal = (long) Math.ceil(-expectedPaths * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (optimal + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedPaths * Math.log(2)));
+    }
+
+    /**
+     * @param path path relative to the CP code, e.g. {@code /a/b.txt}
+     */
+    public void add(String path) {
+        long hash = hash(path);
+        long h1 = mix(hash);
+        long h2 = mix(hash ^ 0xc2b2ae3d27d4eb4fL) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = bit(h1, h2, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            for (long value = bits.get(word); (value & mask) == 0 && !bits.compareAndSet(word, value, value | mask); )
+                value = bits.get(word);
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * @param nodes e.g. a listing
+     * @return amount of paths added
+     */
+    public long addAll(Iterator<Node> nodes) {
+        long added = 0;
+        while (nodes.hasNext()) {
+            // without trailing slash, unlike getPath() of directories
+            add(nodes.next().path);
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * @param path path relative to the CP code, e.g. {@code /a/b.txt}
+     * @return false if the path definitely was neither listed nor added, true if it may have been
+     */
+    public boolean mightContain(String path) {
+        long hash = hash(path);
+        long h1 = mix(hash);
+        long h2 = mix(hash ^ 0xc2b2ae3d27d4eb4fL) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = bit(h1, h2, i);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the false positive rate expected at the amount of paths added so far
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-hashCount * (double) count.get() / bitCount), hashCount);
+    }
+
+    /**
+     * @return amount of paths added, including duplicates
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    // double hashing, the i-th of the hash functions
+    private long bit(long h1, long h2, int i) {
+        return Math.floorMod(h1 + i * h2, bitCount);
+    }
+
+    // FNV-1a over the chars
+    private static long hash(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++)
+            hash = (hash ^ path.charAt(i)) * 0x100000001b3L;
+        return hash;
+    }
+
+    // finalizer of MurmurHash3, spreads the bits of the FNV hash
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    @Override
+    public String toString() {
+        return "ExistenceIndex{count=" + count + ", bitCount=" + bitCount + ", hashCount=" + hashCount + '}';
+    }
+}
@@ -0,0 +1,225 @@
+package com.akamai.netstorage.service;
+
+import com.akamai.netstorage.service.ListingSnapshot.Entry;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Finds the changes between listings, e.g. a {@link ListingSnapshot} and the current content of a CP code.
+ * <p>
+ * {@link #diff(Iterator, Iterator, Consumer)} merges two listings ordered by path in a single pass, so it reads both
+ * once without holding either in memory. {@link #refresh(ListingSnapshot, String, Consumer)} avoids listing everything:
+ * it compares one directory level with {@link NetstorageService#dir(String)} and only descends into directories whose
+ * mtime changed since the snapshot, so its requests scale with the changed directories. Subtrees of added directories
+ * are listed, those of removed directories read from the snapshot. It relies on the mtimes of the directories: a
+ * change deeper in a directory whose mtime did not change is only found by a full diff.
+ */
+public class ListingDiff {
+
+    public enum Kind {
+        ADDED, REMOVED, MODIFIED
+    }
+
+    // orders like the UTF-8 bytes, i.e. by code points
+    static final Comparator<String> PATH_ORDER = (a, b) -> {
+        for (int i = 0, j = 0; i < a.length() && j < b.length(); ) {
+            int x = a.codePointAt(i), y = b.codePointAt(j);
+            if (x != y)
+                return Integer.compare(x, y);
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return Integer.compare(a.codePointCount(0, a.length()), b.codePointCount(0, b.length()));
+    };
+
+    private final NetstorageService netstorageService;
+
+    public ListingDiff(NetstorageService netstorageService) {
+        this.netstorageService = netstorageService;
+    }
+
+    /**
+     * @param before  entries ordered by path, e.g. of an older snapshot
+     * @param after   entries ordered by path
+     * @param changes receives the changes in path order
+     * @return amount of changes
+     */
+    public static long diff(Iterator<Entry> before, Iterator<Entry> after, Consumer<Change> changes) {
+        long count = 0;
+        Entry left = before.hasNext() ? before.next() : null;
+        Entry right = after.hasNext() ? after.next() : null;
+        while (left != null || right != null) {
+            int order = left == null ? 1 : right == null ? -1 : PATH_ORDER.compare(left.getPath(), right.getPath());
+            if (order < 0) {
+                count += emit(changes, new Change(Kind.REMOVED, left, null));
+            } else if (order > 0) {
+                count += emit(changes, new Change(Kind.ADDED, null, right));
+            } else if (isModified(left, right)) {
+                count += emit(changes, new Change(Kind.MODIFIED, left, right));
+            }
+            if (order <= 0)
+                left = before.hasNext() ? before.next() : null;
+            if (order >= 0)
+                right = after.hasNext() ? after.next() : null;
+        }
+        return count;
+    }
+
+    /**
+     * Lists the directory and diffs it against the snapshot.
+     *
+     * @param snapshot  older state of the directory
+     * @param directory path of a directory, e.g. {@code /a}, or "" for the whole CP code
+     * @param changes   receives the changes in path order
+     * @return amount of changes
+     */
+    public long diff(ListingSnapshot snapshot, String directory, Consumer<Change> changes) {
+        return diff(snapshot.iterate(directory), list(directory), changes);
+    }
+
+    /**
+     * Finds the changes below the directory by listing only the directories whose mtime changed since the snapshot.
+     *
+     * @param snapshot  older state of the directory
+     * @param directory path of a directory, e.g. {@code /a}, or "" for the whole CP code
+     * @param changes   receives the changes, ordered by path within every directory
+     * @return amount of changes
+     */
+    public long refresh(ListingSnapshot snapshot, String directory, Consumer<Change> changes) {
+        List<Entry> current = new ArrayList<>();
+        Iterator<Node> nodes = netstorageService.dir(directory.endsWith("/") ? directory : directory + "/");
+        while (nodes.hasNext())
+            current.add(Entry.of(nodes.next()));
+        current.sort(Comparator.comparing(Entry::getPath, PATH_ORDER));
+
+        long count = 0;
+        Iterator<Entry> before = snapshot.children(directory);
+        Iterator<Entry> after = current.iterator();
+        Entry left = before.hasNext() ? before.next() : null;
+        Entry right = after.hasNext() ? after.next() : null;
+        while (left != null || right != null) {
+            int order = left == null ? 1 : right == null ? -1 : PATH_ORDER.compare(left.getPath(), right.getPath());
+            if (order < 0) {
+                count += emit(changes, new Change(Kind.REMOVED, left, null));
+                if (left.isDirectory())
+                    count += diff(snapshot.iterate(left.getPath()), Collections.emptyIterator(), changes);
+            } else if (order > 0) {
+                count += emit(changes, new Change(Kind.ADDED, null, right));
+                if (right.isDirectory())
+                    count += diff(Collections.emptyIterator(), list(right.getPath()), changes);
+            } else if (left.isDirectory() && right.isDirectory()) {
+                // directories only implied by the snapshot have no mtime to compare
+                boolean implicit = left.getMtime() == Long.MIN_VALUE;
+                if (!implicit && left.getMtime() != right.getMtime())
+                    count += emit(changes, new Change(Kind.MODIFIED, left, right));
+                if (implicit || left.getMtime() != right.getMtime())
+                    count += refresh(snapshot, right.getPath(), changes);
+            } else {
+                if (left.isDirectory())
+                    count += diff(snapshot.iterate(left.getPath()), Collections.emptyIterator(), changes);
+                if (isModified(left, right))
+                    count += emit(changes, new Change(Kind.MODIFIED, left, right));
+                if (right.isDirectory())
+                    count += diff(Collections.emptyIterator(), list(right.getPath()), changes);
+            }
+            if (order <= 0)
+                left = before.hasNext() ? before.next() : null;
+            if (order >= 0)
+                right = after.hasNext() ? after.next() : null;
+        }
+        return count;
+    }
+
+    private static long emit(Consumer<Change> changes, Change change) {
+        changes.accept(change);
+        return 1;
+    }
+
+    private static boolean isModified(Entry before, Entry after) {
+        return before.getType() != after.getType()
+                || before.getSize() != after.getSize()
+                || before.getMtime() != after.getMtime()
+                || before.getMd5() != null && after.getMd5() != null && !before.getMd5().equals(after.getMd5());
+    }
+
+    /**
+     * @return the nodes below the directory, without the nodes {@link NetstorageService#listRaw(String, boolean)}
+     * returns beyond it, e.g. {@code /a.txt} for {@code /a}
+     */
+    private Iterator<Entry> list(String directory) {
+        String path = directory.endsWith("/") ? directory.substring(0, directory.length() - 1) : directory;
+        String prefix = path + "/";
+        Iterator<Node> nodes = netstorageService.listRaw(path, false);
+        return new Iterator<Entry>() {
+            Entry next = advance();
+
+            private Entry advance() {
+                while (nodes.hasNext()) {
+                    Entry entry = Entry.of(nodes.next());
+                    if (entry.getPath().startsWith(prefix))
+                        return entry;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry next() {
+                if (next == null)
+                    throw new NoSuchElementException("End of file listing reached for directory " + directory);
+                Entry entry = next;
+                next = advance();
+                return entry;
+            }
+        };
+    }
+
+    @Getter
+    public static class Change {
+        final Kind kind;
+        // null if added
+        final Entry before;
+        // null if removed
+        final Entry after;
+
+        Change(Kind kind, Entry before, Entry after) {
+            this.kind = kind;
+            this.before = before;
+            this.after = after;
+        }
+
+        public String getPath() {
+            return (after != null ? after : before).getPath();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Change)) return false;
+            Change change = (Change) o;
+            return kind == change.kind && Objects.equals(getPath(), change.getPath());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, getPath());
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + getPath();
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package com.akamai.netstorage.service;
+
+import com.akamai.netstorage.Utils;
+import com.akamai.netstorage.exception.StreamClosingException;
+import lombok.Getter;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact binary snapshot of a listing, e.g. of a whole CP code, so later jobs can start from it instead of listing
+ * again. Written with {@link #write(Iterator, Path)} from {@link NetstorageService#listRaw(String, boolean)} and read
+ * memory mapped: lookups and subtree iteration only decode the entries they touch, nothing is loaded on-heap.
+ * <p>
+ * The entries are stored in listing order, i.e. ordered by the UTF-8 bytes of their paths, in blocks of
+ * {@link #BLOCK_SIZE} entries. Every entry stores its type, the length of the prefix shared with the previous path and
+ * the remaining bytes of its path, then its mtime and for files size and md5 as varints and raw bytes. The first entry
+ * of a block stores its whole path, so the footer only needs the offsets of the blocks to be searched binary.
+ * Snapshots are limited to 2 GiB, some tens of millions of entries.
+ */
+public class ListingSnapshot implements Closeable {
+
+    public static final int BLOCK_SIZE = 64;
+
+    private static final int MAGIC = 0x4e534c53; // NSLS
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // index offset, entry count, block count, magic
+    private static final int TRAILER_SIZE = 8 + 8 + 4 + 4;
+
+    public enum Type {
+        DIRECTORY, FILE, SYMLINK
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int indexOffset;
+    private final long count;
+    private final int blocks;
+
+    private ListingSnapshot(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        long size = channel.size();
+        if (size < HEADER_SIZE + TRAILER_SIZE || size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException(file + " is no listing snapshot");
+        }
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        int trailer = (int) size - TRAILER_SIZE;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(trailer + 20) != MAGIC) {
+            channel.close();
+            throw new IOException(file + " is no listing snapshot of version " + VERSION);
+        }
+        this.indexOffset = (int) buffer.getLong(trailer);
+        this.count = buffer.getLong(trailer + 8);
+        this.blocks = buffer.getInt(trailer + 16);
+    }
+
+    /**
+     * @param file a snapshot written by {@link #write(Iterator, Path)}
+     * @return the snapshot, to be closed
+     */
+    public static ListingSnapshot open(Path file) {
+        try {
+            return new ListingSnapshot(file);
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not open listing snapshot " + file, e);
+        }
+    }
+
+    /**
+     * Writes the nodes to a new snapshot, replacing the file once complete.
+     *
+     * @param nodes nodes ordered by path, as returned by {@link NetstorageService#listRaw(String, boolean)}
+     * @param file  the snapshot
+     * @return amount of entries written
+     */
+    public static long write(Iterator<Node> nodes, Path file) {
+        Path temp = null;
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            long count;
+            try (Writer writer = new Writer(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+                while (nodes.hasNext())
+                    writer.add(nodes.next());
+                count = writer.count;
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return count;
+        } catch (IOException e) {
+            throw new StreamClosingException("Could not write listing snapshot " + file, e);
+        } finally {
+            if (temp != null)
+                temp.toFile().delete();
+        }
+    }
+
+    /**
+     * @param path path of a node without trailing slash, e.g. {@code /a/b.txt}
+     * @return the entry of the path, null if not in the snapshot
+     */
+    public Entry get(String path) {
+        Cursor cursor = seek(path.getBytes(StandardCharsets.UTF_8));
+        if (cursor == null)
+            return null;
+        Entry entry = cursor.next();
+        return entry.getPath().equals(path) ? entry : null;
+    }
+
+    /**
+     * @param directory path of a directory, e.g. {@code /a}, or "" for all entries
+     * @return the entries below the directory in listing order, the directory itself excluded
+     */
+    public Iterator<Entry> iterate(String directory) {
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        Cursor cursor = seek(key);
+        return new Iterator<Entry>() {
+            Entry next = cursor != null ? advance() : null;
+
+            private Entry advance() {
+                if (!cursor.hasNext())
+                    return null;
+                Entry entry = cursor.next();
+                return entry.getPath().startsWith(prefix) ? entry : null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry next() {
+                if (next == null)
+                    throw new NoSuchElementException("End of snapshot reached for directory " + directory);
+                Entry entry = next;
+                next = advance();
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Entries of a single level, skipping the subtrees of directories by seeking past them. A directory only implied
+     * by the paths below it is returned as implicit entry with an mtime of {@link Long#MIN_VALUE}.
+     *
+     * @param directory path of a directory, e.g. {@code /a}, or "" for the top level
+     * @return the entries directly in the directory in listing order
+     */
+    public Iterator<Entry> children(String directory) {
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+        return new Iterator<Entry>() {
+            Cursor cursor = seek(prefix.getBytes(StandardCharsets.UTF_8));
+            // siblings like b.txt sort between a directory b and its subtree
+            final Set<String> listedDirectories = new HashSet<>();
+            Entry next = advance();
+
+            private Entry advance() {
+                while (cursor != null && cursor.hasNext()) {
+                    Entry entry = cursor.next();
+                    if (!entry.getPath().startsWith(prefix))
+                        return null;
+                    int slash = entry.getPath().indexOf('/', prefix.length());
+                    if (slash < 0) {
+                        if (entry.isDirectory())
+                            listedDirectories.add(entry.getPath());
+                        return entry;
+                    }
+                    // '0' follows '/', so this seeks past the subtree
+                    String child = entry.getPath().substring(0, slash);
+                    cursor = seek((child + "0").getBytes(StandardCharsets.UTF_8));
+                    if (!listedDirectories.remove(child))
+                        return new Entry(Type.DIRECTORY, child, 0, null, Long.MIN_VALUE);
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry next() {
+                if (next == null)
+                    throw new NoSuchElementException("End of snapshot reached for directory " + directory);
+                Entry entry = next;
+                next = advance();
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * @return a cursor positioned at the first entry not smaller than the key, null if there is none
+     */
+    private Cursor seek(byte[] key) {
+        // last block starting with a path not greater than the key
+        int low = 0, high = blocks - 1, block = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            Cursor first = new Cursor(blockOffset(middle), (long) middle * BLOCK_SIZE);
+            first.readPath();
+            if (compare(first.path, first.pathLength, key) <= 0) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        Cursor cursor = new Cursor(blocks == 0 ? indexOffset : blockOffset(block), (long) block * BLOCK_SIZE);
+        while (cursor.hasNext()) {
+            int position = cursor.position;
+            long index = cursor.index;
+            cursor.readPath();
+            if (compare(cursor.path, cursor.pathLength, key) >= 0) {
+                // decode this entry again, the shared prefix is still in the path buffer
+                cursor.position = position;
+                cursor.index = index;
+                return cursor;
+            }
+            cursor.skipAttributes();
+        }
+        return null;
+    }
+
+    private int blockOffset(int block) {
+        return (int) buffer.getLong(indexOffset + block * 8);
+    }
+
+    private static int compare(byte[] path, int length, byte[] key) {
+        for (int i = 0, end = Math.min(length, key.length); i < end; i++) {
+            int difference = (path[i] & 0xff) - (key[i] & 0xff);
+            if (difference != 0)
+                return difference;
+        }
+        return length - key.length;
+    }
+
+    /**
+     * @return amount of entries
+     */
+    public long size() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "ListingSnapshot{file=" + file + ", count=" + count + '}';
+    }
+
+    /**
+     * Decodes the entries from a block start on, reusing the path of the previous entry
+     */
+    private class Cursor {
+        int position;
+        long index;
+        byte[] path = new byte[256];
+        int pathLength;
+        int entryStart;
+
+        Cursor(int position, long index) {
+            this.position = position;
+            this.index = index;
+        }
+
+        boolean hasNext() {
+            return index < count;
+        }
+
+        void readPath() {
+            entryStart = position++;
+            int shared = (int) readVarint();
+            int suffix = (int) readVarint();
+            if (shared + suffix > path.length)
+                path = Arrays.copyOf(path, Math.max(2 * path.length, shared + suffix));
+            ((ByteBuffer) buffer.duplicate().position(position)).get(path, shared, suffix);
+            position += suffix;
+            pathLength = shared + suffix;
+        }
+
+        void skipAttributes() {
+            Type type = Type.values()[buffer.get(entryStart)];
+            readVarint();
+            if (type == Type.FILE) {
+                readVarint();
+                position += buffer.get(position) + 1;
+            }
+            index++;
+        }
+
+        Entry next() {
+            readPath();
+            Type type = Type.values()[buffer.get(entryStart)];
+            long mtime = unzigzag(readVarint());
+            long size = 0;
+            String md5 = null;
+            if (type == Type.FILE) {
+                size = readVarint();
+                int md5Length = buffer.get(position++);
+                if (md5Length > 0) {
+                    byte[] md5Bytes = new byte[md5Length];
+                    ((ByteBuffer) buffer.duplicate().position(position)).get(md5Bytes);
+                    md5 = Utils.encodeHex(md5Bytes);
+                    position += md5Length;
+                }
+            }
+            index++;
+            return new Entry(type, new String(path, 0, pathLength, StandardCharsets.UTF_8), size, md5, mtime);
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get(position++);
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0)
+                    return value;
+            }
+        }
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Writer implements Closeable {
+        private final OutputStream outputStream;
+        private final List<Long> blockOffsets = new ArrayList<>();
+        private long position = 0;
+        private long count = 0;
+        private byte[] previous = new byte[0];
+
+        Writer(OutputStream outputStream) throws IOException {
+            this.outputStream = outputStream;
+            writeInt(MAGIC);
+            writeInt(VERSION);
+        }
+
+        void add(Node node) throws IOException {
+            Entry entry = Entry.of(node);
+            byte[] path = entry.path.getBytes(StandardCharsets.UTF_8);
+            if (count > 0 && compare(previous, previous.length, path) >= 0)
+                throw new IllegalArgumentException("Nodes are not ordered by path: " + entry.path + " after " + new String(previous, StandardCharsets.UTF_8));
+
+            int shared = 0;
+            if (count % BLOCK_SIZE == 0) {
+                blockOffsets.add(position);
+            } else {
+                for (int end = Math.min(previous.length, path.length); shared < end && previous[shared] == path[shared]; )
+                    shared++;
+            }
+            write(entry.type.ordinal());
+            writeVarint(shared);
+            writeVarint(path.length - shared);
+            write(path, shared, path.length - shared);
+            writeVarint((entry.mtime << 1) ^ (entry.mtime >> 63));
+            if (entry.type == Type.FILE) {
+                writeVarint(entry.size);
+                byte[] md5 = entry.md5 == null ? new byte[0] : Utils.decodeHex(entry.md5);
+                write(md5.length);
+                write(md5, 0, md5.length);
+            }
+            previous = path;
+            count++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            long indexOffset = position;
+            for (long offset : blockOffsets)
+                writeLong(offset);
+            writeLong(indexOffset);
+            writeLong(count);
+            writeInt(blockOffsets.size());
+            writeInt(MAGIC);
+            outputStream.close();
+            if (position > Integer.MAX_VALUE)
+                throw new IOException("Listing snapshot exceeds 2 GiB");
+        }
+
+        private void write(int b) throws IOException {
+            outputStream.write(b);
+            position++;
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            outputStream.write(b, off, len);
+            position += len;
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void writeInt(int value) throws IOException {
+            for (int shift = 24; shift >= 0; shift -= 8)
+                write(value >>> shift);
+        }
+
+        private void writeLong(long value) throws IOException {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+    }
+
+    /**
+     * Node of a snapshot, detached from any {@link NetstorageService}
+     */
+    @Getter
+    public static class Entry {
+        final Type type;
+        // without trailing slash
+        final String path;
+        final long size;
+        final String md5;
+        final long mtime;
+
+        Entry(Type type, String path, long size, String md5, long mtime) {
+            this.type = type;
+            this.path = path;
+            this.size = size;
+            this.md5 = md5;
+            this.mtime = mtime;
+        }
+
+        /**
+         * @param node a listed node
+         * @return the entry the node is stored as
+         */
+        public static Entry of(Node node) {
+            // the path field has no trailing slash, unlike getPath() of directories
+            if (node instanceof NetstorageService.ListingDirectory) {
+                return new Entry(Type.DIRECTORY, node.path, 0, null, node.mtime);
+            } else if (node instanceof NetstorageService.File) {
+                NetstorageService.File file = (NetstorageService.File) node;
+                String md5 = file.getMd5() == null || file.getMd5().isEmpty() ? null : file.getMd5().toLowerCase();
+                return new Entry(Type.FILE, node.path, file.getSize(), md5, node.mtime);
+            } else if (node instanceof NetstorageService.Symlink) {
+                return new Entry(Type.SYMLINK, node.path, 0, null, node.mtime);
+            }
+            throw new IllegalArgumentException("Unsupported node " + node);
+        }
+
+        public boolean isDirectory() {
+            return type == Type.DIRECTORY;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "type=" + type +
+                    ", path='" + path + '\'' +
+                    ", size=" + size +
+                    ", md5='" + md5 + '\'' +
+                    ", mtime=" + mtime +
+                    '}';
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.akamai.netstorage.service;
 
 import com.akamai.netstorage.DefaultCredential;
 import com.akamai.netstorage.NetStorage;
+import com.akamai.netstorage.Utils;
 import com.akamai.netstorage.exception.*;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
@@ -16,9 +17,11 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.IllegalArgumentException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 /**
  * This class uses the akamai java netstorage API and adds functionality
@@ -27,8 +30,8 @@ public class NetstorageService {
     private static final Logger LOGGER = LoggerFactory.getLogger(NetstorageService.class);
 
     final MappingJackson2XmlHttpMessageConverter xmlConverter;
-    final ThreadPoolTaskExecutor listingExecutor;
-    final ThreadPoolTaskExecutor deletionExecutor;
+    final Executor listingExecutor;
+    final Executor deletionExecutor;
 
     final String netstorageHost;
     final String netstorageUser;
@@ -44,6 +47,20 @@ public class NetstorageService {
                              ThreadPoolTaskExecutor listingExecutor,
                              ThreadPoolTaskExecutor deletionExecutor,
                              MappingJackson2XmlHttpMessageConverter xmlConverter) {
+        this(netstorageHost, netstorageUser, netstorageKey, netstorageFolder, (Executor) listingExecutor, (Executor) deletionExecutor, xmlConverter);
+    }
+
+    /**
+     * Accepts any executor, e.g. a {@link ConcurrencyLimitedExecutor#virtualThreads(String, int)} to run listing,
+     * crawling and deletion on virtual threads.
+     */
+    public NetstorageService(String netstorageHost,
+                             String netstorageUser,
+                             String netstorageKey,
+                             String netstorageFolder, // aka CP-Code example: "/12345"
+                             Executor listingExecutor,
+                             Executor deletionExecutor,
+                             MappingJackson2XmlHttpMessageConverter xmlConverter) {
         this.netstorageHost = netstorageHost;
         this.netstorageUser = netstorageUser;
         this.netstorageKey = netstorageKey;
@@ -54,6 +71,13 @@ public class NetstorageService {
         this.xmlConverter = xmlConverter;
     }
 
+    /**
+     * @return the underlying NetStorage client, e.g. to adjust timeouts, circuit breaking or hedging
+     */
+    public NetStorage getNetStorage() {
+        return netStorage;
+    }
+
     /**
      * Resolves all entries of this given path without recursively fetching sub directories
      * If server responds with a resume entry, the returned iterable takes care of it and fires subsequent requests
@@ -112,7 +136,19 @@ public class NetstorageService {
 
     public Iterator<Node> listRaw(String directoryName, boolean explicitOnly) {
         String directory = (directoryName.endsWith("/") ? directoryName.substring(0, directoryName.length() - 1) : directoryName);
+        // only if its not the root directory, we need to provide "end" to limit results to the given directory
+        // (@see https://learn.akamai.com/en-us/webhelp/netstorage/netstorage-http-api-developer-guide/GUID-B02EF535-4A35-47B8-A81C-1088B6BCDEFA.html)
+        return listRange(directory, directory.length() > 0 ? directory + "0" : null, explicitOnly);
+    }
 
+    /**
+     * Lists all nodes ordered by path from start on up to end, e.g. a shard of a large directory.
+     *
+     * @param start path to start the listing at
+     * @param end   path to end the listing at, null for the end of the CP code
+     * @return an iterator of the nodes, requesting further pages on demand
+     */
+    public Iterator<Node> listRange(String start, String end, boolean explicitOnly) {
         Iterator<Node> nodesIterator = new Iterator<Node>() {
             NetstorageXML.Resume resume = null;
             Iterator<Node> nextBatch = getNextBatch();
@@ -126,13 +162,11 @@ public class NetstorageService {
                         }
                         additionalParams.put("start", resume.getStart());
                     }
-                    // only if its not the root directory, we need to provide "end" to limit results to the given directory
-                    // (@see https://learn.akamai.com/en-us/webhelp/netstorage/netstorage-http-api-developer-guide/GUID-B02EF535-4A35-47B8-A81C-1088B6BCDEFA.html)
-                    if (directory.length() > 0) {
-                        additionalParams.put("end", netstorageFolder + directory + "0");
+                    if (end != null) {
+                        additionalParams.put("end", netstorageFolder + end);
                     }
 
-                    InputStream list = netStorage.list(netstorageFolder + directory, additionalParams);
+                    InputStream list = netStorage.list(netstorageFolder + start, additionalParams);
 
                     NetstorageXML.NetstorageList netstorageList = xmlConverter.getObjectMapper().readerFor(NetstorageXML.NetstorageList.class).readValue(list);
                     resume = netstorageList.resume;
@@ -166,7 +200,7 @@ public class NetstorageService {
                         };
                     }
                 } catch (NetStorageException e) {
-                    LOGGER.warn("Some exception occurred while fetching directory {}", directory, e);
+                    LOGGER.warn("Some exception occurred while fetching directory {}", start, e);
                     throw e;
                 } catch (IOException e) {
                     LOGGER.error("Some IOException while reading input from netstorage.");
@@ -174,34 +208,6 @@ public class NetstorageService {
                 }
             }
 
-            private List<Node> fromNetstorageList(NetstorageXML.NetstorageList netstorageList) {
-                List<Node> nodes = new ArrayList<>();
-                for (NetstorageXML.File file : netstorageList.files) {
-                    String path = file.name.substring(netstorageFolder.length() - 1);
-                    String directory = path.substring(0, path.lastIndexOf('/') + 1);
-                    String fileName = path.substring(directory.length());
-
-                    switch (file.getType()) {
-                        case "dir": {
-                            nodes.add(new ListingDirectory(directory, fileName, false, file.getMtime()));
-                        }
-                        break;
-                        case "file": {
-                            nodes.add(new File(directory, fileName, file.getSize(), file.getMd5(), file.getMtime()));
-                        }
-                        break;
-                        case "symlink": {
-                            nodes.add(new Symlink(directory, fileName, null, 0));
-                        }
-                        break;
-                        default: {
-                            LOGGER.warn("Unrecognised netstorage type {}", file.getType());
-                        }
-                    }
-                }
-                return nodes;
-            }
-
             @Override
             public boolean hasNext() {
                 return nextBatch.hasNext();
@@ -210,7 +216,7 @@ public class NetstorageService {
             @Override
             public Node next() {
                 if (!hasNext()) {
-                    throw new NoSuchElementException("End of file listing reached for directory " + directory);
+                    throw new NoSuchElementException("End of file listing reached for directory " + start);
                 }
                 Node next = nextBatch.next();
                 if (!nextBatch.hasNext()) {
@@ -235,16 +241,86 @@ public class NetstorageService {
         Iterator<Node> nodesIterator = listRaw(directory, false);
 
         // build file structure as node tree
-        ListingDirectory root = new ListingDirectory(directory, false, new Date().getTime());
-        Map<String, Node> globalMapping = new HashMap<>();
+        ListingTreeBuilder builder = new ListingTreeBuilder(new ListingDirectory(directory, false, new Date().getTime()));
         while (nodesIterator.hasNext()) {
-            Node node = nodesIterator.next();
-            root.insert(node, globalMapping);
+            builder.add(nodesIterator.next());
         }
 
-        return root;
+        return builder.getRoot();
     }
 
+    /**
+     * Writes the listing of a directory to a {@link ListingSnapshot}, streamed without building the tree.
+     *
+     * @param directoryName directory to list, "" for the whole CP code
+     * @param file          the snapshot, replaced once complete
+     * @return amount of nodes written
+     */
+    public long snapshot(String directoryName, Path file) {
+        String directory = (directoryName.endsWith("/") ? directoryName.substring(0, directoryName.length() - 1) : directoryName);
+        return ListingSnapshot.write(listRaw(directory, false), file);
+    }
+
+    /**
+     * Indexes the paths below the directory from a single listing, e.g. for {@link #uploadIfAbsent(String, InputStream, ExistenceIndex)}.
+     *
+     * @param directoryName directory to index, "" for the whole CP code
+     * @param expectedPaths paths the index is sized for
+     * @return the index
+     */
+    public ExistenceIndex existenceIndex(String directoryName, long expectedPaths) {
+        ExistenceIndex existenceIndex = new ExistenceIndex(expectedPaths, ExistenceIndex.DEFAULT_FALSE_POSITIVE_RATE);
+        existenceIndex.addAll(listRaw(directoryName, false));
+        return existenceIndex;
+    }
+
+    /**
+     * Sums up bytes and files of every directory below the given one from its listing, see {@link DiskUsage}.
+     *
+     * @param directoryName directory to sum up, "" for the whole CP code
+     * @return the usage per directory
+     */
+    public DiskUsage diskUsage(String directoryName) {
+        return diskUsage(directoryName, DiskUsage.DEFAULT_SHARDS);
+    }
+
+    /**
+     * @param directoryName directory to sum up, "" for the whole CP code
+     * @param shards        amount of listings run in parallel on the listing executor
+     * @return the usage per directory
+     */
+    public DiskUsage diskUsage(String directoryName, int shards) {
+        return DiskUsage.compute(this, directoryName, shards, listingExecutor);
+    }
+
+
+    List<Node> fromNetstorageList(NetstorageXML.NetstorageList netstorageList) {
+        List<Node> nodes = new ArrayList<>();
+        for (NetstorageXML.File file : netstorageList.files) {
+            String path = file.name.substring(netstorageFolder.length() - 1);
+            String directory = path.substring(0, path.lastIndexOf('/') + 1);
+            String fileName = path.substring(directory.length());
+
+            switch (file.getType()) {
+                case "dir": {
+                    nodes.add(new ListingDirectory(directory, fileName, false, file.getMtime()));
+                }
+                break;
+                case "file": {
+                    nodes.add(new File(directory, fileName, file.getSize(), file.getMd5(), file.getMtime()));
+                }
+                break;
+                case "symlink": {
+                    nodes.add(new Symlink(directory, fileName, null, 0));
+                }
+                break;
+                default: {
+                    LOGGER.warn("Unrecognised netstorage type {}", file.getType());
+                }
+            }
+        }
+        return nodes;
+    }
 
     List<Node> fromStat(NetstorageXML.Stat stat) {
         if (stat == null) {
@@ -428,10 +504,61 @@ public class NetstorageService {
         netStorage.upload(netstorageFolder + path, inputStream);
     }
 
+    /**
+     * Uploads the stream unless the path exists. The existence is only confirmed with a stat if the index may contain
+     * the path, a path the index does not contain is uploaded right away.
+     *
+     * @param path           path of the file
+     * @param inputStream    content of the file, not read if the path exists
+     * @param existenceIndex paths known to exist, see {@link #existenceIndex(String, long)}, null stats every path
+     * @return true if uploaded, false if the path existed
+     */
+    public boolean uploadIfAbsent(String path, InputStream inputStream, ExistenceIndex existenceIndex) {
+        if (existenceIndex == null || existenceIndex.mightContain(path)) {
+            try {
+                stat(path);
+                return false;
+            } catch (FileNotFoundException e) {
+                LOGGER.debug("{} is absent, uploading", path);
+            }
+        }
+        upload(path, inputStream);
+        if (existenceIndex != null) {
+            existenceIndex.add(path);
+        }
+        return true;
+    }
+
     public InputStream download(String path) {
         return netStorage.download(netstorageFolder + path);
     }
 
+    /**
+     * Downloads a file to target while verifying it against the size and MD5 of a stat,
+     * see {@link NetStorage#download(String, java.io.File, byte[], Long, boolean)}
+     *
+     * @param path   file to download
+     * @param target local file, replaced if existing
+     * @param atomic write through a temp file and rename once verified
+     * @throws ChecksumMismatchException if the content does not match the stat
+     */
+    public void download(String path, Path target, boolean atomic) {
+        Node node = stat(path);
+        if (!(node instanceof File)) {
+            throw new IllegalArgumentException(path + " is not a file: " + node);
+        }
+        download((File) node, target, atomic);
+    }
+
+    /**
+     * Like {@link #download(String, Path, boolean)}, but verifies against the metadata of an already listed file
+     * and so saves the stat request
+     */
+    public void download(File file, Path target, boolean atomic) {
+        byte[] md5 = file.getMd5() == null || file.getMd5().isEmpty() ? null : Utils.decodeHex(file.getMd5());
+        netStorage.download(netstorageFolder + file.getPath(), target.toFile(), md5, file.getSize(), atomic);
+    }
+
     public void symlink(String path, String target) {
         netStorage.symlink(netstorageFolder + path, netstorageFolder + target);
     }
@@ -441,6 +568,7 @@ public class NetstorageService {
      */
     static class NetstorageXML {
         @JacksonXmlRootElement(localName = "list")
+        @Getter
         @ToString
         static class NetstorageList {
             @JacksonXmlElementWrapper(useWrapping = false)
@@ -671,43 +799,6 @@ public class NetstorageService {
             return fileCount;
         }
 
-        /**
-         * inserts the given node into the structure at the correct position
-         *
-         * @param node the node to be inserted
-         * @return the node the given node was inserted to
-         */
-        Node insert(Node node, Map<String, Node> globalMapping) {
-            if (!node.getDirectory().startsWith(getDirectory())) {
-                return null;
-            }
-
-            if (node.getDirectory().equals(getPath())) {
-                addChild(node);
-                return this;
-            } else {
-                Node childFound = globalMapping.get(node.getDirectory());
-                if (childFound instanceof ListingDirectory) {
-                    Node insert = ((ListingDirectory) childFound).insert(node, globalMapping);
-                    if (insert != null) {
-                        return insert;
-                    }
-                }
-            }
-            // we need to create implicit directories...
-
-            String directoryWithoutTrailingSlash = node.getDirectory().substring(0, node.getDirectory().length() - 1);
-            int beginIndex = directoryWithoutTrailingSlash.lastIndexOf("/") + 1;
-            String upperLevelDirectoryName = directoryWithoutTrailingSlash.substring(beginIndex);
-            String upperLevelDirectoryPath = node.getDirectory().substring(0, beginIndex);
-
-            ListingDirectory implicitDirectory = new ListingDirectory(upperLevelDirectoryPath, upperLevelDirectoryName, true, node.getMtime());
-            globalMapping.put(implicitDirectory.getPath(), implicitDirectory);
-            LOGGER.info("Creating directory {}", implicitDirectory);
-            implicitDirectory.insert(node, globalMapping);
-            return insert(implicitDirectory, globalMapping);
-        }
-
         public Collection<Node> getChildren() {
             return children;
         }
@@ -727,6 +818,70 @@ public class NetstorageService {
         }
     }
 
+    /**
+     * Builds the tree of a listing in a single pass. The list action returns the nodes ordered by path, so the
+     * directories from the root to the last node are kept on a stack: the next node closes the directories it is not
+     * part of and opens the missing ones, implicit if not listed. A closed directory is only opened again after
+     * siblings sorting between its name and its children, e.g. {@code b.txt} between {@code b} and {@code b/c}, which
+     * are the last children of the parent then. Nodes outside of the root are skipped.
+     */
+    class ListingTreeBuilder {
+        private final ListingDirectory root;
+        private final Deque<ListingDirectory> stack = new ArrayDeque<>();
+
+        ListingTreeBuilder(ListingDirectory root) {
+            this.root = root;
+            stack.push(root);
+        }
+
+        void add(Node node) {
+            String directory = node.getDirectory();
+            if (!directory.startsWith(root.getPath())) {
+                return;
+            }
+            while (!directory.startsWith(stack.peek().getPath())) {
+                stack.pop();
+            }
+
+            ListingDirectory parent = stack.peek();
+            for (int start = parent.getPath().length(), end; start < directory.length(); start = end + 1) {
+                end = directory.indexOf('/', start);
+                String name = directory.substring(start, end);
+                ListingDirectory child = findClosed(parent, name);
+                if (child == null) {
+                    child = new ListingDirectory(parent.getPath(), name, true, node.getMtime());
+                    LOGGER.debug("Creating directory {}", child);
+                    parent.addChild(child);
+                }
+                stack.push(child);
+                parent = child;
+            }
+
+            parent.addChild(node);
+            if (node instanceof ListingDirectory) {
+                stack.push((ListingDirectory) node);
+            }
+        }
+
+        private ListingDirectory findClosed(ListingDirectory parent, String name) {
+            List<Node> children = parent.children;
+            for (int i = children.size() - 1; i >= 0; i--) {
+                Node child = children.get(i);
+                if (child.getFile().equals(name)) {
+                    return child instanceof ListingDirectory ? (ListingDirectory) child : null;
+                }
+                if (!child.getFile().startsWith(name)) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        ListingDirectory getRoot() {
+            return root;
+        }
+    }
+
     @Getter
     public class Directory extends ListingDirectory {
         transient boolean childrenResolved = false;
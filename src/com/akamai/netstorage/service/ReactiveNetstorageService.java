@@ -0,0 +1,353 @@
+package com.akamai.netstorage.service;
+
+import com.akamai.builders.*;
+import com.akamai.netstorage.APIEventBean;
+import com.akamai.netstorage.CircuitBreaker;
+import com.akamai.netstorage.CircuitBreakerRegistry;
+import com.akamai.netstorage.ClockSkew;
+import com.akamai.netstorage.DefaultCredential;
+import com.akamai.netstorage.NetStorageCMSv35Signer;
+import com.akamai.netstorage.exception.*;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.reactive.ClientHttpRequest;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.lang.IllegalArgumentException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking counterpart of the {@link NetstorageService} based on the Spring WebFlux {@link WebClient}.
+ * Host, credentials, CP code, xml mapping and circuit breakers are taken from the given {@link NetstorageService}.
+ * <p>
+ * Listings are paginated on demand: the next page is requested only once the subscriber has consumed the previous
+ * one. Nothing is sent before subscription and every subscription signs and sends a new request.
+ */
+public class ReactiveNetstorageService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveNetstorageService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    final NetstorageService netstorageService;
+    final DefaultCredential credential;
+    final WebClient webClient;
+
+    // concurrent deletions per directory in quickDelete
+    private int deletionConcurrency = 32;
+
+    public ReactiveNetstorageService(NetstorageService netstorageService) {
+        this(netstorageService, WebClient.create());
+    }
+
+    public ReactiveNetstorageService(NetstorageService netstorageService, WebClient webClient) {
+        this.netstorageService = netstorageService;
+        this.credential = new DefaultCredential(netstorageService.netstorageHost, netstorageService.netstorageUser, netstorageService.netstorageKey);
+        this.webClient = webClient;
+    }
+
+    /**
+     * Reactive variant of {@link NetstorageService#listRaw(String, boolean)}: all entries below the given directory
+     * in the order NetStorage lists them, resume pages are fetched as demanded.
+     *
+     * @param directoryName directory to list, "" for the whole CP code
+     * @param explicitOnly  skips implicit directories if true
+     * @return the nodes below the given directory (the directory itself is not part of the response)
+     */
+    public Flux<Node> list(String directoryName, boolean explicitOnly) {
+        String directory = (directoryName.endsWith("/") ? directoryName.substring(0, directoryName.length() - 1) : directoryName);
+        return listPage(directory, null)
+                .expand(page -> page.resume == null ? Mono.empty() : listPage(directory, page.resume.getStart()))
+                // prefetch of a single page, so the next one is only requested once the current one is consumed
+                .concatMapIterable(netstorageService::fromNetstorageList, 1)
+                .filter(node -> !explicitOnly || !node.isImplicit());
+    }
+
+    private Mono<NetstorageService.NetstorageXML.NetstorageList> listPage(String directory, String start) {
+        Map<String, String> additionalParams = new HashMap<>();
+        if (start != null) {
+            additionalParams.put("start", start);
+        }
+        // only if its not the root directory, we need to provide "end" to limit results to the given directory
+        if (directory.length() > 0) {
+            additionalParams.put("end", netstorageService.netstorageFolder + directory + "0");
+        }
+        APIEventBean action = new APIEventList().withFormat("xml").withAdditionalParams(additionalParams);
+        return exchange("GET", netstorageService.netstorageFolder + directory, action, null, -1)
+                .flatMap(response -> response.bodyToMono(byte[].class))
+                .map(body -> readXml(body, NetstorageService.NetstorageXML.NetstorageList.class))
+                .doOnError(NetStorageException.class, e -> LOGGER.warn("Some exception occurred while fetching directory {}", directory, e));
+    }
+
+    /**
+     * Reactive variant of {@link NetstorageService#dir(String)}, resume pages are fetched as demanded.
+     *
+     * @param path path of a directory
+     * @return the nodes contained in the requested directory (the given directory is not part of the response)
+     */
+    public Flux<Node> dir(String path) {
+        return dirPage(path, null)
+                .expand(stat -> stat.resume == null ? Mono.empty() : dirPage(path, stat.resume.getStart()))
+                .concatMapIterable(netstorageService::fromStat, 1);
+    }
+
+    private Mono<NetstorageService.NetstorageXML.Stat> dirPage(String path, String start) {
+        Map<String, String> additionalParams = new HashMap<>();
+        if (start != null) {
+            additionalParams.put("start", start);
+        }
+        APIEventBean action = new APIEventDir().withFormat("xml").withAdditionalParams(additionalParams);
+        return exchange("GET", netstorageService.netstorageFolder + path, action, null, -1)
+                .flatMap(response -> response.bodyToMono(byte[].class))
+                .map(body -> readXml(body, NetstorageService.NetstorageXML.Stat.class))
+                .doOnError(NetStorageException.class, e -> LOGGER.warn("Some exception occurred while fetching path {}", path, e));
+    }
+
+    /**
+     * @param path netstorage path
+     * @return the node including implicit directories, {@link FileNotFoundException} if absent
+     */
+    public Mono<Node> stat(String path) {
+        Map<String, String> additionalParams = new HashMap<>();
+        additionalParams.put("implicit", "yes");
+        APIEventBean action = new APIEventStat().withFormat("xml").withAdditionalParams(additionalParams);
+        return exchange("GET", netstorageService.netstorageFolder + path, action, null, -1)
+                .flatMap(response -> response.bodyToMono(byte[].class))
+                .map(body -> readXml(body, NetstorageService.NetstorageXML.Stat.class))
+                .flatMap(stat -> {
+                    List<Node> nodes = netstorageService.fromStat(stat);
+                    return nodes.isEmpty() ? Mono.empty() : Mono.just(nodes.get(0));
+                });
+    }
+
+    /**
+     * @param path    target path
+     * @param content the file content, subscribed once the request is sent
+     * @param size    content length if known, null or negative for a chunked upload
+     */
+    public Mono<Void> upload(String path, Publisher<DataBuffer> content, Long size) {
+        APIEventBean action = new APIEventUpload().withMtime(new Date()).ofSize(size);
+        return exchange("PUT", netstorageService.netstorageFolder + path, action, BodyInserters.fromDataBuffers(content), size != null ? size : -1)
+                .flatMap(response -> response.bodyToMono(Void.class));
+    }
+
+    /**
+     * Uploads a local file, reading it with an {@link AsynchronousFileChannel}. The mtime of the local file is kept.
+     */
+    public Mono<Void> upload(String path, Path file) {
+        return Mono.fromCallable(() -> Files.readAttributes(file, BasicFileAttributes.class))
+                .onErrorMap(NoSuchFileException.class, e -> new LocalFileNotFoundException(String.format("Src file is not accessible %s", file), e))
+                .flatMap(attributes -> {
+                    APIEventBean action = new APIEventUpload()
+                            .withMtime(new Date(attributes.lastModifiedTime().toMillis()))
+                            .ofSize(attributes.size());
+                    Flux<DataBuffer> content = DataBufferUtils.readAsynchronousFileChannel(
+                            () -> AsynchronousFileChannel.open(file, StandardOpenOption.READ), new DefaultDataBufferFactory(), BUFFER_SIZE);
+                    return exchange("PUT", netstorageService.netstorageFolder + path, action, BodyInserters.fromDataBuffers(content), attributes.size());
+                })
+                .flatMap(response -> response.bodyToMono(Void.class));
+    }
+
+    /**
+     * @return the content as it arrives, every buffer has to be released by the subscriber
+     * (e.g. {@link DataBufferUtils#release(DataBuffer)})
+     */
+    public Flux<DataBuffer> download(String path) {
+        return exchange("GET", netstorageService.netstorageFolder + path, new APIEventDownload(), null, -1)
+                .flatMapMany(response -> response.bodyToFlux(DataBuffer.class));
+    }
+
+    /**
+     * Downloads to a local file (created or truncated) using an {@link AsynchronousFileChannel}.
+     */
+    public Mono<Void> download(String path, Path target) {
+        return Mono.using(
+                () -> AsynchronousFileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING),
+                channel -> DataBufferUtils.write(download(path), channel)
+                        .map(DataBufferUtils::release)
+                        .then(),
+                channel -> {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        LOGGER.warn("Could not close {}", target, e);
+                    }
+                });
+    }
+
+    /**
+     * Deletes the (empty!) directory or the file specified by path
+     * If you need to delete recursively use {@link #quickDelete(String)}
+     */
+    public Mono<Void> delete(String path) {
+        if (path == null) {
+            return Mono.error(new IllegalArgumentException("Path cannot be null"));
+        }
+        if (path.length() == 0) {
+            return Mono.error(new IllegalArgumentException("Deleting the whole netstorage bucket is disallowed currently! Please specify at least a first level folder to be deleted."));
+        }
+        return exchange("POST", netstorageService.netstorageFolder + path, new APIEventDelete(), null, -1)
+                .flatMap(response -> response.bodyToMono(Void.class))
+                .doOnError(NetStorageException.class, e -> LOGGER.error("Could not delete {}", path, e));
+    }
+
+    /**
+     * Deletes the content (recursively) within the given directory and deletes the directory itself in the end.
+     * Sub directories are listed with {@link #dir(String)} while their content is deleted, 404s are being ignored.
+     *
+     * @param path a directory or file
+     */
+    public Mono<Void> quickDelete(String path) {
+        return ignoreNotFound(stat(path).flatMap(this::deleteRecursively));
+    }
+
+    private Mono<Void> deleteRecursively(Node node) {
+        Mono<Void> deleteNode = ignoreNotFound(delete(node.getPath()));
+        if (!(node instanceof NetstorageService.ListingDirectory)) {
+            return deleteNode;
+        }
+        return ignoreNotFound(dir(node.getPath())
+                .flatMap(this::deleteRecursively, deletionConcurrency)
+                .then())
+                .then(node.isImplicit() ? Mono.empty() : deleteNode);
+    }
+
+    private static Mono<Void> ignoreNotFound(Mono<Void> mono) {
+        return mono.onErrorResume(FileNotFoundException.class, e -> {
+            LOGGER.info("404 while deleting {}", e.getMessage());
+            return Mono.empty();
+        });
+    }
+
+    /**
+     * Signs and sends the request once subscribed. Non 200 responses are drained and signaled as
+     * {@link NetStorageException}, transport errors as {@link ConnectionException}.
+     * <p>
+     * Every call records exactly one outcome at the circuit breaker of the host, if any: a success, an error, or, if the
+     * subscriber cancels first, {@link CircuitBreaker#releasePermission()} so a half-open probe is not lost.
+     */
+    Mono<ClientResponse> exchange(String method, String path, APIEventBean action,
+                                  BodyInserter<?, ? super ClientHttpRequest> body, long contentLength) {
+        return Mono.defer(() -> {
+            URL url = getNetstorageUri(path);
+            NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer(method, url, action);
+            signer.setClockSkew(netstorageService.getNetStorage().getClockSkew());
+            Map<String, String> signature = signer.computeHeaders(credential);
+            WebClient.RequestBodySpec request = webClient.method(HttpMethod.valueOf(method))
+                    .uri(toUri(url))
+                    .headers(headers -> {
+                        signature.forEach(headers::set);
+                        if (contentLength >= 0)
+                            headers.setContentLength(contentLength);
+                    });
+
+            Mono<ClientResponse> response = (body != null ? request.body(body) : request).exchange()
+                    .onErrorMap(e -> !(e instanceof NetStorageException), e -> new ConnectionException("Communication Error", e))
+                    .flatMap(this::validate);
+            CircuitBreaker circuitBreaker = getCircuitBreaker();
+            if (circuitBreaker == null)
+                return response;
+
+            circuitBreaker.acquirePermission();
+            // exactly one outcome per permission, a Mono may be cancelled after its value was signaled
+            AtomicBoolean recorded = new AtomicBoolean();
+            return response
+                    .doOnSuccess(clientResponse -> {
+                        if (recorded.compareAndSet(false, true))
+                            circuitBreaker.onSuccess();
+                    })
+                    .doOnError(e -> {
+                        if (recorded.compareAndSet(false, true))
+                            circuitBreaker.onError(e);
+                    })
+                    .doOnCancel(() -> {
+                        if (recorded.compareAndSet(false, true))
+                            circuitBreaker.releasePermission();
+                    });
+        });
+    }
+
+    private Mono<ClientResponse> validate(ClientResponse response) {
+        ClockSkew clockSkew = netstorageService.getNetStorage().getClockSkew();
+        long responseDate = response.headers().asHttpHeaders().getDate();
+        if (clockSkew != null && responseDate > 0)
+            clockSkew.update(responseDate);
+
+        int responseCode = response.rawStatusCode();
+        if (responseCode == HttpStatus.OK.value())
+            return Mono.just(response);
+
+        HttpStatus status = HttpStatus.resolve(responseCode);
+        NetStorageException exception = NetStorageException.from(responseCode, status != null ? status.getReasonPhrase() : null, response.headers().asHttpHeaders());
+        return response.bodyToMono(String.class)
+                .doOnNext(exception::setResponseBody)
+                .then(Mono.error(exception));
+    }
+
+    private CircuitBreaker getCircuitBreaker() {
+        CircuitBreakerRegistry circuitBreakerRegistry = netstorageService.getNetStorage().getCircuitBreakerRegistry();
+        return circuitBreakerRegistry != null ? circuitBreakerRegistry.forHost(credential.getHostname()) : null;
+    }
+
+    private URL getNetstorageUri(String path) {
+        try {
+            if (!path.startsWith("/")) path = "/" + path;
+            //force TLS connection
+            return new URL("HTTPS", credential.getHostname(), path);
+        } catch (MalformedURLException e) {
+            throw new com.akamai.netstorage.exception.IllegalArgumentException("This should never Happened! Protocols are locked to HTTPS and HTTP!", e);
+        }
+    }
+
+    private static URI toUri(URL url) {
+        try {
+            // the signature covers the raw path, the request line needs it encoded
+            return new URI("https", url.getHost(), url.getPath(), null);
+        } catch (URISyntaxException e) {
+            throw new com.akamai.netstorage.exception.IllegalArgumentException("Invalid path " + url.getPath(), e);
+        }
+    }
+
+    private <T> T readXml(byte[] body, Class<T> type) {
+        try {
+            return netstorageService.xmlConverter.getObjectMapper().readerFor(type).readValue(body);
+        } catch (IOException e) {
+            throw new DeserializationException("Deserialization problem.", e);
+        }
+    }
+
+    public int getDeletionConcurrency() {
+        return deletionConcurrency;
+    }
+
+    public void setDeletionConcurrency(int deletionConcurrency) {
+        if (deletionConcurrency <= 0)
+            throw new IllegalArgumentException("deletionConcurrency must be positive");
+        this.deletionConcurrency = deletionConcurrency;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.NetStorageCMSv35Signer.NetStorageType;
+import com.akamai.netstorage.exception.FileNotFoundException;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the HttpClientTransport
+ */
+public class HttpClientTransportTest {
+
+    private HttpServer server;
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+    private final Map<String, String> actions = new ConcurrentHashMap<>();
+    private NetStorage netStorage;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            actions.put(path, exchange.getRequestHeaders().getFirst("X-Akamai-ACS-Action"));
+            exchange.getResponseHeaders().add("Server", "Apache");
+            byte[] body;
+            int status = 200;
+            if (exchange.getRequestMethod().equals("PUT")) {
+                contents.put(path, exchange.getRequestBody().readAllBytes());
+                body = new byte[0];
+            } else if (contents.containsKey(path)) {
+                body = contents.get(path);
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (range != null) {
+                    int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                    body = Arrays.copyOfRange(body, offset, body.length);
+                    status = 206;
+                }
+            } else {
+                body = "<error>not found</error>".getBytes(StandardCharsets.UTF_8);
+                status = 404;
+            }
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.start();
+
+        netStorage = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1")) {
+            // NetStorage is HTTPS only, redirect to the local server
+            @Override
+            protected URL getNetstorageUri(String hostname, String path) {
+                try {
+                    return new URL("http", "localhost", server.getAddress().getPort(), path);
+                } catch (MalformedURLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        netStorage.setTransport(new HttpClientTransport());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testUploadAndDownload() throws Exception {
+        byte[] content = "Lorem ipsum dolor sit amet".getBytes(StandardCharsets.UTF_8);
+        assertTrue(netStorage.upload("/12345/a.txt", new ByteArrayInputStream(content), new Date(), (long) content.length, null, null, null, false));
+        assertArrayEquals(contents.get("/12345/a.txt"), content);
+        assertTrue(actions.get("/12345/a.txt").contains("action=upload"));
+
+        try (InputStream inputStream = netStorage.download("/12345/a.txt")) {
+            assertTrue(inputStream instanceof TransportResponse);
+            assertThat(((TransportResponse) inputStream).getContentLength(), is((long) content.length));
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8), is("Lorem ipsum dolor sit amet"));
+        }
+        contents.put("/", "<stat/>".getBytes(StandardCharsets.UTF_8));
+        assertThat(netStorage.getNetStorageType(), is(NetStorageType.FileStore));
+    }
+
+    @Test
+    public void testDownloadFromOffset() throws Exception {
+        contents.put("/12345/a.txt", "Lorem ipsum dolor sit amet".getBytes(StandardCharsets.UTF_8));
+
+        try (InputStream inputStream = netStorage.download("/12345/a.txt", 6)) {
+            assertThat(((TransportResponse) inputStream).getResponseCode(), is(206));
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8), is("ipsum dolor sit amet"));
+        }
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        try {
+            netStorage.download("/12345/missing.txt");
+            fail("FileNotFoundException expected");
+        } catch (FileNotFoundException e) {
+            assertThat(e.getResponseBody(), is("<error>not found</error>"));
+        }
+    }
+}
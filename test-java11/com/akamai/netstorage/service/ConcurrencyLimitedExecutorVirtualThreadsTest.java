@@ -0,0 +1,70 @@
+package com.akamai.netstorage.service;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the virtual threads of the ConcurrencyLimitedExecutor, skipped before JDK 21
+ */
+public class ConcurrencyLimitedExecutorVirtualThreadsTest {
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ConcurrencyLimitedExecutor.isVirtualThreadsSupported());
+    }
+
+    @Test
+    public void testRunsLimitedOnVirtualThreads() throws Exception {
+        try (ConcurrencyLimitedExecutor executor = ConcurrencyLimitedExecutor.virtualThreads("netstorage-test-", 3)) {
+            CountDownLatch done = new CountDownLatch(20);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            Set<String> threadNames = ConcurrentHashMap.newKeySet();
+            for (int i = 0; i < 20; i++) {
+                executor.execute(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    threadNames.add(Thread.currentThread().getName());
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                });
+            }
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertTrue(maxRunning.get() <= 3);
+            // a new virtual thread per task
+            assertThat(threadNames.size(), is(20));
+            assertTrue(threadNames.stream().allMatch(name -> name.startsWith("netstorage-test-")));
+        }
+    }
+
+    @Test
+    public void testCloseShutsDownVirtualThreads() throws Exception {
+        ConcurrencyLimitedExecutor executor = ConcurrencyLimitedExecutor.virtualThreads("netstorage-test-", 1);
+        executor.close();
+
+        assertTrue(((ExecutorService) executor.getDelegate()).isShutdown());
+        try {
+            executor.execute(() -> { });
+            fail("A closed executor must not accept tasks");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+}
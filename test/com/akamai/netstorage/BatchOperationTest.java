@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.builders.APIEventStat;
+import com.akamai.netstorage.exception.FileNotFoundException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the batch operations of NetStorage
+ */
+public class BatchOperationTest {
+
+    @Test
+    public void testMethodIsDerivedFromAction() throws Exception {
+        assertThat(BatchOperation.mtime("/foobar", new Date()).getMethod(), is("PUT"));
+        assertThat(BatchOperation.delete("/foobar").getMethod(), is("POST"));
+        assertThat(new BatchOperation("/foobar", new APIEventStat()).getMethod(), is("GET"));
+    }
+
+    @Test
+    public void testBatchCollectsFailures() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1")) {
+            @Override
+            protected InputStream executeRequest(String hostname, String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                    if (path.endsWith("13"))
+                        throw new FileNotFoundException("Not Found");
+                    return new ByteArrayInputStream(new byte[0]);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+
+        List<BatchOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            operations.add(BatchOperation.mtime("/foobar/" + i, new Date()));
+
+        BatchResult result = ns.batch(operations, 4);
+
+        assertThat(result.getItems().size(), is(100));
+        assertThat(result.getSuccessCount(), is(99));
+        assertFalse(result.isSuccessful());
+        assertThat(result.getFailures().get(0).getOperation().getPath(), is("/foobar/13"));
+        assertTrue(result.getFailures().get(0).getException() instanceof FileNotFoundException);
+        assertThat(result.getItems().get(42).getOperation(), is(operations.get(42)));
+        assertTrue(maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void testBatchRecordsUnexpectedExceptionsAndRunsOnExecutor() throws Exception {
+        Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1")) {
+            @Override
+            protected InputStream executeRequest(String hostname, String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) {
+                threadNames.add(Thread.currentThread().getName());
+                if (path.endsWith("/7"))
+                    throw new IllegalStateException("Unexpected");
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+        AtomicInteger executed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> new Thread(runnable, "test-batch"));
+        try {
+            ns.setBatchExecutor(runnable -> {
+                executed.incrementAndGet();
+                executor.execute(runnable);
+            });
+
+            List<BatchOperation> operations = new ArrayList<>();
+            for (int i = 0; i < 20; i++)
+                operations.add(BatchOperation.mtime("/foobar/" + i, new Date()));
+            BatchResult result = ns.batch(operations, 3);
+
+            assertThat(result.getItems().size(), is(20));
+            for (BatchResult.Item item : result.getItems())
+                assertNotNull(item);
+            assertThat(result.getSuccessCount(), is(19));
+            assertThat(result.getFailures().get(0).getOperation().getPath(), is("/foobar/7"));
+            assertTrue(result.getFailures().get(0).getException().getCause() instanceof IllegalStateException);
+        } finally {
+            executor.shutdownNow();
+        }
+        // the calling thread is one of the workers
+        assertThat(executed.get(), is(2));
+        assertTrue(threadNames.stream().allMatch(name -> name.equals("test-batch") || name.equals(Thread.currentThread().getName())));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the BufferPool
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void testReleasedBufferIsReused() throws Exception {
+        BufferPool pool = new BufferPool(16, 2);
+        byte[] buffer = pool.acquire();
+        assertThat(buffer.length, is(16));
+
+        pool.release(buffer);
+        assertThat(pool.getPooledCount(), is(1));
+        assertSame(buffer, pool.acquire());
+        assertThat(pool.getPooledCount(), is(0));
+    }
+
+    @Test
+    public void testPoolIsBounded() throws Exception {
+        BufferPool pool = new BufferPool(16, 2);
+        pool.release(pool.acquire());
+        pool.release(new byte[16]);
+        pool.release(new byte[16]);
+        assertThat(pool.getPooledCount(), is(2));
+
+        // foreign sizes are dropped
+        pool.acquire();
+        pool.release(new byte[8]);
+        assertThat(pool.getPooledCount(), is(1));
+    }
+}
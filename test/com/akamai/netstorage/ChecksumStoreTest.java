@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ChecksumStore
+ */
+public class ChecksumStoreTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("checksums");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (java.util.stream.Stream<Path> files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testChangedFileIsUnknown() throws Exception {
+        File file = Files.write(directory.resolve("a.txt"), "Lorem ipsum".getBytes("UTF-8")).toFile();
+        byte[] sha256 = sha256(1);
+        try (ChecksumStore store = new ChecksumStore(directory.resolve("store"))) {
+            assertNull(store.get(ChecksumStore.key(file)));
+            store.put(ChecksumStore.key(file), sha256);
+            assertArrayEquals(sha256, store.get(ChecksumStore.key(file)));
+
+            Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() + 2000));
+            assertNull(store.get(ChecksumStore.key(file)));
+
+            store.put(ChecksumStore.key(file), sha256);
+            store.remove(ChecksumStore.key(file));
+            assertNull(store.get(ChecksumStore.key(file)));
+            assertThat(store.size(), is(1));
+        }
+    }
+
+    @Test
+    public void testGrowAndReopen() throws Exception {
+        File[] files = new File[3000];
+        try (ChecksumStore store = new ChecksumStore(directory.resolve("store"))) {
+            for (int i = 0; i < files.length; i++) {
+                files[i] = Files.write(directory.resolve(i + ".txt"), new byte[]{(byte) i}).toFile();
+                store.put(ChecksumStore.key(files[i]), sha256(i));
+            }
+        }
+
+        try (ChecksumStore store = new ChecksumStore(directory.resolve("store"))) {
+            assertThat(store.size(), is(files.length));
+            for (int i = 0; i < files.length; i++)
+                assertArrayEquals(sha256(i), store.get(ChecksumStore.key(files[i])));
+        }
+    }
+
+    @Test
+    public void testInvalidStoreIsReplaced() throws Exception {
+        Path file = Files.write(directory.resolve("store"), "no store".getBytes("UTF-8"));
+        try (ChecksumStore store = new ChecksumStore(file)) {
+            assertThat(store.size(), is(0));
+        }
+    }
+
+    private static byte[] sha256(int value) {
+        byte[] sha256 = new byte[32];
+        Arrays.fill(sha256, (byte) value);
+        return sha256;
+    }
+}
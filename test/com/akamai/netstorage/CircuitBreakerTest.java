@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.CircuitBreakerOpenException;
+import com.akamai.netstorage.exception.ConnectionException;
+import com.akamai.netstorage.exception.FileNotFoundException;
+import com.akamai.netstorage.exception.UnspecificNetstorageException;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the CircuitBreaker
+ */
+public class CircuitBreakerTest {
+
+    private static class ManualClockCircuitBreaker extends CircuitBreaker {
+        long now = 0;
+
+        ManualClockCircuitBreaker(CircuitBreaker.Config config) {
+            super("www.example.com", config);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private static CircuitBreaker.Config createConfig() {
+        CircuitBreaker.Config config = new CircuitBreaker.Config();
+        config.setSlidingWindowSize(4);
+        config.setMinimumNumberOfCalls(4);
+        config.setFailureRateThreshold(50);
+        config.setWaitDurationInOpenState(1000);
+        config.setPermittedCallsInHalfOpenState(2);
+        return config;
+    }
+
+    @Test
+    public void testTripsOnFailureRate() throws Exception {
+        ManualClockCircuitBreaker circuitBreaker = new ManualClockCircuitBreaker(createConfig());
+
+        circuitBreaker.onSuccess();
+        circuitBreaker.onError(new ConnectionException("reset"));
+        circuitBreaker.onSuccess();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.getFailureRate(), is(-1f));
+
+        circuitBreaker.onError(new UnspecificNetstorageException(503, "Service Unavailable"));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+
+        try {
+            circuitBreaker.acquirePermission();
+            fail("Open circuit breaker must not grant permissions");
+        } catch (CircuitBreakerOpenException e) {
+            assertThat(e.getMessage(), is("Circuit breaker for www.example.com is open"));
+        }
+    }
+
+    @Test
+    public void testClientErrorsAreNoFailures() throws Exception {
+        ManualClockCircuitBreaker circuitBreaker = new ManualClockCircuitBreaker(createConfig());
+
+        for (int i = 0; i < 10; i++) {
+            circuitBreaker.onError(new FileNotFoundException("Not Found"));
+            circuitBreaker.onError(new UnspecificNetstorageException(409, "Conflict"));
+        }
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.getFailureRate(), is(0f));
+    }
+
+    @Test
+    public void testHalfOpenProbesClose() throws Exception {
+        ManualClockCircuitBreaker circuitBreaker = new ManualClockCircuitBreaker(createConfig());
+        for (int i = 0; i < 4; i++)
+            circuitBreaker.onError(new ConnectionException("reset"));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+
+        circuitBreaker.now = 1000;
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        circuitBreaker.acquirePermission();
+        circuitBreaker.acquirePermission();
+        try {
+            circuitBreaker.acquirePermission();
+            fail("Only two probes are permitted");
+        } catch (CircuitBreakerOpenException e) {
+            // expected
+        }
+
+        circuitBreaker.onSuccess();
+        circuitBreaker.onSuccess();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void testHalfOpenFailureReopens() throws Exception {
+        ManualClockCircuitBreaker circuitBreaker = new ManualClockCircuitBreaker(createConfig());
+        for (int i = 0; i < 4; i++)
+            circuitBreaker.onError(new ConnectionException("reset"));
+
+        circuitBreaker.now = 1000;
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onError(new ConnectionException("reset"));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+
+        circuitBreaker.now = 1999;
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void testReleasedProbeIsNotRecorded() throws Exception {
+        ManualClockCircuitBreaker circuitBreaker = new ManualClockCircuitBreaker(createConfig());
+        for (int i = 0; i < 4; i++)
+            circuitBreaker.onError(new ConnectionException("reset"));
+
+        circuitBreaker.now = 1000;
+        circuitBreaker.acquirePermission();
+        circuitBreaker.acquirePermission();
+        circuitBreaker.releasePermission();
+        circuitBreaker.acquirePermission();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+
+        circuitBreaker.onSuccess();
+        circuitBreaker.onSuccess();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void testNetStorageReleasesProbeOnUnexpectedException() throws Exception {
+        CircuitBreaker.Config config = createConfig();
+        config.setWaitDurationInOpenState(0);
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1")) {
+            @Override
+            protected InputStream executeRequest(String hostname, String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) {
+                throw new IllegalStateException("unexpected");
+            }
+        };
+        ns.setCircuitBreakerRegistry(new CircuitBreakerRegistry(config));
+        CircuitBreaker circuitBreaker = ns.getCircuitBreakerRegistry().forHost("www.example.com");
+        for (int i = 0; i < 4; i++)
+            circuitBreaker.onError(new ConnectionException("reset"));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+
+        // more calls than probes are permitted, none of them may keep its permission
+        for (int i = 0; i < 3; i++) {
+            try {
+                ns.stat("/breaker");
+                fail("IllegalStateException must be thrown");
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage(), is("unexpected"));
+            }
+        }
+        circuitBreaker.acquirePermission();
+        circuitBreaker.acquirePermission();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+    }
+
+    @Test
+    public void testNetStorageFailsFast() throws Exception {
+        URLStreamHandlerFactoryTest.init();
+        String path = "/breaker";
+
+        CircuitBreaker.Config config = createConfig();
+        config.setWaitDurationInOpenState(60000);
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.setCircuitBreakerRegistry(new CircuitBreakerRegistry(config));
+
+        for (int i = 0; i < 4; i++) {
+            HttpURLConnectionTest connection = URLStreamHandlerFactoryTest.addURLConnection(ns.getNetstorageUri(path));
+            connection.setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE);
+            try {
+                ns.stat(path);
+                fail("503 must be thrown");
+            } catch (UnspecificNetstorageException e) {
+                assertThat(e.getResponseCode(), is(503));
+            }
+        }
+
+        URLStreamHandlerFactoryTest.addURLConnection(ns.getNetstorageUri(path)).setResponseCode(HttpURLConnection.HTTP_OK);
+        try {
+            ns.stat(path);
+            fail("Circuit breaker must be open");
+        } catch (CircuitBreakerOpenException e) {
+            assertThat(ns.getCircuitBreakerRegistry().forHost("www.example.com").getState(), is(CircuitBreaker.State.OPEN));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.LocalDateException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ClockSkew
+ */
+public class ClockSkewTest {
+
+    @Test
+    public void testOffsetWithinToleranceIsKept() throws Exception {
+        ClockSkew clockSkew = new ClockSkew() {
+            @Override
+            protected long localTimeMillis() {
+                return 100000;
+            }
+        };
+        assertFalse(clockSkew.isMeasured());
+
+        clockSkew.update(99000);
+        assertTrue(clockSkew.isMeasured());
+        assertThat(clockSkew.getOffset(), is(0L));
+
+        clockSkew.update(160000);
+        assertThat(clockSkew.getOffset(), is(60500L));
+        assertThat(clockSkew.currentTimeMillis(), is(160500L));
+    }
+
+    @Test
+    public void testRejectedRequestIsRetriedOnce() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1")) {
+            @Override
+            protected InputStream executeRequest(String hostname, String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) {
+                if (requests.incrementAndGet() == 1)
+                    throw new LocalDateException("Local server Date is more than 30s out of sync with Remote server");
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+        assertTrue(ns.mkdir("/foobar"));
+        assertThat(requests.get(), is(2));
+    }
+
+    @Test(expected = LocalDateException.class)
+    public void testRejectedStreamUploadIsNotRetried() throws Exception {
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1")) {
+            @Override
+            protected InputStream executeRequest(String hostname, String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) {
+                throw new LocalDateException("Local server Date is more than 30s out of sync with Remote server");
+            }
+        };
+        ns.upload("/foobar", new ByteArrayInputStream(new byte[1]));
+    }
+}
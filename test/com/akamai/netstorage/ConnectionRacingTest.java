@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.Test;
+
+import java.net.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ConnectionRacing
+ */
+public class ConnectionRacingTest {
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong(1000);
+
+    private ConnectionRacing createConnectionRacing(InetAddress... addresses) {
+        return new ConnectionRacing() {
+            @Override
+            protected List<InetAddress> lookup(String hostname) {
+                lookups.incrementAndGet();
+                return Arrays.asList(addresses);
+            }
+
+            @Override
+            protected long currentTimeMillis() {
+                return now.get();
+            }
+        };
+    }
+
+    @Test
+    public void testLookupIsCached() throws Exception {
+        ConnectionRacing connectionRacing = createConnectionRacing(InetAddress.getByName("127.0.0.1"));
+        connectionRacing.resolve("www.example.com");
+        connectionRacing.resolve("www.example.com");
+        assertThat(lookups.get(), is(1));
+
+        now.addAndGet(connectionRacing.getDnsTtl());
+        connectionRacing.resolve("www.example.com");
+        assertThat(lookups.get(), is(2));
+    }
+
+    @Test
+    public void testAddressFamiliesAreInterleaved() throws Exception {
+        InetAddress v4a = InetAddress.getByName("192.0.2.1");
+        InetAddress v4b = InetAddress.getByName("192.0.2.2");
+        InetAddress v6a = InetAddress.getByName("2001:db8::1");
+        InetAddress v6b = InetAddress.getByName("2001:db8::2");
+        assertThat(ConnectionRacing.interleave(Arrays.asList(v6a, v6b, v4a, v4b)), is(Arrays.asList(v6a, v4a, v6b, v4b)));
+    }
+
+    @Test
+    public void testBrokenAddressIsSkippedAndWinnerPinned() throws Exception {
+        InetAddress broken = InetAddress.getByName("127.0.0.2");
+        InetAddress working = InetAddress.getByName("127.0.0.1");
+        ConnectionRacing connectionRacing = createConnectionRacing(broken, working);
+
+        try (ServerSocket server = new ServerSocket(0, 50, working)) {
+            try (Socket socket = connectionRacing.createSocket()) {
+                socket.setSoTimeout(1234);
+                socket.connect(InetSocketAddress.createUnresolved("www.example.com", server.getLocalPort()), 5000);
+                assertTrue(socket.isConnected());
+                assertThat(socket.getInetAddress(), is(working));
+                assertThat(socket.getSoTimeout(), is(1234));
+            }
+        }
+        assertThat(connectionRacing.resolve("www.example.com"), is(Arrays.asList(working, broken)));
+        assertThat(connectionRacing.getRaces(), is(1L));
+    }
+
+    @Test
+    public void testOptionsAreAppliedBeforeConnect() throws Exception {
+        List<String> applied = new CopyOnWriteArrayList<>();
+        ConnectionRacing connectionRacing = new ConnectionRacing() {
+            @Override
+            protected List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                return Collections.singletonList(InetAddress.getByName("127.0.0.1"));
+            }
+
+            @Override
+            protected Socket newSocket() {
+                return new Socket() {
+                    @Override
+                    public void setReceiveBufferSize(int size) throws SocketException {
+                        applied.add("receiveBufferSize=" + size + ", connected=" + isConnected());
+                        super.setReceiveBufferSize(size);
+                    }
+
+                    @Override
+                    public void setSendBufferSize(int size) throws SocketException {
+                        applied.add("sendBufferSize=" + size + ", connected=" + isConnected());
+                        super.setSendBufferSize(size);
+                    }
+                };
+            }
+        };
+
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+             Socket socket = connectionRacing.createSocket()) {
+            // like the TransferTuner does, so the window scale is negotiated for them
+            socket.setReceiveBufferSize(256 * 1024);
+            socket.setSendBufferSize(256 * 1024);
+            socket.connect(InetSocketAddress.createUnresolved("www.example.com", server.getLocalPort()), 5000);
+            assertTrue(socket.isConnected());
+        }
+        assertThat(applied, is(Arrays.asList("receiveBufferSize=262144, connected=false", "sendBufferSize=262144, connected=false")));
+    }
+
+    @Test(expected = ConnectException.class)
+    public void testAllAddressesBroken() throws Exception {
+        ConnectionRacing connectionRacing = createConnectionRacing(InetAddress.getByName("127.0.0.2"), InetAddress.getByName("127.0.0.3"));
+        int port;
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+            port = server.getLocalPort();
+        }
+        try (Socket socket = connectionRacing.createSocket()) {
+            socket.connect(InetSocketAddress.createUnresolved("www.example.com", port), 5000);
+        }
+    }
+
+    @Test
+    public void testClosedFactoryDoesNotConnect() throws Exception {
+        ConnectionRacing connectionRacing = createConnectionRacing(InetAddress.getByName("127.0.0.1"));
+        connectionRacing.close();
+
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+             Socket socket = connectionRacing.createSocket()) {
+            socket.connect(InetSocketAddress.createUnresolved("www.example.com", server.getLocalPort()), 5000);
+            fail("A closed factory must not connect");
+        } catch (SocketException e) {
+            assertThat(e.getMessage(), is("Connection racing is closed"));
+        }
+    }
+}
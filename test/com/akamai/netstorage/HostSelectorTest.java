@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.ConnectionException;
+import com.akamai.netstorage.exception.FileNotFoundException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.*;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the HostSelector
+ */
+public class HostSelectorTest {
+
+    @Test
+    public void testLeastOutstandingIsSelected() throws Exception {
+        HostSelector hostSelector = new HostSelector(Arrays.asList("a.example.com", "b.example.com"));
+        String first = hostSelector.acquire(Collections.emptySet());
+        String second = hostSelector.acquire(Collections.emptySet());
+        assertNotEquals(first, second);
+
+        hostSelector.release(first, null);
+        assertThat(hostSelector.acquire(Collections.emptySet()), is(first));
+        assertThat(hostSelector.getOutstandingRequests().get(second), is(1));
+    }
+
+    @Test
+    public void testUnhealthyHostIsAvoided() throws Exception {
+        HostSelector hostSelector = new HostSelector(Arrays.asList("a.example.com", "b.example.com"));
+        hostSelector.release(hostSelector.acquire(Collections.singleton("b.example.com")), new ConnectionException("Communication Error", new ConnectException()));
+        assertFalse(hostSelector.isHealthy("a.example.com"));
+
+        for (int i = 0; i < 4; i++)
+            assertThat(hostSelector.acquire(Collections.emptySet()), is("b.example.com"));
+        // the unhealthy host is still used as last resort
+        assertThat(hostSelector.acquire(Collections.singleton("b.example.com")), is("a.example.com"));
+        assertNull(hostSelector.acquire(hostSelector.getHostnames()));
+    }
+
+    @Test
+    public void testIsFailover() throws Exception {
+        HostSelector hostSelector = new HostSelector(Collections.singletonList("a.example.com"));
+        assertTrue(hostSelector.isFailover(new ConnectionException("Communication Error", new ConnectException()), false));
+        assertFalse(hostSelector.isFailover(new ConnectionException("Communication Error", new SocketTimeoutException()), false));
+        assertTrue(hostSelector.isFailover(new ConnectionException("Communication Error", new SocketTimeoutException()), true));
+        assertFalse(hostSelector.isFailover(new FileNotFoundException("Not Found"), true));
+    }
+
+    @Test
+    public void testNetStorageFailsOver() throws Exception {
+        List<String> requested = new ArrayList<>();
+        NetStorage ns = new NetStorage(new DefaultCredential(Arrays.asList("a.example.com", "b.example.com"), "user1", "secret1")) {
+            @Override
+            protected InputStream executeRequest(String hostname, String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) {
+                requested.add(hostname);
+                if (hostname.equals("a.example.com"))
+                    throw new ConnectionException("Communication Error", new ConnectException("Connection refused"));
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+
+        for (int i = 0; i < 3; i++)
+            assertTrue(ns.upload("/foobar", new ByteArrayInputStream(new byte[1])));
+        // after the first connection error the unhealthy host is skipped
+        assertThat(requested.stream().filter("a.example.com"::equals).count(), is(1L));
+        assertThat(requested.stream().filter("b.example.com"::equals).count(), is(3L));
+    }
+}
@@ -16,6 +16,8 @@
 package com.akamai.netstorage;
 
 import com.akamai.builders.APIEventDownload;
+import com.akamai.netstorage.exception.AccessForbiddenException;
+import com.akamai.netstorage.exception.LocalDateException;
 import com.akamai.netstorage.exception.NetStorageException;
 import com.akamai.netstorage.exception.UnspecificNetstorageException;
 import org.junit.Rule;
@@ -32,6 +34,8 @@ import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 
@@ -180,6 +184,85 @@ public class NetStorageCMSv35SignerTest {
         assertTrue(netStorageCMSv35Signer.validate(httpURLConnection));
     }
 
+    @Test
+    public void testValidateDrainsErrorBody() throws Exception {
+        NetStorageCMSv35Signer netStorageCMSv35Signer = createAPIConnection();
+        HttpURLConnectionTest httpURLConnection = new HttpURLConnectionTest(netStorageCMSv35Signer.getUrl());
+        httpURLConnection.connect();
+        httpURLConnection.setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE);
+        httpURLConnection.setErrorBody("<HTML>Service Unavailable</HTML>".getBytes(StandardCharsets.UTF_8));
+
+        NetStorageException nse = null;
+        try {
+            netStorageCMSv35Signer.validate(httpURLConnection);
+        } catch (NetStorageException e) {
+            nse = e;
+        }
+        assertNotNull(nse);
+        assertThat(nse.getResponseBody(), is("<HTML>Service Unavailable</HTML>"));
+        assertTrue(httpURLConnection.getConnected());
+    }
+
+    @Test
+    public void testValidateDiscardsLargeErrorBody() throws Exception {
+        exception.expect(UnspecificNetstorageException.class);
+        NetStorageCMSv35Signer netStorageCMSv35Signer = createAPIConnection();
+        HttpURLConnectionTest httpURLConnection = new HttpURLConnectionTest(netStorageCMSv35Signer.getUrl());
+        httpURLConnection.connect();
+        httpURLConnection.setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE);
+        httpURLConnection.setErrorBody(new byte[NetStorageCMSv35Signer.MAX_ERROR_BODY_LENGTH + 1]);
+        try {
+            netStorageCMSv35Signer.validate(httpURLConnection);
+        } finally {
+            assertFalse(httpURLConnection.getConnected());
+        }
+    }
+
+    @Test
+    public void testCloseUnconsumedResponse() throws Exception {
+        NetStorageCMSv35Signer netStorageCMSv35Signer = createAPIConnection();
+        HttpURLConnectionTest small = URLStreamHandlerFactoryTest.addURLConnection(netStorageCMSv35Signer.getUrl());
+        small.setResponseCode(HttpURLConnection.HTTP_OK);
+        small.setResponseBody(new byte[100]);
+        netStorageCMSv35Signer.execute(new DefaultCredential("www.example.com", "user1", "secret1")).close();
+        assertTrue(small.getConnected());
+
+        HttpURLConnectionTest large = URLStreamHandlerFactoryTest.addURLConnection(netStorageCMSv35Signer.getUrl());
+        large.setResponseCode(HttpURLConnection.HTTP_OK);
+        large.setResponseBody(new byte[SignerInputStream.MAX_DRAIN_LENGTH + 1]);
+        netStorageCMSv35Signer.execute(new DefaultCredential("www.example.com", "user1", "secret1")).close();
+        assertFalse(large.getConnected());
+    }
+
+    @Test
+    public void testValidateLearnsClockSkew() throws Exception {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        long serverTime = System.currentTimeMillis() + 3600 * 1000;
+
+        NetStorageCMSv35Signer netStorageCMSv35Signer = createAPIConnection();
+        netStorageCMSv35Signer.setClockSkew(new ClockSkew());
+        HttpURLConnectionTest httpURLConnection = new HttpURLConnectionTest(netStorageCMSv35Signer.getUrl());
+        httpURLConnection.setResponseCode(HttpURLConnection.HTTP_FORBIDDEN);
+        httpURLConnection.getHeaderFields().put("Date", Collections.singletonList(dateFormat.format(new Date(serverTime))));
+
+        try {
+            netStorageCMSv35Signer.validate(httpURLConnection);
+            fail();
+        } catch (LocalDateException e) {
+            // expected, signed with the local clock
+        }
+        long offset = netStorageCMSv35Signer.getClockSkew().getOffset();
+        assertTrue(Math.abs(offset - 3600 * 1000) < 5000);
+        String authDataHeader = netStorageCMSv35Signer.getAuthDataHeaderValue(new DefaultCredential("www.example.com", "user1", "secret1"));
+        long signedTime = Long.parseLong(authDataHeader.split(", ")[3]) * 1000;
+        assertTrue(Math.abs(signedTime - serverTime) < 5000);
+
+        // now signed with the server clock, the response is taken as is
+        exception.expect(AccessForbiddenException.class);
+        netStorageCMSv35Signer.validate(httpURLConnection);
+    }
+
     @Test
     public void testExecuteOK() throws Exception {
         NetStorageCMSv35Signer netStorageCMSv35Signer = createAPIConnection();
@@ -15,17 +15,19 @@
  */
 package com.akamai.netstorage;
 
+import com.akamai.netstorage.exception.ChecksumMismatchException;
 import com.akamai.netstorage.exception.LocalFileNotFoundException;
 import org.junit.Test;
 
 import java.io.*;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 /**
  * Unit test class for the Netstorage wrapper
@@ -108,6 +110,67 @@ public class NetStorageTest {
         assertEquals(connection.getContentLength(), -1);
     }
 
+    @Test
+    public void testDownloadVerified() throws Exception {
+        String path = "/foobar";
+        byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
+        byte[] md5 = Utils.decodeHex("7d5efa77cfaaff5f18001612b426fe36");
+
+        NetStorage ns = createNetstorage(path);
+        URLStreamHandlerFactoryTest.getURLConnection(ns.getNetstorageUri(path)).setResponseBody(data);
+
+        File target = new File(Files.createTempDirectory("netstorage").toFile(), "foobar.txt");
+        try {
+            assertArrayEquals(ns.download(path, target, md5, 73L, true), md5);
+            assertArrayEquals(Files.readAllBytes(target.toPath()), data);
+            assertEquals(target.getParentFile().list().length, 1);
+        } finally {
+            target.delete();
+            target.getParentFile().delete();
+        }
+    }
+
+    @Test
+    public void testDownloadChecksumMismatch() throws Exception {
+        String path = "/foobar";
+        byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
+        byte[] existing = "existing".getBytes(StandardCharsets.UTF_8);
+
+        NetStorage ns = createNetstorage(path);
+        URLStreamHandlerFactoryTest.getURLConnection(ns.getNetstorageUri(path)).setResponseBody(data);
+
+        File target = new File(Files.createTempDirectory("netstorage").toFile(), "foobar.txt");
+        Files.write(target.toPath(), existing);
+        try {
+            ns.download(path, target, new byte[16], 73L, true);
+            fail("ChecksumMismatchException expected");
+        } catch (ChecksumMismatchException e) {
+            // the target is untouched and the temp file removed
+            assertArrayEquals(Files.readAllBytes(target.toPath()), existing);
+            assertEquals(target.getParentFile().list().length, 1);
+        } finally {
+            target.delete();
+            target.getParentFile().delete();
+        }
+    }
+
+    @Test
+    public void testDownloadFromOffset() throws Exception {
+        String path = "/foobar";
+        byte[] data = "Lorem ipsum dolor sit amet".getBytes(StandardCharsets.UTF_8);
+
+        NetStorage ns = createNetstorage(path);
+        HttpURLConnectionTest connection = URLStreamHandlerFactoryTest.getURLConnection(ns.getNetstorageUri(path));
+        // the server ignores the range and sends everything
+        connection.setResponseBody(data);
+
+        try (InputStream stream = ns.download(path, 6)) {
+            assertEquals(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)).readLine(), "ipsum dolor sit amet");
+        }
+        assertEquals(connection.getRequestHeaders().get("Range"), "bytes=6-");
+        assertEquals(connection.getRequestHeaders().get("X-Akamai-ACS-Action"), "action=download&version=1");
+    }
+
     @Test
     public void testDu() throws Exception {
         String path = "/foobar";
@@ -297,6 +360,40 @@ public class NetStorageTest {
         assertEquals(connection.getChunkedLength(), 1024 * 1024);
     }
 
+    @Test
+    public void testUploadFailsOverWhenConnectionRefused() throws Exception {
+        String path = "/failover.txt";
+        NetStorage ns = createNetstorage(path);
+        ns.setHostSelector(new HostSelector(Arrays.asList("refused.example.com", "www.example.com")));
+        HttpURLConnectionTest refused = URLStreamHandlerFactoryTest.addURLConnection(ns.getNetstorageUri("refused.example.com", path));
+        refused.setConnectFailure(new ConnectException("Connection refused"));
+        HttpURLConnectionTest connection = URLStreamHandlerFactoryTest.getURLConnection(ns.getNetstorageUri(path));
+        byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
+
+        // like a FileInputStream, unreadable once closed
+        InputStream stream = new FilterInputStream(new ByteArrayInputStream(data)) {
+            private volatile boolean closed = false;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (closed)
+                    throw new IOException("Stream closed");
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+            }
+        };
+
+        // of unknown size, so it is read ahead on another thread
+        ns.upload(path, stream, null, new Date(), null, null, null, null, false);
+        assertFalse(refused.getWasConnected());
+        assertEquals(((ByteArrayOutputStream) refused.getOutputStream()).size(), 0);
+        assertTrue(Arrays.equals(((ByteArrayOutputStream) connection.getOutputStream()).toByteArray(), data));
+    }
+
     @Test(expected = LocalFileNotFoundException.class)
     public void testUploadFile() throws Exception {
 
@@ -335,4 +432,39 @@ public class NetStorageTest {
                 tmpFile.delete();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUploadFileWithChecksumStore() throws Exception {
+        String path = "/foobar";
+        byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
+
+        File tmpFile = File.createTempFile(UUID.randomUUID().toString(), ".txt");
+        File storeFile = File.createTempFile(UUID.randomUUID().toString(), ".checksums");
+        try (ChecksumStore store = new ChecksumStore(storeFile.toPath())) {
+            try (FileOutputStream tmpOutputStream = new FileOutputStream(tmpFile)) {
+                tmpOutputStream.write(data);
+            }
+            // a stored checksum is used without reading the file
+            byte[] stored = new byte[32];
+            store.put(ChecksumStore.key(tmpFile), stored);
+
+            NetStorage ns = createNetstorage(path);
+            ns.setChecksumStore(store);
+            HttpURLConnectionTest connection = URLStreamHandlerFactoryTest.getURLConnection(ns.getNetstorageUri(path));
+            ns.upload(path, tmpFile);
+            assertTrue(connection.getRequestHeaders().get("X-Akamai-ACS-Action").contains("&sha256=" + Utils.encodeHex(stored) + "&"));
+
+            // a changed file is hashed again and recorded
+            tmpFile.setLastModified(tmpFile.lastModified() - 10000);
+            ns = createNetstorage(path);
+            ns.setChecksumStore(store);
+            connection = URLStreamHandlerFactoryTest.getURLConnection(ns.getNetstorageUri(path));
+            ns.upload(path, tmpFile);
+            assertTrue(connection.getRequestHeaders().get("X-Akamai-ACS-Action").contains("&sha256=4e8aecd6dc4c97ae55c30ef9b1e91b4829ef5871b16262b4628838a80dc0c2e2&"));
+            assertEquals(Utils.encodeHex(store.get(ChecksumStore.key(tmpFile))), "4e8aecd6dc4c97ae55c30ef9b1e91b4829ef5871b16262b4628838a80dc0c2e2");
+        } finally {
+            tmpFile.delete();
+            storeFile.delete();
+        }
+    }
+}
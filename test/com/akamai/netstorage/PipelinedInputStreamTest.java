@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the PipelinedInputStream
+ */
+public class PipelinedInputStreamTest {
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void testCopiesContent() throws Exception {
+        byte[] content = content(100000);
+        // a producer returning small pieces, like a pipe
+        InputStream source = new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 777));
+            }
+        };
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = new PipelinedInputStream(source, 4096, new BufferPool(1024, 8))) {
+            assertThat(input.read(), is(content[0] & 0xff));
+            byte[] buffer = new byte[3000];
+            for (int length; (length = input.read(buffer)) != -1; )
+                output.write(buffer, 0, length);
+        }
+        assertArrayEquals(output.toByteArray(), copyFrom(content, 1));
+    }
+
+    @Test
+    public void testBudgetLimitsReadAhead() throws Exception {
+        AtomicLong produced = new AtomicLong();
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                produced.incrementAndGet();
+                return 0;
+            }
+        };
+
+        try (PipelinedInputStream input = new PipelinedInputStream(endless, 4096, new BufferPool(1024, 8))) {
+            Thread.sleep(200);
+            // the queued buffers plus the one being filled
+            assertTrue(produced.get() <= 4096 + 1024);
+            assertTrue(input.getQueuedBytes() <= 4096);
+
+            input.read(new byte[1024]);
+            Thread.sleep(200);
+            assertTrue(produced.get() <= 2 * 4096 + 1024);
+        }
+    }
+
+    @Test
+    public void testFailureAfterContent() throws Exception {
+        InputStream failing = new InputStream() {
+            int count = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (count == 10)
+                    throw new IOException("Broken pipe");
+                return count++;
+            }
+        };
+
+        try (InputStream input = new PipelinedInputStream(failing, 4096, new BufferPool(1024, 8))) {
+            byte[] buffer = new byte[100];
+            int received = 0;
+            try {
+                for (int length; (length = input.read(buffer, received, buffer.length - received)) != -1; )
+                    received += length;
+                fail("IOException expected");
+            } catch (IOException e) {
+                assertThat(e.getMessage(), is("Broken pipe"));
+            }
+            assertThat(received, is(10));
+        }
+    }
+
+    private static byte[] copyFrom(byte[] content, int from) {
+        byte[] copy = new byte[content.length - from];
+        System.arraycopy(content, from, copy, 0, copy.length);
+        return copy;
+    }
+}
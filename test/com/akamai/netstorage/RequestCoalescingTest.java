@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.builders.APIEventDir;
+import com.akamai.builders.APIEventDownload;
+import com.akamai.builders.APIEventDu;
+import com.akamai.builders.APIEventList;
+import com.akamai.builders.APIEventMkDir;
+import com.akamai.builders.APIEventStat;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the RequestCoalescing
+ */
+public class RequestCoalescingTest {
+
+    @Test
+    public void testIsCoalesced() throws Exception {
+        RequestCoalescing coalescing = new RequestCoalescing();
+        assertTrue(coalescing.isCoalesced("GET", new APIEventStat()));
+        assertFalse(coalescing.isCoalesced("GET", new APIEventDownload()));
+        assertFalse(coalescing.isCoalesced("PUT", new APIEventMkDir()));
+        assertFalse(coalescing.isCoalesced("GET", new APIEventList()));
+        assertFalse(coalescing.isCoalesced("GET", new APIEventDu()));
+
+        // opt-in for actions with possibly large responses
+        coalescing.setCoalescedActions(new HashSet<>(Arrays.asList("stat", "list")));
+        assertTrue(coalescing.isCoalesced("GET", new APIEventList()));
+        assertFalse(coalescing.isCoalesced("GET", new APIEventDir()));
+    }
+
+    @Test
+    public void testNetStorageTypeWithCoalescing() throws Exception {
+        URLStreamHandlerFactoryTest.init();
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        for (String path : Arrays.asList("/", "/foobar")) {
+            HttpURLConnectionTest connection = URLStreamHandlerFactoryTest.addURLConnection(ns.getNetstorageUri(path));
+            connection.setResponseCode(HttpURLConnection.HTTP_OK);
+            connection.setResponseHeader("Server", "AkamaiNetStorage");
+        }
+        ns.setRequestCoalescing(new RequestCoalescing());
+
+        // the coalesced stat still answers the Server header
+        assertThat(ns.getNetStorageType(), is(NetStorageCMSv35Signer.NetStorageType.ObjectStore));
+        try (InputStream stream = ns.stat("/foobar")) {
+            assertThat(((TransportResponse) stream).getResponseCode(), is(HttpURLConnection.HTTP_OK));
+            assertThat(((TransportResponse) stream).getHeaderField("server"), is("AkamaiNetStorage"));
+        }
+    }
+
+    @Test
+    public void testConcurrentStatsShareOneRequest() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1")) {
+            @Override
+            protected InputStream executeRequest(String hostname, String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) {
+                requests.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new ByteArrayInputStream(path.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+        RequestCoalescing coalescing = new RequestCoalescing();
+        ns.setRequestCoalescing(coalescing);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> {
+                    try (InputStream stream = ns.stat("/foobar")) {
+                        byte[] buffer = new byte[64];
+                        return new String(buffer, 0, stream.read(buffer), StandardCharsets.UTF_8);
+                    }
+                }));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<String> future : futures)
+                assertThat(future.get(5, TimeUnit.SECONDS), is("/foobar"));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(requests.get(), is(1));
+        assertThat(coalescing.getCoalescedRequests(), is(3L));
+
+        // different paths are not coalesced
+        ns.stat("/other").close();
+        assertThat(requests.get(), is(2));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.builders.APIEventDownload;
+import com.akamai.builders.APIEventMkDir;
+import com.akamai.builders.APIEventStat;
+import com.akamai.netstorage.exception.ConnectionException;
+import com.akamai.netstorage.exception.FileNotFoundException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the RequestHedging
+ */
+public class RequestHedgingTest {
+
+    private static RequestHedging createHedging() {
+        RequestHedging hedging = new RequestHedging();
+        hedging.setMinimumSamples(5);
+        hedging.setMinimumDelay(0);
+        return hedging;
+    }
+
+    private static void warmUp(RequestHedging hedging, long latency) throws Exception {
+        for (int i = 0; i < 5; i++) {
+            hedging.execute(() -> {
+                Thread.sleep(latency);
+                return new ByteArrayInputStream(new byte[0]);
+            });
+        }
+    }
+
+    @Test
+    public void testIsHedged() throws Exception {
+        RequestHedging hedging = createHedging();
+        assertTrue(hedging.isHedged("GET", new APIEventStat()));
+        assertTrue(hedging.isHedged("GET", new APIEventDownload()));
+        assertFalse(hedging.isHedged("PUT", new APIEventMkDir()));
+    }
+
+    @Test
+    public void testNoHedgingWithoutSamples() throws Exception {
+        RequestHedging hedging = createHedging();
+        assertThat(hedging.getHedgeDelay(), is(-1L));
+        warmUp(hedging, 20);
+        assertTrue(hedging.getHedgeDelay() >= 20);
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() throws Exception {
+        RequestHedging hedging = createHedging();
+        warmUp(hedging, 10);
+
+        AtomicInteger calls = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        InputStream response = hedging.execute(() -> {
+            if (calls.incrementAndGet() == 1) {
+                Thread.sleep(5000);
+                return new ByteArrayInputStream("slow".getBytes());
+            }
+            return new ByteArrayInputStream("fast".getBytes());
+        });
+
+        assertThat(calls.get(), is(2));
+        assertThat(response.read(), is((int) 'f'));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testFastFailureIsNotHedged() throws Exception {
+        RequestHedging hedging = createHedging();
+        warmUp(hedging, 200);
+
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            hedging.execute(() -> {
+                calls.incrementAndGet();
+                throw new FileNotFoundException("Not Found");
+            });
+        } finally {
+            assertThat(calls.get(), is(1));
+        }
+    }
+
+    @Test
+    public void testLoserIsCancelled() throws Exception {
+        RequestHedging hedging = createHedging();
+        warmUp(hedging, 10);
+
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch aborted = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        InputStream response = hedging.execute(cancellation -> {
+            if (calls.incrementAndGet() == 1) {
+                // stands in for a connection waiting for the response headers
+                cancellation.onCancel(aborted::countDown);
+                if (aborted.await(5, TimeUnit.SECONDS))
+                    throw new ConnectionException("Disconnected");
+                return new ByteArrayInputStream("slow".getBytes());
+            }
+            return new ByteArrayInputStream("fast".getBytes());
+        });
+
+        assertThat(response.read(), is((int) 'f'));
+        assertTrue(aborted.await(1, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testLateFailureWaitsForHedge() throws Exception {
+        RequestHedging hedging = createHedging();
+        warmUp(hedging, 10);
+
+        AtomicInteger calls = new AtomicInteger();
+        InputStream response = hedging.execute(() -> {
+            if (calls.incrementAndGet() == 1) {
+                // fails after the hedge delay, while the hedge is in flight
+                Thread.sleep(100);
+                throw new ConnectionException("Connection reset");
+            }
+            Thread.sleep(300);
+            return new ByteArrayInputStream("hedge".getBytes());
+        });
+
+        assertThat(calls.get(), is(2));
+        assertThat(response.read(), is((int) 'h'));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.ConnectionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ResumableTransfer
+ */
+public class ResumableTransferTest {
+
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    // bytes of the next content download after which the connection breaks, -1 for none
+    private volatile long breakAfter = -1;
+    private volatile String breakUpload = null;
+    private NetStorage netStorage;
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("netstorage-transfer");
+        netStorage = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1")) {
+            @Override
+            protected InputStream executeRequest(String hostname, String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) {
+                String range = acsParams.getRequestHeaders() != null ? acsParams.getRequestHeaders().get("Range") : null;
+                requests.add(acsParams.getAction() + " " + path + (range != null ? " " + range : ""));
+                if (acsParams.getAction().equals("upload")) {
+                    if (path.equals(breakUpload)) {
+                        breakUpload = null;
+                        throw new ConnectionException("Communication Error", new IOException("Connection reset"));
+                    }
+                    try {
+                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                        Utils.readToEnd(uploadStream, Long.MAX_VALUE, outputStream);
+                        contents.put(path, outputStream.toByteArray());
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                byte[] content = contents.get(path);
+                int offset = range != null ? Integer.parseInt(range.substring("bytes=".length(), range.length() - 1)) : 0;
+                // manifests are small and read in one go
+                long limit = path.endsWith(".manifest") ? -1 : breakAfter;
+                if (limit >= 0)
+                    breakAfter = -1;
+                return new FilterInputStream(new ByteArrayInputStream(content, offset, content.length - offset)) {
+                    long read = 0;
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (limit >= 0 && read >= limit)
+                            throw new IOException("Connection reset");
+                        int length = super.read(b, off, (int) Math.min(len, limit >= 0 ? limit - read : len));
+                        read += Math.max(length, 0);
+                        return length;
+                    }
+                };
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private static byte[] md5(byte[] content) {
+        return Utils.computeHash(new ByteArrayInputStream(content), Utils.HashAlgorithm.MD5);
+    }
+
+    private ResumableTransfer createTransfer() {
+        ResumableTransfer transfer = new ResumableTransfer(netStorage, directory.resolve("journal"));
+        transfer.setCheckpointInterval(100);
+        transfer.setRetryDelay(0);
+        return transfer;
+    }
+
+    @Test
+    public void testDownloadResumesAfterInterruption() throws Exception {
+        byte[] content = content(1000);
+        contents.put("/foobar", content);
+        breakAfter = 450;
+        File target = directory.resolve("foobar").toFile();
+
+        assertArrayEquals(createTransfer().download("/foobar", target, content.length, md5(content)), md5(content));
+
+        assertArrayEquals(Files.readAllBytes(target.toPath()), content);
+        assertThat(requests, is(Arrays.asList("download /foobar", "download /foobar bytes=450-")));
+        assertThat(directory.resolve("journal").toFile().list().length, is(0));
+        assertFalse(new File(target.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void testDownloadResumesFromJournal() throws Exception {
+        byte[] content = content(1000);
+        contents.put("/foobar", content);
+        File target = directory.resolve("foobar").toFile();
+
+        ResumableTransfer transfer = createTransfer();
+        transfer.setMaxAttempts(1);
+        breakAfter = 450;
+        try {
+            transfer.download("/foobar", target, content.length, md5(content));
+            fail("ConnectionException expected");
+        } catch (ConnectionException e) {
+            assertFalse(target.exists());
+        }
+
+        // e.g. after a restart
+        createTransfer().download("/foobar", target, content.length, md5(content));
+        assertArrayEquals(Files.readAllBytes(target.toPath()), content);
+        assertThat(requests.get(1), is("download /foobar bytes=450-"));
+    }
+
+    @Test
+    public void testSegmentedRoundTrip() throws Exception {
+        byte[] content = content(1000);
+        File source = directory.resolve("source").toFile();
+        Files.write(source.toPath(), content);
+        breakUpload = ResumableTransfer.getSegmentPath("/foobar", 1);
+
+        assertArrayEquals(createTransfer().uploadSegmented(source, "/foobar", 300), md5(content));
+
+        assertThat(contents.size(), is(5));
+        assertArrayEquals(contents.get(ResumableTransfer.getSegmentPath("/foobar", 3)), Arrays.copyOfRange(content, 900, 1000));
+        // only the broken segment is sent twice
+        assertThat(requests.size(), is(6));
+
+        File target = directory.resolve("target").toFile();
+        breakAfter = 150;
+        assertArrayEquals(createTransfer().downloadSegmented("/foobar", target), md5(content));
+        assertArrayEquals(Files.readAllBytes(target.toPath()), content);
+    }
+
+    @Test
+    public void testParallelSegmentedUpload() throws Exception {
+        byte[] content = content(1000);
+        File source = directory.resolve("source").toFile();
+        Files.write(source.toPath(), content);
+
+        ResumableTransfer transfer = createTransfer();
+        transfer.setParallelism(3);
+        assertArrayEquals(transfer.uploadSegmented(source, "/foobar", 100), md5(content));
+
+        assertThat(contents.size(), is(11));
+        for (int i = 0; i < 10; i++)
+            assertArrayEquals(contents.get(ResumableTransfer.getSegmentPath("/foobar", i)), Arrays.copyOfRange(content, i * 100, i * 100 + 100));
+    }
+}
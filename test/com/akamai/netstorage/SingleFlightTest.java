@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.exception.FileNotFoundException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the SingleFlight
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsAreCoalesced() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> singleFlight.execute("/foobar", () -> {
+                    calls.incrementAndGet();
+                    release.await();
+                    return "result";
+                })));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<String> future : futures)
+                assertThat(future.get(5, TimeUnit.SECONDS), is("result"));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(calls.get(), is(1));
+        assertThat(singleFlight.getInFlightCount(), is(0));
+
+        // nothing is cached
+        assertThat(singleFlight.execute("/foobar", () -> "next"), is("next"));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testExceptionIsRethrown() throws Exception {
+        new SingleFlight<String, String>().execute("/foobar", () -> {
+            throw new FileNotFoundException("Not Found");
+        });
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.Test;
+
+import javax.net.ssl.SSLSocketFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the TransferTuner
+ */
+public class TransferTunerTest {
+
+    private static final long MILLISECOND = 1000000;
+
+    @Test
+    public void testDefaultsUntilMeasured() throws Exception {
+        TransferTuner tuner = new TransferTuner();
+        assertThat(tuner.getSettings("www.example.com"), is(TransferTuner.DEFAULT_SETTINGS));
+
+        // too small to tell the throughput
+        tuner.recordLatency("www.example.com", 100 * MILLISECOND);
+        tuner.recordThroughput("www.example.com", 1000, MILLISECOND);
+        assertThat(tuner.getSettings("www.example.com"), is(TransferTuner.DEFAULT_SETTINGS));
+    }
+
+    @Test
+    public void testBuffersFollowBandwidthDelayProduct() throws Exception {
+        TransferTuner tuner = new TransferTuner();
+        // 100 ms at 10 MB/s: 1 MB in flight
+        tuner.recordLatency("www.example.com", 100 * MILLISECOND);
+        tuner.recordThroughput("www.example.com", 10000000, 1000 * MILLISECOND);
+
+        TransferTuner.Settings settings = tuner.getSettings("www.example.com");
+        assertThat(settings.getBufferSize(), is(2 * 1024 * 1024));
+        assertThat(settings.getChunkSize(), is(1024 * 1024));
+        assertThat(settings.getParallelism(), is(1));
+
+        // 100 ms at 200 MB/s: 20 MB in flight, more than a buffer may hold
+        tuner.recordThroughput("www.example.com", 1000000000, 2000 * MILLISECOND);
+        tuner.recordThroughput("www.example.com", 1000000000, 5000 * MILLISECOND);
+        settings = tuner.getSettings("www.example.com");
+        assertThat(settings.getBufferSize(), is(tuner.getMaxBufferSize()));
+        assertThat(settings.getChunkSize(), is(TransferTuner.MAX_CHUNK_SIZE));
+        assertTrue(settings.getParallelism() > 1);
+
+        // other hosts are not affected
+        assertThat(tuner.getSettings("other.example.com"), is(TransferTuner.DEFAULT_SETTINGS));
+    }
+
+    @Test
+    public void testRoundTripTimeFollowsDecreasesImmediately() throws Exception {
+        TransferTuner tuner = new TransferTuner();
+        tuner.recordLatency("www.example.com", 80 * MILLISECOND);
+        // e.g. including a handshake
+        tuner.recordLatency("www.example.com", 400 * MILLISECOND);
+        assertThat(tuner.getRoundTripTime("www.example.com"), is(120 * MILLISECOND));
+
+        tuner.recordLatency("www.example.com", 50 * MILLISECOND);
+        assertThat(tuner.getRoundTripTime("www.example.com"), is(50 * MILLISECOND));
+    }
+
+    @Test
+    public void testStateSurvivesRestart() throws Exception {
+        Path directory = Files.createTempDirectory("netstorage-tuner");
+        Path stateFile = directory.resolve("tuning.properties");
+        try {
+            TransferTuner tuner = new TransferTuner(stateFile);
+            tuner.recordLatency("www.example.com", 100 * MILLISECOND);
+            tuner.recordThroughput("www.example.com", 10000000, 1000 * MILLISECOND);
+
+            TransferTuner restarted = new TransferTuner(stateFile);
+            assertThat(restarted.getSettings("www.example.com"), is(tuner.getSettings("www.example.com")));
+            assertThat(restarted.getRoundTripTime("www.example.com"), is(100 * MILLISECOND));
+        } finally {
+            Files.deleteIfExists(stateFile);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testSocketFactoryAppliesBufferSize() throws Exception {
+        RecordingSocketFactory delegate = new RecordingSocketFactory();
+        TransferTuner tuner = new TransferTuner();
+        SSLSocketFactory factory = tuner.getSocketFactory("www.example.com", delegate);
+        // the same instance keeps the keep-alive connections reusable
+        assertSame(factory, tuner.getSocketFactory("www.example.com", delegate));
+
+        RecordingSocket socket = (RecordingSocket) factory.createSocket();
+        assertThat(socket.sendBufferSize, is(0));
+
+        tuner.recordLatency("www.example.com", 100 * MILLISECOND);
+        tuner.recordThroughput("www.example.com", 10000000, 1000 * MILLISECOND);
+        socket = (RecordingSocket) factory.createSocket();
+        assertThat(socket.sendBufferSize, is(2 * 1024 * 1024));
+        assertThat(socket.receiveBufferSize, is(2 * 1024 * 1024));
+    }
+
+    private static class RecordingSocket extends Socket {
+        int sendBufferSize;
+        int receiveBufferSize;
+
+        @Override
+        public synchronized void setSendBufferSize(int size) {
+            sendBufferSize = size;
+        }
+
+        @Override
+        public synchronized void setReceiveBufferSize(int size) {
+            receiveBufferSize = size;
+        }
+    }
+
+    private static class RecordingSocketFactory extends SSLSocketFactory {
+        @Override
+        public Socket createSocket() {
+            return new RecordingSocket();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) {
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) {
+            return new RecordingSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+            return new RecordingSocket();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) {
+            return new RecordingSocket();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) {
+            return new RecordingSocket();
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return new String[0];
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return new String[0];
+        }
+    }
+}
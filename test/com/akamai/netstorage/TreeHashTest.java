@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the TreeHash
+ */
+public class TreeHashTest {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("treehash", ".bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testLeavesAndRoot() throws Exception {
+        byte[] data = new byte[250];
+        new Random(42).nextBytes(data);
+        Files.write(file, data);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        TreeHash treeHash;
+        try {
+            treeHash = TreeHash.compute(file, Utils.HashAlgorithm.SHA256, 100, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        byte[] a = sha256(Arrays.copyOfRange(data, 0, 100));
+        byte[] b = sha256(Arrays.copyOfRange(data, 100, 200));
+        byte[] c = sha256(Arrays.copyOfRange(data, 200, 250));
+        assertEquals(3, treeHash.getLeaves().size());
+        assertArrayEquals(a, treeHash.getLeaves().get(0));
+        assertArrayEquals(b, treeHash.getLeaves().get(1));
+        assertArrayEquals(c, treeHash.getLeaves().get(2));
+        // the odd leaf is carried up unchanged
+        assertArrayEquals(sha256(concat(sha256(concat(a, b)), c)), treeHash.getRoot());
+    }
+
+    @Test
+    public void testFileHashInSamePass() throws Exception {
+        byte[] data = new byte[300 * 1024];
+        new Random(42).nextBytes(data);
+        Files.write(file, data);
+
+        // leaves of 100 KiB span several pooled buffers, the known leaf is taken as is
+        byte[] known = new byte[16];
+        TreeHash treeHash = TreeHash.compute(file, Utils.HashAlgorithm.MD5, 100 * 1024, Arrays.asList(null, known),
+                Utils.HashAlgorithm.MD5, Utils.HashAlgorithm.SHA256);
+
+        assertEquals(3, treeHash.getLeaves().size());
+        assertArrayEquals(md5(Arrays.copyOfRange(data, 0, 100 * 1024)), treeHash.getLeaves().get(0));
+        assertSame(known, treeHash.getLeaves().get(1));
+        assertArrayEquals(md5(Arrays.copyOfRange(data, 200 * 1024, 300 * 1024)), treeHash.getLeaves().get(2));
+        assertArrayEquals(md5(data), treeHash.getFileHash(Utils.HashAlgorithm.MD5));
+        assertArrayEquals(sha256(data), treeHash.getFileHash(Utils.HashAlgorithm.SHA256));
+        assertNull(treeHash.getFileHash(Utils.HashAlgorithm.SHA1));
+    }
+
+    @Test
+    public void testSingleLeafIsPlainHash() throws Exception {
+        byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes("UTF-8");
+        Files.write(file, data);
+
+        TreeHash treeHash = TreeHash.compute(file, Utils.HashAlgorithm.MD5);
+        assertEquals(1, treeHash.getLeaves().size());
+        assertEquals("7d5efa77cfaaff5f18001612b426fe36", Utils.encodeHex(treeHash.getRoot()));
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        TreeHash treeHash = TreeHash.compute(file, Utils.HashAlgorithm.MD5);
+        assertArrayEquals(Utils.computeHash(new ByteArrayInputStream(new byte[0]), Utils.HashAlgorithm.MD5), treeHash.getRoot());
+    }
+
+    private static byte[] md5(byte[] data) throws Exception {
+        return MessageDigest.getInstance("MD5").digest(data);
+    }
+
+    private static byte[] sha256(byte[] data) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
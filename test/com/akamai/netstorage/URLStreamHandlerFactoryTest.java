@@ -17,6 +17,7 @@ package com.akamai.netstorage;
 
 import java.io.*;
 import java.net.*;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -74,16 +75,24 @@ class HttpURLConnectionTest extends HttpURLConnection {
     private final Map<String, String> requestHeaders = new HashMap<>();
     private final Map<String, List<String>> responseHeaders = new HashMap<>();
     private final ByteArrayOutputStream requestStream = new ByteArrayOutputStream();
-    private final ByteArrayInputStream responseStream = new ByteArrayInputStream(new byte[]{});
+    private ByteArrayInputStream responseStream = new ByteArrayInputStream(new byte[]{});
+    private ByteArrayInputStream errorStream = null;
     private boolean wasConnected = false;
+    private IOException connectFailure = null;
 
 
     @Override
     public void connect() throws IOException {
+        if (this.connectFailure != null)
+            throw this.connectFailure;
         this.connected = true;
         this.wasConnected = true;
     }
 
+    public void setConnectFailure(IOException connectFailure) {
+        this.connectFailure = connectFailure;
+    }
+
     public boolean getConnected() {
         return this.connected;
     }
@@ -129,6 +138,23 @@ class HttpURLConnectionTest extends HttpURLConnection {
         this.responseCode = responseCode;
     }
 
+    public void setResponseHeader(String name, String value) {
+        this.responseHeaders.put(name, Collections.singletonList(value));
+    }
+
+    public void setResponseBody(byte[] responseBody) {
+        this.responseStream = new ByteArrayInputStream(responseBody);
+    }
+
+    public void setErrorBody(byte[] errorBody) {
+        this.errorStream = new ByteArrayInputStream(errorBody);
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return this.errorStream;
+    }
+
     @Override
     public String getHeaderField(String name) {
         String value = null;
@@ -20,6 +20,7 @@ import com.akamai.netstorage.parameter.Parameter;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -85,6 +86,25 @@ public class UtilsTest extends Utils {
         assertNull(Utils.computeHash(null, HashAlgorithm.MD5));
     }
 
+    @Test
+    public void testComputeHashes() throws Exception {
+        byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
+
+        Map<HashAlgorithm, byte[]> hashes = Utils.computeHashes(new ByteArrayInputStream(data), HashAlgorithm.MD5, HashAlgorithm.SHA1, HashAlgorithm.SHA256);
+        assertEquals(encodeHex(hashes.get(HashAlgorithm.MD5)), "7d5efa77cfaaff5f18001612b426fe36");
+        assertEquals(encodeHex(hashes.get(HashAlgorithm.SHA1)), "5efe96a4d243965e4edd3142d5ee061ab2f57055");
+        assertEquals(encodeHex(hashes.get(HashAlgorithm.SHA256)), "4e8aecd6dc4c97ae55c30ef9b1e91b4829ef5871b16262b4628838a80dc0c2e2");
+        assertNull(Utils.computeHashes(null, HashAlgorithm.MD5));
+    }
+
+    @Test
+    public void testDecodeHex() throws Exception {
+        byte[] data = "Lorem ipsum".getBytes(StandardCharsets.UTF_8);
+        assertNull(Utils.decodeHex(null));
+        assertArrayEquals(Utils.decodeHex("4c6f72656d20697073756d"), data);
+        assertArrayEquals(Utils.decodeHex("4C6F72656D20697073756D"), data);
+    }
+
     @Test
     public void testComputeKeyedHash() throws Exception {
         byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
@@ -166,4 +186,14 @@ public class UtilsTest extends Utils {
         assertEquals(stream.available(), 0);
 
     }
+
+    @Test
+    public void testReadToEndWithLimit() throws Exception {
+        byte[] data = "Lorem ipsum dolor sit amet".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        assertTrue(Utils.readToEnd(new ByteArrayInputStream(data), data.length, copy));
+        assertArrayEquals(data, copy.toByteArray());
+
+        assertFalse(Utils.readToEnd(new ByteArrayInputStream(data), data.length - 1, null));
+    }
 }
@@ -0,0 +1,194 @@
+package com.akamai.netstorage.autoconfigure;
+
+import com.akamai.netstorage.CircuitBreaker;
+import com.akamai.netstorage.CircuitBreakerRegistry;
+import com.akamai.netstorage.ConnectionRacing;
+import com.akamai.netstorage.NetStorage;
+import com.akamai.netstorage.exception.ConnectionException;
+import com.akamai.netstorage.service.NetstorageService;
+import com.akamai.netstorage.service.ReactiveNetstorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the NetstorageAutoConfiguration
+ */
+public class NetstorageAutoConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(NetstorageAutoConfiguration.class))
+            .withPropertyValues(
+                    "netstorage.host=example.akamaihd.net",
+                    "netstorage.user=user",
+                    "netstorage.key=key",
+                    "netstorage.folder=/12345");
+
+    @Configuration
+    static class UserConfiguration {
+
+        static final Executor LISTING_EXECUTOR = Runnable::run;
+
+        @Bean
+        public NetstorageService netstorageService() {
+            return new NetstorageService("user.akamaihd.net", "user", "key", "/54321",
+                    Runnable::run, Runnable::run, new MappingJackson2XmlHttpMessageConverter());
+        }
+
+        @Bean(name = NetstorageAutoConfiguration.LISTING_EXECUTOR)
+        public Executor netstorageListingExecutor() {
+            return LISTING_EXECUTOR;
+        }
+    }
+
+    @Test
+    public void testInactiveWithoutHost() throws Exception {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(NetstorageAutoConfiguration.class))
+                .run(context -> {
+                    assertNull(context.getStartupFailure());
+                    assertTrue(context.getBeansOfType(NetstorageService.class).isEmpty());
+                    assertTrue(context.getBeansOfType(NetstorageProperties.class).isEmpty());
+                });
+    }
+
+    @Test
+    public void testDefaults() throws Exception {
+        contextRunner.run(context -> {
+            assertNull(context.getStartupFailure());
+            NetStorage netStorage = context.getBean(NetstorageService.class).getNetStorage();
+            assertSame(netStorage.getCircuitBreakerRegistry(), context.getBean(CircuitBreakerRegistry.class));
+            assertNull(netStorage.getRequestHedging());
+            assertNull(netStorage.getRequestCoalescing());
+            assertNull(netStorage.getConnectionRacing());
+            assertTrue(context.getBeansOfType(ConnectionRacing.class).isEmpty());
+            assertNull(netStorage.getHostSelector());
+
+            ThreadPoolTaskExecutor listingExecutor = context.getBean(NetstorageAutoConfiguration.LISTING_EXECUTOR, ThreadPoolTaskExecutor.class);
+            assertThat(listingExecutor.getMaxPoolSize(), is(16));
+            assertThat(listingExecutor.getThreadNamePrefix(), is("netstorage-listing-"));
+            assertThat(context.getBean(NetstorageAutoConfiguration.DELETION_EXECUTOR, ThreadPoolTaskExecutor.class).getMaxPoolSize(), is(32));
+            assertNotNull(context.getBean(ReactiveNetstorageService.class));
+        });
+    }
+
+    @Test
+    public void testPropertyBinding() throws Exception {
+        contextRunner.withPropertyValues(
+                "netstorage.additional-hosts=other.akamaihd.net",
+                "netstorage.listing.max-pool-size=4",
+                "netstorage.listing.core-pool-size=2",
+                "netstorage.connection.connect-timeout=1000",
+                "netstorage.connection.read-timeout=2000",
+                "netstorage.connection.racing=true",
+                "netstorage.connection.dns-ttl=5000",
+                "netstorage.circuit-breaker.failure-rate-threshold=25",
+                "netstorage.hedging.enabled=true",
+                "netstorage.hedging.percentile=90",
+                "netstorage.coalescing.enabled=true",
+                "netstorage.coalescing.actions=stat")
+                .run(context -> {
+                    assertNull(context.getStartupFailure());
+                    NetStorage netStorage = context.getBean(NetstorageService.class).getNetStorage();
+                    assertThat(netStorage.getConnectTimeout(), is(1000));
+                    assertThat(netStorage.getReadTimeout(), is(2000));
+                    assertSame(netStorage.getConnectionRacing(), context.getBean(ConnectionRacing.class));
+                    assertThat(netStorage.getConnectionRacing().getDnsTtl(), is(5000L));
+                    assertNotNull(netStorage.getHostSelector());
+                    assertThat(netStorage.getCircuitBreakerRegistry().getConfig().getFailureRateThreshold(), is(25));
+                    assertThat(netStorage.getRequestHedging().getPercentile(), is(90));
+                    assertThat(netStorage.getRequestCoalescing().getCoalescedActions().size(), is(1));
+                    assertTrue(netStorage.getRequestCoalescing().getCoalescedActions().contains("stat"));
+
+                    ThreadPoolTaskExecutor listingExecutor = context.getBean(NetstorageAutoConfiguration.LISTING_EXECUTOR, ThreadPoolTaskExecutor.class);
+                    assertThat(listingExecutor.getCorePoolSize(), is(2));
+                    assertThat(listingExecutor.getMaxPoolSize(), is(4));
+                });
+    }
+
+    @Test
+    public void testCircuitBreakerDisabled() throws Exception {
+        contextRunner.withPropertyValues("netstorage.circuit-breaker.enabled=false").run(context -> {
+            assertNull(context.getStartupFailure());
+            assertTrue(context.getBeansOfType(CircuitBreakerRegistry.class).isEmpty());
+            assertNull(context.getBean(NetstorageService.class).getNetStorage().getCircuitBreakerRegistry());
+        });
+    }
+
+    @Test
+    public void testBacksOffFromUserBeans() throws Exception {
+        contextRunner.withUserConfiguration(UserConfiguration.class).run(context -> {
+            assertNull(context.getStartupFailure());
+            assertThat(context.getBeansOfType(NetstorageService.class).size(), is(1));
+            assertThat(context.getBean(NetstorageService.class).getNetStorage().getCredential().getHostname(), is("user.akamaihd.net"));
+            assertSame(context.getBean(NetstorageAutoConfiguration.LISTING_EXECUTOR), UserConfiguration.LISTING_EXECUTOR);
+            // beans the user did not define are still configured
+            assertTrue(context.getBean(NetstorageAutoConfiguration.DELETION_EXECUTOR) instanceof ThreadPoolTaskExecutor);
+        });
+    }
+
+    @Test
+    public void testHealthIndicator() throws Exception {
+        contextRunner.run(context -> {
+            assertNull(context.getStartupFailure());
+            NetstorageHealthIndicator healthIndicator = context.getBean(NetstorageHealthIndicator.class);
+            assertThat(healthIndicator.health().getStatus(), is(Status.UP));
+
+            CircuitBreaker circuitBreaker = context.getBean(CircuitBreakerRegistry.class).forHost("example.akamaihd.net");
+            for (int i = 0; i < 20; i++)
+                circuitBreaker.onError(new ConnectionException("reset"));
+            assertThat(healthIndicator.health().getStatus(), is(Status.DOWN));
+            assertThat(healthIndicator.health().getDetails().get("example.akamaihd.net"), is(CircuitBreaker.State.OPEN));
+        });
+
+        contextRunner.withPropertyValues("management.health.netstorage.enabled=false").run(context ->
+                assertTrue(context.getBeansOfType(NetstorageHealthIndicator.class).isEmpty()));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        contextRunner.run(context -> {
+            assertNull(context.getStartupFailure());
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            context.getBean(NetstorageMetrics.class).bindTo(registry);
+
+            context.getBean(CircuitBreakerRegistry.class).forHost("example.akamaihd.net");
+            assertThat(registry.get("netstorage.circuitbreaker.hosts").tag("state", "closed").gauge().value(), is(1.0));
+            assertNotNull(registry.get("executor.pool.size").tag("name", NetstorageAutoConfiguration.LISTING_EXECUTOR).gauge());
+            assertNotNull(registry.get("executor.pool.size").tag("name", NetstorageAutoConfiguration.DELETION_EXECUTOR).gauge());
+        });
+    }
+
+    @Test
+    public void testMaxIdleConnectionsIsOptIn() throws Exception {
+        String previous = System.getProperty("http.maxConnections");
+        System.clearProperty("http.maxConnections");
+        try {
+            contextRunner.run(context -> {
+                assertNull(context.getStartupFailure());
+                assertNull(System.getProperty("http.maxConnections"));
+            });
+
+            contextRunner.withPropertyValues("netstorage.connection.max-idle-connections-per-host=48").run(context -> {
+                assertNull(context.getStartupFailure());
+                assertThat(System.getProperty("http.maxConnections"), is("48"));
+            });
+        } finally {
+            if (previous != null)
+                System.setProperty("http.maxConnections", previous);
+            else
+                System.clearProperty("http.maxConnections");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.akamai.netstorage.service;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ConcurrencyLimitedExecutor
+ */
+public class ConcurrencyLimitedExecutorTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxConcurrencyMustBePositive() throws Exception {
+        new ConcurrencyLimitedExecutor(Runnable::run, 0);
+    }
+
+    @Test
+    public void testLimitsConcurrency() throws Exception {
+        ExecutorService delegate = Executors.newCachedThreadPool();
+        try (ConcurrencyLimitedExecutor executor = new ConcurrencyLimitedExecutor(delegate, 2)) {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(10);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            for (int i = 0; i < 10; i++) {
+                executor.execute(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                });
+            }
+
+            for (long deadline = System.currentTimeMillis() + 5000; executor.getWaitingCount() < 8 && System.currentTimeMillis() < deadline; )
+                Thread.sleep(10);
+            assertThat(executor.getActiveCount(), is(2));
+            assertThat(executor.getWaitingCount(), is(8));
+
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertThat(maxRunning.get(), is(2));
+            assertThat(executor.getActiveCount(), is(0));
+        }
+        // the delegate belongs to the caller
+        assertFalse(delegate.isShutdown());
+        delegate.shutdown();
+    }
+
+    @Test
+    public void testVirtualThreadsUnsupported() throws Exception {
+        Assume.assumeFalse(ConcurrencyLimitedExecutor.isVirtualThreadsSupported());
+        try {
+            ConcurrencyLimitedExecutor.virtualThreads("netstorage-", 2);
+            fail("Virtual threads must not be available before JDK 21");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(e.getMessage().startsWith("Virtual threads require JDK 21"));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.akamai.netstorage.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the DiskUsage
+ */
+public class DiskUsageTest {
+
+    private ExecutorService executor;
+    private NetstorageService service;
+    private List<Node> listing;
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(4);
+        service = new NetstorageService("example.akamaihd.net", "user", "key", "/12345", executor, executor, new MappingJackson2XmlHttpMessageConverter()) {
+            @Override
+            public Iterator<Node> listRange(String start, String end, boolean explicitOnly) {
+                ranges.add(start + ".." + end);
+                List<Node> nodes = new ArrayList<>();
+                for (Node node : listing)
+                    if (ListingDiff.PATH_ORDER.compare(node.path, start) >= 0 && ListingDiff.PATH_ORDER.compare(node.path, end) < 0)
+                        nodes.add(node);
+                return nodes.iterator();
+            }
+
+            @Override
+            public Iterator<Node> dir(String path) {
+                Map<String, Node> nodes = new LinkedHashMap<>();
+                for (Node node : listing) {
+                    if (!node.path.startsWith(path))
+                        continue;
+                    int slash = node.path.indexOf('/', path.length());
+                    if (slash < 0)
+                        nodes.put(node.path, node);
+                    else
+                        nodes.putIfAbsent(node.path.substring(0, slash), new Directory(path, node.path.substring(path.length(), slash), true, 0, 0, 0));
+                }
+                return nodes.values().iterator();
+            }
+        };
+
+        // ordered by path: "-" and "." sort before "/"
+        listing = Arrays.asList(
+                service.new ListingDirectory("/", "a", false, 1),
+                file("/a/", "1.txt", 1),
+                service.new ListingDirectory("/a/", "b", false, 1),
+                file("/a/", "b-c.txt", 10),
+                file("/a/b-d/", "2.txt", 100),
+                file("/a/", "b.txt", 1000),
+                file("/a/b/", "3.txt", 10000),
+                file("/a/b/c/d/", "4.txt", 100000),
+                service.new ListingDirectory("/a/", "e", false, 1),
+                file("/", "f.txt", 1000000),
+                file("/g/", "5.txt", 10000000));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEveryDirectoryIsSummedUp() throws Exception {
+        DiskUsage diskUsage = service.diskUsage("", 2);
+
+        assertThat(diskUsage.getTotal(), is(new DiskUsage.Usage(11111111, 8)));
+        assertThat(diskUsage.get("/a"), is(new DiskUsage.Usage(111111, 6)));
+        assertThat(diskUsage.get("/a/b/"), is(new DiskUsage.Usage(110000, 2)));
+        assertThat(diskUsage.get("/a/b-d"), is(new DiskUsage.Usage(100, 1)));
+        assertThat(diskUsage.get("/a/b/c"), is(new DiskUsage.Usage(100000, 1)));
+        assertThat(diskUsage.get("/a/e"), is(new DiskUsage.Usage(0, 0)));
+        assertThat(diskUsage.get("/g"), is(new DiskUsage.Usage(10000000, 1)));
+        assertNull(diskUsage.get("/f.txt"));
+        assertThat(diskUsage.getDirectories().size(), is(8));
+        assertThat(ranges.size(), is(2));
+    }
+
+    @Test
+    public void testSubdirectoryInShards() throws Exception {
+        DiskUsage diskUsage = service.diskUsage("/a", 16);
+
+        assertThat(diskUsage.getTotal(), is(new DiskUsage.Usage(111111, 6)));
+        assertThat(diskUsage.get("/a/b"), is(new DiskUsage.Usage(110000, 2)));
+        assertThat(diskUsage.get("/a/e"), is(new DiskUsage.Usage(0, 0)));
+        // one listing per top level directory b-d, b and e
+        assertThat(ranges.size(), is(3));
+    }
+
+    private Node file(String directory, String name, long size) {
+        return service.new File(directory, name, size, null, 1);
+    }
+}
@@ -0,0 +1,146 @@
+package com.akamai.netstorage.service;
+
+import com.akamai.netstorage.DefaultCredential;
+import com.akamai.netstorage.NetStorage;
+import com.akamai.netstorage.Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the DownloadCache
+ */
+public class DownloadCacheTest {
+
+    private final Map<String, byte[]> contents = new HashMap<>();
+    private final AtomicInteger downloads = new AtomicInteger();
+    private volatile CountDownLatch downloadLatch = new CountDownLatch(0);
+    private NetstorageService service;
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("netstorage-cache");
+        NetStorage stub = new NetStorage(new DefaultCredential("example.akamaihd.net", "user", "key")) {
+            @Override
+            public InputStream download(String path) {
+                downloads.incrementAndGet();
+                try {
+                    downloadLatch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new ByteArrayInputStream(contents.get(path.substring("/12345".length())));
+            }
+        };
+        Executor direct = Runnable::run;
+        service = new NetstorageService("example.akamaihd.net", "user", "key", "/12345", direct, direct, new MappingJackson2XmlHttpMessageConverter()) {
+            @Override
+            public NetStorage getNetStorage() {
+                return stub;
+            }
+
+            @Override
+            public Node stat(String path) {
+                byte[] content = contents.get(path);
+                String md5 = Utils.encodeHex(Utils.computeHash(new ByteArrayInputStream(content), Utils.HashAlgorithm.MD5));
+                return new File(path.substring(0, path.lastIndexOf('/') + 1), path.substring(path.lastIndexOf('/') + 1), content.length, md5, 1);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (java.util.stream.Stream<Path> files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testHitAfterMiss() throws Exception {
+        contents.put("/a.txt", "Lorem ipsum".getBytes(StandardCharsets.UTF_8));
+        DownloadCache cache = new DownloadCache(service, directory, 1000);
+
+        assertThat(new String(Files.readAllBytes(cache.get("/a.txt")), StandardCharsets.UTF_8), is("Lorem ipsum"));
+        ByteBuffer mapped = cache.map("/a.txt");
+        assertThat(mapped.remaining(), is(11));
+
+        assertThat(downloads.get(), is(1));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getHits(), is(1L));
+    }
+
+    @Test
+    public void testChangedContentIsDownloadedAgain() throws Exception {
+        contents.put("/a.txt", "Lorem ipsum".getBytes(StandardCharsets.UTF_8));
+        DownloadCache cache = new DownloadCache(service, directory, 1000);
+        cache.get("/a.txt");
+
+        contents.put("/a.txt", "dolor sit amet".getBytes(StandardCharsets.UTF_8));
+        assertThat(new String(Files.readAllBytes(cache.get("/a.txt")), StandardCharsets.UTF_8), is("dolor sit amet"));
+        assertThat(downloads.get(), is(2));
+
+        // same content under another path is shared
+        contents.put("/b.txt", "dolor sit amet".getBytes(StandardCharsets.UTF_8));
+        cache.get("/b.txt");
+        assertThat(downloads.get(), is(2));
+    }
+
+    @Test
+    public void testConcurrentMissesDownloadOnce() throws Exception {
+        contents.put("/a.txt", "Lorem ipsum".getBytes(StandardCharsets.UTF_8));
+        DownloadCache cache = new DownloadCache(service, directory, 1000);
+        downloadLatch = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Path>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+                futures.add(executor.submit(() -> cache.get("/a.txt")));
+            Thread.sleep(200);
+            downloadLatch.countDown();
+            for (Future<Path> future : futures)
+                assertTrue(Files.exists(future.get(5, TimeUnit.SECONDS)));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(downloads.get(), is(1));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        contents.put("/a.txt", new byte[60]);
+        byte[] other = new byte[60];
+        other[0] = 1;
+        contents.put("/b.txt", other);
+        DownloadCache cache = new DownloadCache(service, directory, 100);
+
+        Path a = cache.get("/a.txt");
+        cache.get("/b.txt");
+
+        assertFalse(Files.exists(a));
+        assertThat(cache.getSize(), is(60L));
+
+        // restart keeps the remaining object
+        DownloadCache restarted = new DownloadCache(service, directory, 100);
+        restarted.get("/b.txt");
+        assertThat(downloads.get(), is(2));
+    }
+}
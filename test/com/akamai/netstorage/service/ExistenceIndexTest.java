@@ -0,0 +1,41 @@
+package com.akamai.netstorage.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ExistenceIndex
+ */
+public class ExistenceIndexTest {
+
+    @Test
+    public void testNoFalseNegatives() throws Exception {
+        ExistenceIndex index = new ExistenceIndex(10000, 0.01);
+        for (int i = 0; i < 10000; i++)
+            index.add("/a/" + i + ".txt");
+
+        for (int i = 0; i < 10000; i++)
+            assertTrue(index.mightContain("/a/" + i + ".txt"));
+        assertEquals(10000, index.getCount());
+        assertEquals(0.01, index.getFalsePositiveRate(), 0.002);
+    }
+
+    @Test
+    public void testFalsePositiveRate() throws Exception {
+        ExistenceIndex index = new ExistenceIndex(10000, 0.01);
+        for (int i = 0; i < 10000; i++)
+            index.add("/a/" + i + ".txt");
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++)
+            if (index.mightContain("/b/" + i + ".txt"))
+                falsePositives++;
+        assertTrue("false positives: " + falsePositives, falsePositives < 2000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRate() throws Exception {
+        new ExistenceIndex(100, 1);
+    }
+}
@@ -0,0 +1,133 @@
+package com.akamai.netstorage.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.akamai.netstorage.service.ListingDiff.Kind.*;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ListingDiff
+ */
+public class ListingDiffTest {
+
+    private NetstorageService service;
+    private List<Node> current;
+    private final List<String> dirRequests = new ArrayList<>();
+    private final List<String> listRequests = new ArrayList<>();
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        Executor direct = Runnable::run;
+        service = new NetstorageService("example.akamaihd.net", "user", "key", "/12345", direct, direct, new MappingJackson2XmlHttpMessageConverter()) {
+            @Override
+            public Iterator<Node> listRaw(String directoryName, boolean explicitOnly) {
+                listRequests.add(directoryName);
+                List<Node> nodes = new ArrayList<>();
+                for (Node node : current)
+                    if (node.path.startsWith(directoryName))
+                        nodes.add(node);
+                return nodes.iterator();
+            }
+
+            @Override
+            public Iterator<Node> dir(String path) {
+                dirRequests.add(path);
+                Map<String, Node> nodes = new LinkedHashMap<>();
+                for (Node node : current) {
+                    if (!node.path.startsWith(path))
+                        continue;
+                    int slash = node.path.indexOf('/', path.length());
+                    if (slash < 0)
+                        nodes.put(node.path, node);
+                    else
+                        nodes.putIfAbsent(node.path.substring(0, slash), new Directory(path, node.path.substring(path.length(), slash), true, 0, 0, 0));
+                }
+                return nodes.values().iterator();
+            }
+        };
+
+        file = Files.createTempFile("listing", ".snapshot");
+        ListingSnapshot.write(Arrays.asList(
+                directory("/", "a", 1),
+                file("/a/", "x.txt", 1),
+                file("/a/", "y.txt", 1),
+                directory("/", "b", 1),
+                file("/b/", "z.txt", 1),
+                file("/c/deep/", "file.txt", 1),
+                directory("/", "d", 1),
+                file("/d/", "old.txt", 1)).iterator(), file);
+
+        current = Arrays.asList(
+                directory("/", "a", 2),
+                file("/a/", "new.txt", 1),
+                file("/a/", "x.txt", 2),
+                directory("/", "b", 1),
+                // not reflected in the mtime of /b
+                file("/b/", "z.txt", 2),
+                file("/c/deep/", "file.txt", 1),
+                directory("/", "e", 3),
+                file("/e/", "f.txt", 1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testDiffAgainstListing() throws Exception {
+        List<ListingDiff.Change> changes = new ArrayList<>();
+        try (ListingSnapshot snapshot = ListingSnapshot.open(file)) {
+            assertThat(new ListingDiff(service).diff(snapshot, "", changes::add), is(9L));
+        }
+        assertThat(changes, is(Arrays.asList(
+                change(MODIFIED, "/a"), change(ADDED, "/a/new.txt"), change(MODIFIED, "/a/x.txt"), change(REMOVED, "/a/y.txt"),
+                change(MODIFIED, "/b/z.txt"), change(REMOVED, "/d"), change(REMOVED, "/d/old.txt"),
+                change(ADDED, "/e"), change(ADDED, "/e/f.txt"))));
+        assertThat(changes.get(2).getBefore().getSize(), is(1L));
+        assertThat(changes.get(2).getAfter().getSize(), is(2L));
+    }
+
+    @Test
+    public void testRefreshListsChangedDirectoriesOnly() throws Exception {
+        List<ListingDiff.Change> changes = new ArrayList<>();
+        try (ListingSnapshot snapshot = ListingSnapshot.open(file)) {
+            assertThat(new ListingDiff(service).refresh(snapshot, "", changes::add), is(8L));
+        }
+        assertThat(changes, is(Arrays.asList(
+                change(MODIFIED, "/a"), change(ADDED, "/a/new.txt"), change(MODIFIED, "/a/x.txt"), change(REMOVED, "/a/y.txt"),
+                change(REMOVED, "/d"), change(REMOVED, "/d/old.txt"),
+                change(ADDED, "/e"), change(ADDED, "/e/f.txt"))));
+        // /b kept its mtime, the implicit /c has none in the snapshot
+        assertThat(dirRequests, is(Arrays.asList("/", "/a/", "/c/", "/c/deep/")));
+        assertThat(listRequests, is(Arrays.asList("/e")));
+    }
+
+    private Node directory(String directory, String name, long mtime) {
+        return service.new Directory(directory, name, false, 0, 0, mtime);
+    }
+
+    private Node file(String directory, String name, long size) {
+        return service.new File(directory, name, size, null, 1);
+    }
+
+    private static ListingDiff.Change change(ListingDiff.Kind kind, String path) {
+        ListingSnapshot.Entry entry = new ListingSnapshot.Entry(ListingSnapshot.Type.FILE, path, 0, null, 0);
+        return new ListingDiff.Change(kind, kind == ADDED ? null : entry, kind == ADDED ? entry : null);
+    }
+}
@@ -0,0 +1,101 @@
+package com.akamai.netstorage.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ListingSnapshot
+ */
+public class ListingSnapshotTest {
+
+    private NetstorageService service;
+    private List<Node> listing;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        Executor direct = Runnable::run;
+        service = new NetstorageService("example.akamaihd.net", "user", "key", "/12345", direct, direct, new MappingJackson2XmlHttpMessageConverter()) {
+            @Override
+            public Iterator<Node> listRaw(String directoryName, boolean explicitOnly) {
+                return listing.iterator();
+            }
+        };
+        file = Files.createTempFile("listing", ".snapshot");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testLookupAndSubtree() throws Exception {
+        listing = new ArrayList<>();
+        listing.add(service.new ListingDirectory("/", "a", false, 10));
+        listing.add(service.new File("/a/", "b.txt", 5, "7d5efa77cfaaff5f18001612b426fe36", 11));
+        listing.add(service.new ListingDirectory("/a/", "c", false, 12));
+        // spans several blocks
+        for (int i = 0; i < 200; i++)
+            listing.add(service.new File("/a/c/", String.format("%03d.txt", i), i, null, -i));
+        listing.add(service.new Symlink("/a/", "d", null, 0));
+        listing.add(service.new File("/", "e.txt", Long.MAX_VALUE, "", 13));
+
+        assertThat(service.snapshot("", file), is((long) listing.size()));
+
+        try (ListingSnapshot snapshot = ListingSnapshot.open(file)) {
+            assertThat(snapshot.size(), is((long) listing.size()));
+
+            ListingSnapshot.Entry b = snapshot.get("/a/b.txt");
+            assertThat(b.getType(), is(ListingSnapshot.Type.FILE));
+            assertThat(b.getSize(), is(5L));
+            assertThat(b.getMd5(), is("7d5efa77cfaaff5f18001612b426fe36"));
+            assertThat(b.getMtime(), is(11L));
+
+            assertThat(snapshot.get("/a/c").getType(), is(ListingSnapshot.Type.DIRECTORY));
+            assertThat(snapshot.get("/a/c/150.txt").getMtime(), is(-150L));
+            assertThat(snapshot.get("/a/d").getType(), is(ListingSnapshot.Type.SYMLINK));
+            assertThat(snapshot.get("/e.txt").getSize(), is(Long.MAX_VALUE));
+            assertNull(snapshot.get("/e.txt").getMd5());
+            assertNull(snapshot.get("/a/c/200.txt"));
+            assertNull(snapshot.get("/f"));
+
+            List<String> paths = paths(snapshot.iterate("/a/c"));
+            assertThat(paths.size(), is(200));
+            assertThat(paths.get(0), is("/a/c/000.txt"));
+            assertThat(paths.get(199), is("/a/c/199.txt"));
+
+            assertThat(paths(snapshot.iterate("/a/")).size(), is(203));
+            assertThat(paths(snapshot.iterate("")).size(), is(listing.size()));
+            assertFalse(snapshot.iterate("/b").hasNext());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnorderedListingIsRejected() throws Exception {
+        listing = Arrays.asList(
+                service.new File("/", "b.txt", 1, null, 1),
+                service.new File("/", "a.txt", 1, null, 1));
+        service.snapshot("", file);
+    }
+
+    private static List<String> paths(Iterator<ListingSnapshot.Entry> entries) {
+        List<String> paths = new ArrayList<>();
+        while (entries.hasNext())
+            paths.add(entries.next().getPath());
+        return paths;
+    }
+}
@@ -0,0 +1,123 @@
+package com.akamai.netstorage.service;
+
+import com.akamai.netstorage.exception.FileNotFoundException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the NetstorageService
+ */
+public class NetstorageServiceTest {
+
+    private List<Node> listing;
+    private final List<String> stats = new ArrayList<>();
+    private final List<String> uploads = new ArrayList<>();
+    private NetstorageService service;
+
+    @Before
+    public void setUp() throws Exception {
+        Executor direct = Runnable::run;
+        service = new NetstorageService("example.akamaihd.net", "user", "key", "/12345", direct, direct, new MappingJackson2XmlHttpMessageConverter()) {
+            @Override
+            public Iterator<Node> listRaw(String directoryName, boolean explicitOnly) {
+                return listing.iterator();
+            }
+
+            @Override
+            public Node stat(String path) {
+                stats.add(path);
+                for (Node node : listing)
+                    if (node.path.equals(path))
+                        return node;
+                throw new FileNotFoundException("HTTP 404");
+            }
+
+            @Override
+            public void upload(String path, InputStream inputStream) {
+                uploads.add(path);
+            }
+        };
+    }
+
+    @Test
+    public void testListBuildsTreeInListingOrder() throws Exception {
+        // ordered by path: "." sorts before "/"
+        listing = Arrays.asList(
+                service.new ListingDirectory("/", "a", false, 1),
+                service.new ListingDirectory("/a/", "b", false, 1),
+                service.new File("/a/", "b.txt", 1, null, 1),
+                service.new File("/a/b/", "c.txt", 1, null, 1),
+                service.new File("/a/b/d/e/", "f.txt", 1, null, 1),
+                service.new File("/a/", "g.txt", 1, null, 1),
+                service.new File("/a0", "", 1, null, 1));
+
+        NetstorageService.ListingDirectory root = service.list("/a");
+        assertThat(root.getPath(), is("/a/"));
+        assertThat(paths(root.getChildren()), is(Arrays.asList("/a/b/", "/a/b.txt", "/a/g.txt")));
+        assertThat(root.nodeCount(), is(8));
+        assertThat(root.countFiles(), is(4));
+
+        NetstorageService.ListingDirectory b = (NetstorageService.ListingDirectory) root.getChildren().iterator().next();
+        assertFalse(b.isImplicit());
+        assertThat(paths(b.getChildren()), is(Arrays.asList("/a/b/c.txt", "/a/b/d/")));
+
+        NetstorageService.ListingDirectory d = (NetstorageService.ListingDirectory) b.children.get(1);
+        assertTrue(d.isImplicit());
+        NetstorageService.ListingDirectory e = (NetstorageService.ListingDirectory) d.children.get(0);
+        assertTrue(e.isImplicit());
+        assertThat(paths(e.getChildren()), is(Arrays.asList("/a/b/d/e/f.txt")));
+    }
+
+    @Test
+    public void testListOfWholeCpCode() throws Exception {
+        listing = Arrays.asList(
+                service.new File("/", "a.txt", 1, null, 1),
+                service.new File("/b/", "c.txt", 1, null, 1));
+
+        NetstorageService.ListingDirectory root = service.list("");
+        assertThat(paths(root.getChildren()), is(Arrays.asList("/a.txt", "/b/")));
+        assertThat(root.countFiles(), is(2));
+    }
+
+    @Test
+    public void testUploadIfAbsent() throws Exception {
+        listing = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            listing.add(service.new File("/a/", i + ".txt", 1, null, 1));
+        ExistenceIndex existenceIndex = service.existenceIndex("/a", 1000);
+
+        assertFalse(service.uploadIfAbsent("/a/1.txt", new ByteArrayInputStream(new byte[0]), existenceIndex));
+        assertThat(stats, is(Arrays.asList("/a/1.txt")));
+
+        // definitely absent, no stat
+        assertTrue(service.uploadIfAbsent("/a/new.txt", new ByteArrayInputStream(new byte[0]), existenceIndex));
+        assertThat(stats.size(), is(1));
+        assertThat(uploads, is(Arrays.asList("/a/new.txt")));
+
+        // known since the upload
+        assertTrue(existenceIndex.mightContain("/a/new.txt"));
+
+        // without index every path is stat'ed
+        assertTrue(service.uploadIfAbsent("/a/other.txt", new ByteArrayInputStream(new byte[0]), null));
+        assertThat(stats, is(Arrays.asList("/a/1.txt", "/a/other.txt")));
+    }
+
+    private static List<String> paths(Iterable<Node> nodes) {
+        List<String> paths = new ArrayList<>();
+        for (Node node : nodes)
+            paths.add(node.getPath());
+        return paths;
+    }
+}
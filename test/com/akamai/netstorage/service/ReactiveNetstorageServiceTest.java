@@ -0,0 +1,145 @@
+package com.akamai.netstorage.service;
+
+import com.akamai.netstorage.CircuitBreaker;
+import com.akamai.netstorage.CircuitBreakerRegistry;
+import com.akamai.netstorage.exception.ConnectionException;
+import com.akamai.netstorage.exception.FileNotFoundException;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ReactiveNetstorageService
+ */
+public class ReactiveNetstorageServiceTest {
+
+    private HttpServer server;
+    private final Queue<String> actions = new ConcurrentLinkedQueue<>();
+    private NetstorageService netstorageService;
+    private ReactiveNetstorageService service;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String action = exchange.getRequestHeaders().getFirst("X-Akamai-ACS-Action");
+            actions.add(action);
+            String body;
+            int status = 200;
+            if (exchange.getRequestURI().getPath().startsWith("/12345/slow")) {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (exchange.getRequestURI().getPath().startsWith("/12345/missing")) {
+                body = "";
+                status = 404;
+            } else if (!action.contains("start=")) {
+                body = "<list><file type=\"file\" name=\"12345/a/b.txt\" size=\"3\" md5=\"abc\" mtime=\"1\"/>"
+                        + "<resume start=\"12345/a/c\"/></list>";
+            } else {
+                body = "<list><file type=\"dir\" name=\"12345/a/c\" mtime=\"2\"/></list>";
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(bytes);
+            }
+        });
+        server.start();
+
+        Executor direct = Runnable::run;
+        NetstorageService netstorageService = new NetstorageService("example.akamaihd.net", "user", "key", "/12345",
+                direct, direct, new MappingJackson2XmlHttpMessageConverter());
+        // NetStorage is HTTPS only, redirect to the local server
+        String local = "http://localhost:" + server.getAddress().getPort();
+        WebClient webClient = WebClient.builder()
+                .filter((request, next) -> next.exchange(ClientRequest.from(request)
+                        .url(URI.create(local + request.url().getRawPath()))
+                        .build()))
+                .build();
+        service = new ReactiveNetstorageService(netstorageService, webClient);
+        this.netstorageService = netstorageService;
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testListFetchesResumePages() throws Exception {
+        List<Node> nodes = service.list("/a", false).collectList().block();
+
+        assertThat(nodes.size(), is(2));
+        assertThat(nodes.get(0).getPath(), is("/a/b.txt"));
+        assertThat(nodes.get(1).getPath(), is("/a/c/"));
+        assertThat(actions.size(), is(2));
+    }
+
+    @Test
+    public void testListIsDemandDriven() throws Exception {
+        Node first = service.list("/a", false).next().block();
+
+        assertThat(first.getPath(), is("/a/b.txt"));
+        assertThat(actions.size(), is(1));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testNotFound() throws Exception {
+        service.stat("/missing").block();
+    }
+
+    @Test
+    public void testQuickDeleteIgnoresNotFound() throws Exception {
+        service.quickDelete("/missing").block();
+        assertThat(actions.size(), is(1));
+    }
+
+    @Test
+    public void testCancelledProbeIsReleased() throws Exception {
+        CircuitBreaker.Config config = new CircuitBreaker.Config();
+        config.setSlidingWindowSize(1);
+        config.setMinimumNumberOfCalls(1);
+        config.setWaitDurationInOpenState(0);
+        config.setPermittedCallsInHalfOpenState(2);
+        netstorageService.getNetStorage().setCircuitBreakerRegistry(new CircuitBreakerRegistry(config));
+        CircuitBreaker circuitBreaker = netstorageService.getNetStorage().getCircuitBreakerRegistry().forHost("example.akamaihd.net");
+        circuitBreaker.onError(new ConnectionException("reset"));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+
+        // more cancelled calls than probes are permitted
+        for (int i = 0; i < 3; i++) {
+            try {
+                service.stat("/slow").timeout(Duration.ofMillis(50)).block();
+                fail("The call must time out");
+            } catch (RuntimeException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+        }
+
+        service.delete("/a").block();
+        service.delete("/a").block();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+}